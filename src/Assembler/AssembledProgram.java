@@ -0,0 +1,151 @@
+package Assembler;
+
+/*
+ * AssembledProgram: The immutable result of assembling one source file. It holds the load image,
+ * the start address, the address of every HLT instruction, the LOC redirects and the symbol table,
+ * so it can be shared freely between threads and CPUs. The listing and load file lines are only
+ * formatted the first time they are asked for (the listing by assembling the source lines again).
+ * Every getter returns a copy or an unmodifiable view.
+ *
+ * getSourceFile(): Returns the source file the program was assembled from.
+ * - @return String: The source path.
+ *
+ * getLoadAddresses(), getLoadValues(): Return the load image as two parallel arrays, in the order
+ * the words appear in the load file.
+ * - @return int[]: The addresses, or the words stored at them.
+ *
+ * getStartAddress(): Returns the address execution starts at (the first LOC).
+ * - @return int: The start address.
+ *
+ * getHaltAddresses(): Returns the address of every HLT instruction, in ascending order. A program
+ * without one reports address 0, which is where the simulator has always halted by default.
+ * - @return int[]: The HLT addresses.
+ *
+ * getLocDirectives(): Returns the LOC redirects, from the address after the last word before a
+ * LOC to the LOC's target.
+ * - @return Map<Integer, Integer>: The redirects.
+ *
+ * getSymbolTable(): Returns the address of every label.
+ * - @return Map<String, Integer>: The labels.
+ *
+ * getListing(), getLoadFile(): Return the lines of the listing and load files, formatting them on
+ * the first call.
+ * - @return List<String>: The lines.
+ *
+ * newProgramCounter(): Creates a ProgramCounter holding the program's LOC redirects and set to the
+ * start address. Each CPU running the program needs its own.
+ * - @return ProgramCounter: A new program counter.
+ *
+ * writeFiles(String listingPath, String loadPath): Writes the listing and load files.
+ * - @param listingPath: Where to write the listing.
+ * - @param loadPath: Where to write the load file.
+ * - @throws IOException: If a file cannot be written.
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import components.ProgramCounter;
+
+public final class AssembledProgram {
+    private final String sourceFile;
+    private final int[] loadAddresses;
+    private final int[] loadValues;
+    private final byte[] loadDigits;  // Octal digits each word is written with (6, or more if it overflows)
+    private final int startAddress;
+    private final int[] haltAddresses;
+    private final Map<Integer, Integer> locDirectives;
+    private final Map<String, Integer> symbolTable;
+    private final List<String> sourceLines;
+    private volatile List<String> listing;   // Formatted on first use
+    private volatile List<String> loadFile;
+
+    AssembledProgram(String sourceFile, List<String> sourceLines, int[] loadAddresses, int[] loadValues, byte[] loadDigits,
+                     int startAddress, int[] haltAddresses, Map<Integer, Integer> locDirectives, Map<String, Integer> symbolTable) {
+        this.sourceFile = sourceFile;
+        this.sourceLines = Collections.unmodifiableList(new ArrayList<>(sourceLines));
+        this.loadAddresses = loadAddresses;
+        this.loadValues = loadValues;
+        this.loadDigits = loadDigits;
+        this.startAddress = startAddress;
+        this.haltAddresses = haltAddresses.length > 0 ? haltAddresses.clone() : new int[] {0};
+        this.locDirectives = Collections.unmodifiableMap(new TreeMap<>(locDirectives));
+        this.symbolTable = Collections.unmodifiableMap(new TreeMap<>(symbolTable));
+    }
+
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    public int[] getLoadAddresses() {
+        return loadAddresses.clone();
+    }
+
+    public int[] getLoadValues() {
+        return loadValues.clone();
+    }
+
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    public int[] getHaltAddresses() {
+        return haltAddresses.clone();
+    }
+
+    public Map<Integer, Integer> getLocDirectives() {
+        return locDirectives;
+    }
+
+    public Map<String, Integer> getSymbolTable() {
+        return symbolTable;
+    }
+
+    public List<String> getListing() {
+        if (listing == null) {
+            listing = Collections.unmodifiableList(new Assembler().listing(sourceLines));
+        }
+        return listing;
+    }
+
+    public List<String> getLoadFile() {
+        if (loadFile == null) {
+            List<String> lines = new ArrayList<>(loadAddresses.length);
+            for (int n = 0; n < loadAddresses.length; n++) {
+                String word = Integer.toOctalString(loadValues[n]);
+                lines.add(String.format("%06o ", loadAddresses[n]) + "0".repeat(Math.max(loadDigits[n] - word.length(), 0)) + word);
+            }
+            loadFile = Collections.unmodifiableList(lines);
+        }
+        return loadFile;
+    }
+
+    public ProgramCounter newProgramCounter() {
+        ProgramCounter pc = new ProgramCounter();
+        for (Map.Entry<Integer, Integer> directive : locDirectives.entrySet()) {
+            pc.addLocDirective(directive.getKey(), directive.getValue());
+        }
+        pc.setPC(startAddress);
+        return pc;
+    }
+
+    public void writeFiles(String listingPath, String loadPath) throws IOException {
+        writeLines(listingPath, getListing());
+        writeLines(loadPath, getLoadFile());
+    }
+
+    private static void writeLines(String path, List<String> lines) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+}
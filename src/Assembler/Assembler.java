@@ -2,19 +2,42 @@ package Assembler;
 
 /*
  * Assembler: This class contains methods for assembling a C6461 assembly source file into machine code. 
- * The assembler follows a two-pass process: 
- * Pass One populates the label table and determines code locations, while Pass Two generates the machine code.
+ * The assembler makes a single pass over the source, defining labels and generating the machine code
+ * as it goes. A word that uses a label defined further on is recorded as a fixup and encoded (in
+ * the load image and the listing) when the label is defined; operands whose labels are never defined
+ * are encoded as written at the end of the source, which reports them as the two-pass assembler did.
+ * Code before the first LOC is laid out from that LOC, so in the rare source that has any, the pass
+ * restarts once from the first LOC.
  * 
- * passOne(String fileName): Populates the label table and determines code location.
- * - @param fileName: The name of the source file to read.
- * - @throws IOException If an I/O error occurs.
+ * The source is read once, into lines (kept for the listing). Every word goes to a WordSink as soon
+ * as it is encoded (e.g. straight into a Memory) and into the load image as int arrays; the listing
+ * is only formatted when asked for, so assembling and loading a program touches no files beyond the
+ * source, or none at all for a source held in memory.
  * 
- * passTwo(String fileName): Converts source instructions into machine code and generates the listing and load files.
- * - @param fileName: The name of the source file to read.
- * - @throws IOException If an I/O error occurs.
+ * Each line goes through a Lexer, which finds its tokens and operand fields as offsets into the line
+ * rather than as strings. Mnemonics are resolved by a switch on their packed letters (opcodeOf), labels
+ * straight from the line's characters, and an instruction whose fields are labels or numbers is
+ * encoded arithmetically (encode), so the usual line is assembled without creating an object. Only
+ * the listing, forward references and malformed lines build strings, and the last are still encoded
+ * by getOperandValue, so every word and error is the same as before. A mnemonic that is not an
+ * instruction stops the assembly with an IllegalArgumentException naming it and its line (it used
+ * to encode as an empty word).
  * 
- * getOperandValue(String opcode, String operand): Resolves an operand (e.g., register, address) into a machine code value.
- * - @param opcode: The operation code to process (e.g., LDR, STR).
+ * onePass(List<String> lines, WordSink sink, boolean listing, int knownStart): Assembles the lines.
+ * - @param lines: The source lines.
+ * - @param sink: Receives every word, or null.
+ * - @param listing: Whether to build the listing lines.
+ * - @param knownStart: The first LOC's address, if an earlier pass found code before it, or -1.
+ * - @return int: -1, or the first LOC's address if the pass must be made again from it.
+ * 
+ * encode(int opcode, Lexer operands): Encodes an instruction from its lexed fields, widening it for a
+ * field that overflows as getOperandValue does.
+ * - @param opcode: The opcode (e.g., LDR).
+ * - @param operands: The lexed operand fields.
+ * - @return int: The word (its octal digits left in wordDigits), or -1 if only getOperandValue can encode it.
+ * 
+ * getOperandValue(int opcode, String operand): Resolves an operand (e.g., register, address) into a machine code value.
+ * - @param opcode: The opcode to process (e.g., LDR, STR).
  * - @param operand: The operand part of the instruction (e.g., registers, memory address).
  * - @return String The corresponding machine code value in octal.
  * 
@@ -22,364 +45,775 @@ package Assembler;
  * - @param binaryString: The binary string to convert.
  * - @return String The converted octal value as a string.
  * 
- * isInstruction(String[] parts): Checks if a given line of the source file contains a valid instruction.
- * - @param parts: An array of strings representing a split line of source code.
- * - @return boolean True if the line contains an instruction, false otherwise.
+ * run(String sourceFile): Assembles a source file, writes the listing and load files to output/
+ * and prints progress messages.
+ * - @param sourceFile: The name of the source file to assemble.
+ * - @return AssembledProgram: The assembled program.
+ * - @throws IOException: If an I/O error occurs during file reading or writing.
+ * 
+ * assemble(String sourceFile): Assembles a source file without printing or writing any files.
+ * - @param sourceFile: The name of the source file to assemble.
+ * - @return AssembledProgram: The assembled program.
+ * - @throws IOException: If an I/O error occurs while reading the source.
+ * - @throws IllegalArgumentException: If a line has an unknown instruction (as do the other
+ *   assemble methods and run).
+ * 
+ * assemble(String sourceName, Reader source, WordSink sink), assemble(String sourceName,
+ * CharSequence source, WordSink sink): Assembles a source from any reader or from text in memory,
+ * emitting every word to the sink as it is encoded. The returned program formats its listing and
+ * load file lines only when they are asked for.
+ * - @param sourceName: The name the program goes by (AssembledProgram.getSourceFile).
+ * - @param source: The source text; its first line is a header and is skipped.
+ * - @param sink: Receives every word (e.g. memory::storeValue), or null.
+ * - @return AssembledProgram: The assembled program.
+ * - @throws IOException: If the reader fails.
  * 
- * writeFiles(): Writes the listing and load file outputs based on the processed instructions.
- * - @throws IOException If an I/O error occurs while writing to the files. 
+ * listing(List<String> lines): Assembles source lines again for their listing (see
+ * AssembledProgram.getListing).
+ * - @return List<String>: The listing lines.
  * 
- * run(String sourceFile): Executes the assembler by running both passes and writing output files.
- * @param sourceFile The name of the source file to assemble.
- * @throws IOException If an I/O error occurs during file reading or writing.
+ * Each Assembler keeps its working state (label table, listing, load lines, LOC redirects) in
+ * instance fields and clears it at the start of every assembly, so an instance can be reused but
+ * not shared between threads; give each thread its own. The AssembledProgram it returns is
+ * immutable and can be shared.
  */
 
 import java.io.*;
 import java.util.*;
-
-import components.ProgramCounter;
+import java.util.stream.Collectors;
 
 public class Assembler {
+    // Opcodes, as their 6-bit fields.
+    private static final int HLT = 0b000000, LDR = 0b000001, STR = 0b000010, LDA = 0b000011, LDX = 0b101001, STX = 0b101010;
+    private static final int JZ = 0b001010, JNE = 0b001011, JCC = 0b001100, JMA = 0b001101, JSR = 0b001110;
+    private static final int RFS = 0b001111, SOB = 0b010000, JGE = 0b010001;
+    private static final int AMR = 0b000100, SMR = 0b000101, AIR = 0b000110, SIR = 0b000111;
+    private static final int MLT = 0b111000, DVD = 0b111001, TRR = 0b111010, AND = 0b111011, ORR = 0b111100, NOT = 0b111101;
+    private static final int SRC = 0b110001, RRC = 0b110010;
+    private static final int IN = 0b110011, OUT = 0b110100, CHK = 0b110101;
+    private static final int TRAP = 0b011110;
+    private static final int UNKNOWN = -1;  // Not a mnemonic
+    private static final int DATA = -2;     // A Data word (in a Fixup)
+    private static final String rowFormat = "%-10s %-13s %-6s %-16s %5s";
+    private static final int MAX_LOC_TARGET = 0xFFF;  // Same 12-bit range as the ProgramCounter
+
+    private final Lexer lexer = new Lexer();         // The line being assembled
+    private final Lexer operandLexer = new Lexer();  // The operands of a Fixup being encoded
     // Holds label locations
-    private static Map<String, Integer> labelTable = new HashMap<>();
-    private static List<String> listingFile = new ArrayList<>();
-    private static List<String> loadFile = new ArrayList<>();
-    private static int currentAddress = 0;
-    private static final Map<String, String> opcodeMap = new HashMap<>();
-    private static Set<String> memoryToMemory = new HashSet<>();
-    private static Set<String> registerToRegister = new HashSet<>();
-    private static Set<String> shiftRotate = new HashSet<>();
-    private static Set<String> inputOutput = new HashSet<>();
-    private static Set<String> miscellaneous = new HashSet<>();
-    private static String rowFormat = "%-10s %-13s %-6s %-16s %5s";
-    private static int startAddress = 0;
-    private static int hltAddress = 0;
-    private static ProgramCounter programCounter;  
-
-    public Assembler() {
-        programCounter = new ProgramCounter();
-    }
-
-    // initialize opcodeMap.
-    static {
-        // Load/Store Instructions.
-        opcodeMap.put("LDR", "000001"); 
-        opcodeMap.put("STR", "000010");
-        opcodeMap.put("LDA", "000011");
-        opcodeMap.put("LDX", "101001"); 
-        opcodeMap.put("STX", "101010"); 
-    
-        // Transfer Instructions.
-        opcodeMap.put("JZ", "001010");  
-        opcodeMap.put("JNE", "001011");  
-        opcodeMap.put("JCC", "001100");  
-        opcodeMap.put("JMA", "001101");  
-        opcodeMap.put("JSR", "001110");  
-        opcodeMap.put("RFS", "001111");  
-        opcodeMap.put("SOB", "010000");  
-        opcodeMap.put("JGE", "010001");
-
-        // Arithmetic/Logical Instructions.
-        opcodeMap.put("AMR", "000100");  
-        opcodeMap.put("SMR", "000101");  
-        opcodeMap.put("AIR", "000110");  
-        opcodeMap.put("SIR", "000111"); 
-
-        // Register to Register Operations.
-        opcodeMap.put("MLT", "111000"); 
-        opcodeMap.put("DVD", "111001"); 
-        opcodeMap.put("TRR", "111010"); 
-        opcodeMap.put("AND", "111011"); 
-        opcodeMap.put("ORR", "111100");
-        opcodeMap.put("NOT", "111101"); 
-
-        // Shift/Rotate Operations.
-        opcodeMap.put("SRC", "110001"); 
-        opcodeMap.put("RRC", "110010"); 
-
-        // I/O Operations.
-        opcodeMap.put("IN", "110011");  
-        opcodeMap.put("OUT", "110100"); 
-        opcodeMap.put("CHK", "110101"); 
-
-        // Miscellaneous Instructions.
-        opcodeMap.put("HLT", "000000");
-        opcodeMap.put("TRAP", "011110");
-    }
-
-    // initialize memoryToMemory instructions.
-    static {
-        memoryToMemory.add("LDR");
-        memoryToMemory.add("STR");
-        memoryToMemory.add("LDA");
-        memoryToMemory.add("LDX");
-        memoryToMemory.add("STX");
-        memoryToMemory.add("JZ");
-        memoryToMemory.add("JNE");
-        memoryToMemory.add("JCC");
-        memoryToMemory.add("JMA");
-        memoryToMemory.add("JSR");
-        memoryToMemory.add("RFS");
-        memoryToMemory.add("SOB");
-        memoryToMemory.add("JGE");
-        memoryToMemory.add("AMR");
-        memoryToMemory.add("SMR");
-        memoryToMemory.add("AIR");
-        memoryToMemory.add("SIR");
-
-    }
-
-    // initalize registerToRegister.
-    static {
-        registerToRegister.add("MLT");
-        registerToRegister.add("DVD");
-        registerToRegister.add("TRR");
-        registerToRegister.add("AND");
-        registerToRegister.add("ORR");
-        registerToRegister.add("NOT");
-    }
-
-    // initalize shiftRotate.
-    static {
-        shiftRotate.add("SRC");
-        shiftRotate.add("RRC");
-    }
-
-    // initalize inputOutput.
-    static {
-        inputOutput.add("IN");
-        inputOutput.add("OUT");
-        inputOutput.add("CHK");
-    }
-
-    // initalize miscellaneous.
-    static {
-        miscellaneous.add("HLT");
-        miscellaneous.add("TRAP");
+    private final Labels labels = new Labels();
+    private final List<String> listingFile = new ArrayList<>();
+    private int[] loadAddresses = new int[64];  // The load image, in source order
+    private int[] loadValues = new int[64];
+    private int loadCount;
+    private byte[] loadDigits = new byte[64];     // Octal digits of each word in the load file
+    private boolean[] pending = new boolean[64];  // Words waiting for a label
+    private final Map<String, List<Fixup>> waiting = new HashMap<>();  // By the label they wait for
+    private final Map<Integer, Fixup> waitingAt = new HashMap<>();     // By address, until a later word replaces them
+    private boolean holding;  // Words are not handed to the sink before the first LOC
+    private final Map<Integer, Integer> locDirectives = new HashMap<>();
+    private final List<Integer> hltAddresses = new ArrayList<>();
+    private int currentAddress = 0;
+    private int startAddress = 0;
+    private boolean relisting;  // Assembling again for a listing: errors were reported the first time
+    private long word;       // The instruction encode is building
+    private int wordBits;    // Its width so far
+    private int wordDigits;  // The octal digits of the word encode returned
+
+    // A word whose encoding waits for labels (or is being encoded for the listing): where it goes and what it says.
+    private static final class Fixup {
+        final int index;        // In the load image
+        final int address;
+        final int opcode;       // Or UNKNOWN, or DATA
+        final String operands;  // As written: comma-separated fields, or the Data value
+        final String mnemonic;  // As written, for the listing
+        final String comment;
+        final int row;          // In the listing, or -1
+        boolean resolved;
+        boolean superseded;     // A later word went to the same address, so the sink never sees this one
+
+        Fixup(int index, int address, int opcode, String operands, String mnemonic, String comment, int row) {
+            this.index = index;
+            this.address = address;
+            this.opcode = opcode;
+            this.operands = operands;
+            this.mnemonic = mnemonic;
+            this.comment = comment;
+            this.row = row;
+        }
     }
-    
-    private static void passOne(String fileName) throws IOException {
-        BufferedReader reader1 = new BufferedReader(new FileReader(fileName));
-        String line = reader1.readLine();    // skip header line
-        boolean startAssigned = false;
-        int lastInstructionAddress = -1;  // Track last real instruction address
-
-        currentAddress = 0;  // Reset current address at start
 
-        // First pass - just look for the first LOC
-        while ((line = reader1.readLine()) != null) {
-            if (line.trim().isEmpty() || line.trim().startsWith(";")) continue;
-            
-            String[] parts = Arrays.stream(line.split("\\s+"))
-                                .filter(s -> !s.trim().isEmpty())
-                                .toArray(String[]::new);
-            
-            if (parts.length == 0) continue;
-
-            if (parts[0].equalsIgnoreCase("LOC")) {
-                try {
-                    currentAddress = Integer.parseInt(parts[1]);
-                    startAddress = currentAddress;
-                    startAssigned = true;
-                    break;  // Found our starting point
-                } catch (NumberFormatException e) {
-                    System.err.println("Error: Invalid address for LOC directive");
+    // Label addresses, found straight from the characters of a line: open addressing on String.hashCode.
+    private static final class Labels {
+        private String[] names = new String[64];
+        private int[] hashes = new int[64];
+        private int[] addresses = new int[64];
+        private int count;
+        private boolean numeric;  // Some label is spelt as a number, so numbers must be looked up too
+
+        // The slot of the label spelt by text[start, end), or -1.
+        int find(String text, int start, int end) {
+            int hash = 0;
+            for (int n = start; n < end; n++) {
+                hash = 31 * hash + text.charAt(n);
+            }
+            int length = end - start;
+            int mask = names.length - 1;
+            for (int slot = spread(hash) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && names[slot].length() == length && names[slot].regionMatches(0, text, start, length)) {
+                    return slot;
                 }
             }
+            return -1;
         }
-        reader1.close();
-        
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
-        line = reader.readLine();  // skip header
-    
-        while ((line = reader.readLine()) != null) {
-            if (line.trim().isEmpty() || line.trim().startsWith(";")) {
-                continue;
+
+        int find(String name) {
+            return find(name, 0, name.length());
+        }
+
+        int address(int slot) {
+            return addresses[slot];
+        }
+
+        // Defines a label, or moves it to a new address.
+        void define(String name, int address) {
+            int slot = find(name);
+            if (slot < 0) {
+                if (2 * (count + 1) > names.length) {
+                    rehash(names.length * 2);
+                }
+                slot = insert(name);
+                count++;
+                numeric |= Lexer.isNumber(name, 0, name.length());
             }
-    
-            int commentIndex = line.indexOf(';');
-            if (commentIndex != -1) {
-                line = line.substring(0, commentIndex).trim();
+            addresses[slot] = address;
+        }
+
+        private int insert(String name) {
+            int hash = name.hashCode();
+            int mask = names.length - 1;
+            int slot = spread(hash) & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
             }
-            
-            String[] parts = Arrays.stream(line.split("\\s+"))
-                                  .filter(s -> !s.trim().isEmpty())
-                                  .toArray(String[]::new);
-            
-            if (parts.length == 0) continue;
-    
-            // Handle LOC directive
-            if (parts[0].equalsIgnoreCase("LOC")) {
-                if (parts.length > 1) {
-                    try {
-                        int targetLocation = Integer.parseInt(parts[1]);
-                        currentAddress = targetLocation;  // Always set current address
-                        if (!startAssigned) {
-                            startAddress = targetLocation;
-                            startAssigned = true;
-                        } else {
-                            if (lastInstructionAddress != -1) {
-                                programCounter.addLocDirective(lastInstructionAddress + 1, targetLocation);
-                            }
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error: Invalid address for LOC directive");
-                    }
+            names[slot] = name;
+            hashes[slot] = hash;
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            String[] oldNames = names;
+            int[] oldAddresses = addresses;
+            names = new String[capacity];
+            hashes = new int[capacity];
+            addresses = new int[capacity];
+            for (int n = 0; n < oldNames.length; n++) {
+                if (oldNames[n] != null) {
+                    addresses[insert(oldNames[n])] = oldAddresses[n];
                 }
-                continue;  // Changed from return to continue
             }
+        }
 
-            // Only process further if we have a start address
-    
-            // Handle labels first, before processing any instruction or data
-            if (parts[0].endsWith(":")) {
-                String label = parts[0].substring(0, parts[0].length() - 1);
-                labelTable.put(label, currentAddress);
-                parts = Arrays.copyOfRange(parts, 1, parts.length);
-                if (parts.length == 0) continue;
-            }
-    
-            // Track real instructions and data
-            if (isInstruction(parts) || 
-                parts[0].equalsIgnoreCase("Data") || 
-                (parts.length > 1 && parts[1].equalsIgnoreCase("Data"))) {
-                lastInstructionAddress = currentAddress;
-                currentAddress++;  // Increment after processing instruction or data
+        private static int spread(int hash) {
+            return hash ^ hash >>> 16;
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        boolean isNumeric() {
+            return numeric;
+        }
+
+        void clear() {
+            Arrays.fill(names, null);
+            count = 0;
+            numeric = false;
+        }
+
+        Map<String, Integer> toMap() {
+            Map<String, Integer> map = new HashMap<>();
+            for (int n = 0; n < names.length; n++) {
+                if (names[n] != null) {
+                    map.put(names[n], addresses[n]);
+                }
             }
-        }  // <-- This was missing
-        if (!startAssigned) {
-            startAddress = 0;
-            currentAddress = 0;
-            startAssigned = true;
+            return map;
         }
-    
-        // At end of passOne
-        reader.close();
     }
 
-    private static void passTwo(String fileName) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
-        String line = reader.readLine();    // skip header line
-        currentAddress = startAddress;
+    // The opcode of a mnemonic (see Lexer.mnemonic), by a switch on its packed letters.
+    private static int opcodeOf(int mnemonic) {
+        switch (mnemonic) {
+            // Load/Store Instructions.
+            case 'L' << 16 | 'D' << 8 | 'R':
+                return LDR;
+            case 'S' << 16 | 'T' << 8 | 'R':
+                return STR;
+            case 'L' << 16 | 'D' << 8 | 'A':
+                return LDA;
+            case 'L' << 16 | 'D' << 8 | 'X':
+                return LDX;
+            case 'S' << 16 | 'T' << 8 | 'X':
+                return STX;
+
+            // Transfer Instructions.
+            case 'J' << 8 | 'Z':
+                return JZ;
+            case 'J' << 16 | 'N' << 8 | 'E':
+                return JNE;
+            case 'J' << 16 | 'C' << 8 | 'C':
+                return JCC;
+            case 'J' << 16 | 'M' << 8 | 'A':
+                return JMA;
+            case 'J' << 16 | 'S' << 8 | 'R':
+                return JSR;
+            case 'R' << 16 | 'F' << 8 | 'S':
+                return RFS;
+            case 'S' << 16 | 'O' << 8 | 'B':
+                return SOB;
+            case 'J' << 16 | 'G' << 8 | 'E':
+                return JGE;
+
+            // Arithmetic/Logical Instructions.
+            case 'A' << 16 | 'M' << 8 | 'R':
+                return AMR;
+            case 'S' << 16 | 'M' << 8 | 'R':
+                return SMR;
+            case 'A' << 16 | 'I' << 8 | 'R':
+                return AIR;
+            case 'S' << 16 | 'I' << 8 | 'R':
+                return SIR;
+
+            // Register to Register Operations.
+            case 'M' << 16 | 'L' << 8 | 'T':
+                return MLT;
+            case 'D' << 16 | 'V' << 8 | 'D':
+                return DVD;
+            case 'T' << 16 | 'R' << 8 | 'R':
+                return TRR;
+            case 'A' << 16 | 'N' << 8 | 'D':
+                return AND;
+            case 'O' << 16 | 'R' << 8 | 'R':
+                return ORR;
+            case 'N' << 16 | 'O' << 8 | 'T':
+                return NOT;
+
+            // Shift/Rotate Operations.
+            case 'S' << 16 | 'R' << 8 | 'C':
+                return SRC;
+            case 'R' << 16 | 'R' << 8 | 'C':
+                return RRC;
+
+            // I/O Operations.
+            case 'I' << 8 | 'N':
+                return IN;
+            case 'O' << 16 | 'U' << 8 | 'T':
+                return OUT;
+            case 'C' << 16 | 'H' << 8 | 'K':
+                return CHK;
+
+            // Miscellaneous Instructions.
+            case 'H' << 16 | 'L' << 8 | 'T':
+                return HLT;
+            case 'T' << 24 | 'R' << 16 | 'A' << 8 | 'P':
+                return TRAP;
+
+            default:
+                return UNKNOWN;
+        }
+    }
     
-        while ((line = reader.readLine()) != null) {
+    // Assembles the lines in one pass. Returns -1, or the start address if code came before the first
+    // LOC and was laid out from the wrong address (the caller then assembles again from it).
+    private int onePass(List<String> lines, WordSink sink, boolean listing, int knownStart) {
+        boolean locSeen = false;
+        int lastInstructionAddress = -1;  // Track last real instruction address
+        holding = knownStart < 0;  // Hold words back until the first LOC places them
+        startAddress = Math.max(knownStart, 0);
+        currentAddress = startAddress;
+
+        for (int n = 1; n < lines.size(); n++) {  // skip header line
+            String line = lines.get(n);
+            lexer.line(line);
+
             // Handle empty lines
-            if (line.trim().isEmpty()) {
-                listingFile.add("");
+            if (lexer.isBlank()) {
+                if (listing) {
+                    listingFile.add("");
+                }
                 continue;
             }
     
             // Handle comment-only lines
-            if (line.trim().startsWith(";")) {
-                listingFile.add(line.trim());
+            if (lexer.isCommentOnly()) {
+                if (listing) {
+                    listingFile.add(line.trim());
+                }
                 continue;
             }
     
-            // Extract and handle comments
-            String comment = "";
-            int commentIndex = line.indexOf(';');
-            if (commentIndex != -1) {
-                comment = "\t\t" + line.substring(commentIndex).trim();
-                line = line.substring(0, commentIndex).trim();
-            }
-    
-            // Split and filter out empty strings
-            String[] parts = Arrays.stream(line.split("\\s+"))
-                                  .filter(s -> !s.trim().isEmpty())
-                                  .toArray(String[]::new);
+            // Comments only go to the listing
+            String comment = listing ? lexer.comment() : "";
+            int parts = lexer.tokenCount();
     
-            if (parts.length == 0) {
-                listingFile.add(comment);
+            if (parts == 0) {
+                if (listing) {
+                    listingFile.add(comment);
+                }
                 continue;
             }
     
             // Handle LOC directive
-            if (parts[0].equalsIgnoreCase("LOC")) {
-                if (parts.length > 1) {
-                    currentAddress = Integer.parseInt(parts[1]);
-                    listingFile.add(String.format(rowFormat, "", "", "LOC", parts[1], comment));
+            if (lexer.tokenIs(0, "LOC")) {
+                if (parts > 1) {
+                    int targetLocation;
+                    try {
+                        targetLocation = lexer.number(1);
+                    } catch (NumberFormatException e) {
+                        if (!relisting) {
+                            System.err.println("Error: Invalid address for LOC directive");
+                        }
+                        throw e;
+                    }
+                    if (!locSeen) {
+                        locSeen = true;
+                        if (knownStart < 0 && targetLocation != 0 && (loadCount > 0 || !labels.isEmpty())) {
+                            return targetLocation;  // Code before the first LOC starts at the first LOC
+                        }
+                        startAddress = targetLocation;
+                        releaseHeldWords(sink);
+                    }
+                    if (lastInstructionAddress != -1) {
+                        addLocDirective(lastInstructionAddress + 1, targetLocation);
+                    }
+                    currentAddress = targetLocation;  // Always set current address
+                    if (listing) {
+                        listingFile.add(String.format(rowFormat, "", "", "LOC", lexer.token(1), comment));
+                    }
                 }
                 continue;
             }
+
+            // Handle labels first: patch the words that were waiting for them
+            boolean labelled = lexer.isLabel(0);
+            if (labelled) {
+                defineLabel(lexer.label(0), sink);
+            }
     
             // Handle Data directive
-            if (parts[0].equalsIgnoreCase("Data") || 
-                (parts.length > 1 && parts[1].equalsIgnoreCase("Data"))) {
-                String dataValue = "000000";
-                String operand = "";
-                int dataIndex = parts[0].equalsIgnoreCase("Data") ? 1 : 2;
-    
-                if (parts.length > dataIndex) {
-                    operand = parts[dataIndex];
-                    try {
-                        if (labelTable.containsKey(parts[dataIndex])) {
-                            dataValue = String.format("%06o", labelTable.get(parts[dataIndex]));
-                        } else {
-                            dataValue = String.format("%06o", Integer.parseInt(parts[dataIndex]));
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Error: Invalid data value at address " + currentAddress);
+            boolean data = lexer.tokenIs(0, "Data");
+            if (data || (parts > 1 && lexer.tokenIs(1, "Data"))) {
+                int dataIndex = data ? 1 : 2;
+                int index = loadCount;
+                int row = listing ? listingFile.size() : -1;
+                if (listing) {
+                    listingFile.add(null);  // Formatted once the value is known
+                }
+                lastInstructionAddress = currentAddress;
+                append(currentAddress);
+                int start = dataIndex < parts ? lexer.tokenStart(dataIndex) : 0;
+                int end = dataIndex < parts ? lexer.tokenEnd(dataIndex) : 0;
+                boolean known = start == end || labels.find(line, start, end) >= 0 || Lexer.isNumber(line, start, end);
+                if (!known || listing) {
+                    Fixup fixup = new Fixup(index, currentAddress, DATA, line.substring(start, end), "Data", comment, row);
+                    if (known) {
+                        resolve(fixup, sink);
+                    } else {
+                        waitFor(fixup.operands, fixup);  // A label further on (or none at all)
                     }
+                } else {
+                    int word = dataWord(line, start, end, currentAddress);
+                    store(index, currentAddress, word, octalDigits(word), sink);
                 }
-    
-                String currentAddressOctal = String.format("%06o", currentAddress);
-                listingFile.add(String.format(rowFormat, currentAddressOctal, dataValue, "Data", operand, comment));
-                loadFile.add(String.format("%06o %s", currentAddress, dataValue));
                 currentAddress++;
                 continue;
             }
     
             // Handle regular instructions and HLT
-            String opcode;
-            String operands = "";
-            int opcodeIndex;
+            int opcodeIndex = labelled ? 1 : 0;
     
-            if (parts[0].endsWith(":")) {
-                opcodeIndex = 1;
-            } else {
-                opcodeIndex = 0;
-            }
-    
-            if (parts.length > opcodeIndex) {
-                opcode = parts[opcodeIndex].toUpperCase();
-                if (parts.length > opcodeIndex + 1) {
-                    operands = parts[opcodeIndex + 1];
+            if (parts > opcodeIndex) {
+                int opcode = opcodeOf(lexer.mnemonic(opcodeIndex));
+                if (opcode == UNKNOWN) {
+                    throw new IllegalArgumentException("Unknown instruction " + lexer.token(opcodeIndex) + " at line " + (n + 1));
                 }
-    
-                String operandValue = "";
-                if (!operands.isEmpty()) {
-                    StringBuilder operand = new StringBuilder();
-                    String[] operand_labels = operands.split(",");
-                    for (String s : operand_labels) {
-                        if (labelTable.containsKey(s)) {
-                            int labelAddress = labelTable.get(s);
-                            operand.append(labelAddress).append(",");
-                        } else {
-                            operand.append(s).append(",");
+                if (parts == opcodeIndex + 1 && opcode == HLT) {
+                    hltAddresses.add(currentAddress);
+                }
+                lexer.splitOperands(opcodeIndex + 1);
+                int index = loadCount;
+                int row = listing ? listingFile.size() : -1;
+                if (listing) {
+                    listingFile.add(null);
+                }
+                lastInstructionAddress = currentAddress;
+                append(currentAddress);
+                boolean resolved = true;
+                for (int f = 0; f < lexer.fieldCount() && resolved; f++) {
+                    resolved = isKnown(lexer, f);
+                }
+                if (!resolved || listing) {
+                    Fixup instruction = new Fixup(index, currentAddress, opcode,
+                                                  parts > opcodeIndex + 1 ? lexer.token(opcodeIndex + 1) : "",
+                                                  lexer.token(opcodeIndex), comment, row);
+                    for (int f = 0; f < lexer.fieldCount(); f++) {
+                        if (!isKnown(lexer, f)) {
+                            waitFor(lexer.field(f), instruction);  // A label further on (or none at all)
                         }
                     }
-                    if (operand.length() > 0) {
-                        operand.setLength(operand.length() - 1);
-                        operandValue = getOperandValue(opcode, operand.toString());
+                    if (resolved) {
+                        resolve(instruction, sink);
                     }
-                } else if (opcode.equals("HLT")) {
-                    hltAddress = currentAddress;
-                    operandValue = "000000";
+                } else {
+                    // The usual line: encoded straight from the lexer, without a string
+                    int word = encode(opcode, lexer);
+                    int digits = wordDigits;
+                    if (word < 0) {
+                        String wordOctal = octalWord(opcode, lexer);
+                        word = Integer.parseInt(wordOctal, 8);
+                        digits = wordOctal.length();
+                    }
+                    store(index, currentAddress, word, digits, sink);
                 }
-    
-                String currentAddressOctal = String.format("%06o", currentAddress);
-                listingFile.add(String.format(rowFormat, currentAddressOctal, operandValue, 
-                              parts[opcodeIndex], operands, comment));
-                loadFile.add(String.format("%s %s", currentAddressOctal, operandValue));
                 currentAddress++;
             }
         }
-        reader.close();
+
+        // Labels never defined: their words are encoded with the names as literal operands, which the
+        // encoder rejects (or the Data error reports), in source order
+        List<Fixup> undefined = new ArrayList<>();
+        for (List<Fixup> fixups : waiting.values()) {
+            undefined.addAll(fixups);
+        }
+        undefined.sort(Comparator.comparingInt(fixup -> fixup.index));
+        for (Fixup fixup : undefined) {
+            if (!fixup.resolved) {
+                resolve(fixup, sink);
+            }
+        }
+        releaseHeldWords(sink);
+        return -1;
+    }
+
+    // Records a label and encodes the words that no longer wait for any label.
+    private void defineLabel(String label, WordSink sink) {
+        labels.define(label, currentAddress);
+        List<Fixup> fixups = waiting.remove(label);
+        if (fixups == null) {
+            return;
+        }
+        for (Fixup fixup : fixups) {
+            if (!fixup.resolved && isResolvable(fixup)) {
+                resolve(fixup, sink);
+            }
+        }
+    }
+
+    private void waitFor(String label, Fixup fixup) {
+        waiting.computeIfAbsent(label, l -> new ArrayList<>()).add(fixup);
+        waitingAt.put(fixup.address, fixup);
+    }
+
+    private boolean isResolvable(Fixup fixup) {
+        if (fixup.opcode == DATA) {
+            return labels.find(fixup.operands) >= 0;
+        }
+        operandLexer.operands(fixup.operands);
+        for (int f = 0; f < operandLexer.fieldCount(); f++) {
+            if (!isKnown(operandLexer, f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True for a field that is a label defined by now, or a number.
+    private boolean isKnown(Lexer operands, int f) {
+        return operands.isNumber(f) || labels.find(operands.text(), operands.fieldStart(f), operands.fieldEnd(f)) >= 0;
+    }
+
+    // Encodes a word with the labels known now, patches it into the load image and the listing and emits it.
+    private void resolve(Fixup fixup, WordSink sink) {
+        fixup.resolved = true;
+        String wordOctal = null;  // Only from getOperandValue; the listing formats the rest
+        int word;
+        int digits = 6;
+        if (fixup.opcode == DATA) {
+            word = dataWord(fixup.operands, 0, fixup.operands.length(), fixup.address);
+            digits = octalDigits(word);
+        } else {
+            operandLexer.operands(fixup.operands);
+            word = encode(fixup.opcode, operandLexer);
+            digits = wordDigits;
+            if (word < 0) {
+                wordOctal = octalWord(fixup.opcode, operandLexer);
+                word = Integer.parseInt(wordOctal, 8);
+                digits = wordOctal.length();
+            }
+        }
+        if (fixup.row >= 0) {
+            listingFile.set(fixup.row, String.format(rowFormat, String.format("%06o", fixup.address),
+                            wordOctal != null ? wordOctal : octal(word, digits), fixup.mnemonic, fixup.operands, fixup.comment));
+        }
+        waitingAt.remove(fixup.address, fixup);
+        store(fixup.index, fixup.address, word, digits, fixup.superseded ? null : sink);
+    }
+
+    // Patches an encoded word into the load image and hands it to the sink, unless it is held back.
+    private void store(int index, int address, int word, int digits, WordSink sink) {
+        loadValues[index] = word;
+        loadDigits[index] = (byte) digits;
+        pending[index] = false;
+        if (sink != null && !holding) {
+            sink.word(address, word);
+        }
+    }
+
+    // A Data value: a label's address or a number, or 0 (reported) for anything else.
+    private int dataWord(String text, int start, int end, int address) {
+        if (start == end) {
+            return 0;
+        }
+        int label = labels.find(text, start, end);
+        if (label >= 0) {
+            return labels.address(label);
+        }
+        try {
+            return Lexer.parseInt(text, start, end);
+        } catch (NumberFormatException e) {
+            if (!relisting) {
+                System.err.println("Error: Invalid data value at address " + address);
+            }
+            return 0;
+        }
+    }
+
+    // A word in octal, zero-padded to its digits.
+    private static String octal(int word, int digits) {
+        String octal = Integer.toOctalString(word);
+        return "0".repeat(Math.max(digits - octal.length(), 0)) + octal;
+    }
+
+    // The octal digits "%06o" writes a word with.
+    private static int octalDigits(int word) {
+        return word >= 0 && word < 01000000 ? 6 : Integer.toOctalString(word).length();
+    }
+
+    // Appends a word to the load image, pending until it is encoded.
+    private void append(int address) {
+        if (!waitingAt.isEmpty()) {
+            Fixup replaced = waitingAt.remove(address);
+            if (replaced != null) {
+                replaced.superseded = true;
+            }
+        }
+        if (loadCount == loadAddresses.length) {
+            loadAddresses = Arrays.copyOf(loadAddresses, loadCount * 2);
+            loadValues = Arrays.copyOf(loadValues, loadCount * 2);
+            loadDigits = Arrays.copyOf(loadDigits, loadCount * 2);
+            pending = Arrays.copyOf(pending, loadCount * 2);
+        }
+        loadAddresses[loadCount] = address;
+        loadValues[loadCount] = 0;
+        pending[loadCount] = true;
+        loadCount++;
+    }
+
+    // Hands the sink the words held back before the first LOC.
+    private void releaseHeldWords(WordSink sink) {
+        if (holding) {
+            holding = false;
+            for (int n = 0; n < loadCount && sink != null; n++) {
+                if (!pending[n]) {
+                    sink.word(loadAddresses[n], loadValues[n]);
+                }
+            }
+        }
+    }
+
+    // Encodes an instruction whose fields are labels or numbers, as getOperandValue would: a field
+    // that overflows widens the word, and wordDigits gets its octal digits. Returns -1 for octalWord
+    // to encode it instead (missing or bad fields, which throw there, or a word wider than an int).
+    private int encode(int opcode, Lexer operands) {
+        int count = operands.fieldCount();
+        word = opcode;
+        wordBits = 6;
+        switch (opcode) {
+            // r, x, address[,I].
+            case LDR:
+            case STR:
+            case LDA:
+            case JZ:
+            case JNE:
+            case SOB:
+            case JGE:
+            case JCC:
+            case AMR:
+            case SMR:
+                if (count < 3) {
+                    return -1;
+                }
+                field(fieldValue(operands, 0), 2);
+                field(fieldValue(operands, 1), 2);
+                field(count > 3 ? fieldValue(operands, 3) : 0, 1);
+                field(fieldValue(operands, 2), 5);
+                return encoded();
+
+            // x, address[,I].
+            case LDX:
+            case STX:
+            case JMA:
+            case JSR:
+                if (count < 2) {
+                    return -1;
+                }
+                field(0, 2);
+                field(fieldValue(operands, 0), 2);
+                field(count > 2 ? fieldValue(operands, 2) : 0, 1);
+                field(fieldValue(operands, 1), 5);
+                return encoded();
+
+            // r, immed (negative immediates in 5-bit two's complement).
+            case AIR:
+            case SIR: {
+                if (count < 2) {
+                    return -1;
+                }
+                int immed = fieldValue(operands, 1);
+                field(fieldValue(operands, 0), 2);
+                field(0, 2);
+                field(0, 1);
+                field(immed < 0 && immed != Lexer.NOT_A_NUMBER ? immed & 0x1F : immed, 5);
+                return encoded();
+            }
+
+            // immed.
+            case RFS:
+                if (count < 1) {
+                    return -1;
+                }
+                field(0, 2);
+                field(0, 2);
+                field(0, 1);
+                field(fieldValue(operands, 0), 5);
+                return encoded();
+
+            // rx[, ry].
+            case MLT:
+            case DVD:
+            case TRR:
+            case AND:
+            case ORR:
+            case NOT:
+                if (count < 1) {
+                    return -1;
+                }
+                field(fieldValue(operands, 0), 2);
+                field(count > 1 ? fieldValue(operands, 1) : 0, 2);
+                field(0, 6);
+                return encoded();
+
+            // r, count, L/R, A/L.
+            case SRC:
+            case RRC:
+                if (count < 4) {
+                    return -1;
+                }
+                field(fieldValue(operands, 0), 2);
+                field(fieldValue(operands, 3), 1);
+                field(fieldValue(operands, 2), 1);
+                field(0, 2);
+                field(fieldValue(operands, 1), 4);
+                return encoded();
+
+            // r, devid.
+            case IN:
+            case OUT:
+            case CHK:
+                if (count < 2) {
+                    return -1;
+                }
+                field(fieldValue(operands, 0), 2);
+                field(0, 3);
+                field(fieldValue(operands, 1), 5);
+                return encoded();
+
+            // trap code.
+            case TRAP:
+                if (count < 1) {
+                    return -1;
+                }
+                field(0, 6);
+                field(fieldValue(operands, 0), 4);
+                return encoded();
+
+            // HLT ignores its operands, but an operand list of nothing but commas is an error.
+            case HLT:
+                wordDigits = 6;
+                return operands.hasNoOperands() || count > 0 ? 0 : -1;
+
+            default:
+                return -1;
+        }
+    }
+
+    // Appends a field to the word, as wide as its binary string: at least bits, more if it overflows.
+    private void field(int value, int bits) {
+        if (value == Lexer.NOT_A_NUMBER) {
+            wordBits = Long.SIZE;  // Not encodable here
+            return;
+        }
+        bits = Math.max(bits, Integer.SIZE - Integer.numberOfLeadingZeros(value | 1));
+        wordBits += bits;
+        if (wordBits < Long.SIZE) {
+            word = word << bits | (value & 0xFFFFFFFFL);
+        }
+    }
+
+    // The word encode built, or -1 if Integer.parseInt could not read it back.
+    private int encoded() {
+        if (wordBits >= Long.SIZE || word > Integer.MAX_VALUE) {
+            return -1;
+        }
+        wordDigits = Math.max(6, (wordBits + 2) / 3);
+        return (int) word;
+    }
+
+    // A field's value: its label's address, or the number it is, or Lexer.NOT_A_NUMBER.
+    private int fieldValue(Lexer operands, int f) {
+        int number = operands.shortNumber(f);
+        if (number != Lexer.NOT_A_NUMBER && !labels.isNumeric()) {
+            return number;
+        }
+        int label = labels.find(operands.text(), operands.fieldStart(f), operands.fieldEnd(f));
+        return label >= 0 ? labels.address(label) : number;
+    }
+
+    // Encodes an instruction as the operand text getOperandValue reads, labels replaced by their addresses.
+    private String octalWord(int opcode, Lexer operands) {
+        if (operands.hasNoOperands()) {
+            return opcode == HLT ? "000000" : "";
+        }
+        StringBuilder operand = new StringBuilder();
+        for (int f = 0; f < operands.fieldCount(); f++) {
+            int label = labels.find(operands.text(), operands.fieldStart(f), operands.fieldEnd(f));
+            if (label >= 0) {
+                operand.append(labels.address(label)).append(",");
+            } else {
+                operand.append(operands.text(), operands.fieldStart(f), operands.fieldEnd(f)).append(",");
+            }
+        }
+        if (operand.length() == 0) {
+            return "";
+        }
+        operand.setLength(operand.length() - 1);
+        return getOperandValue(opcode, operand.toString());
     }
 
     // Resolves the operand as either a label or a direct value, handling comma-separated operands.
     // Example: 3,0,10
-    private static String getOperandValue(String opcode, String operand) {
+    private static String getOperandValue(int opcode, String operand) {
         //System.out.println("In getOperandValue, opcode: " + opcode + ", operand: " + operand);
         // define instruction fields.
         int register = 0;
@@ -396,7 +830,7 @@ public class Assembler {
 
         StringBuilder output = new StringBuilder();
         
-        String opcodeBinary = "";
+        String opcodeBinary = String.format("%6s", Integer.toBinaryString(opcode)).replace(' ', '0');
         String registerBinary = "";
         String indexRegisterBinary = "";
         String indirectBitBinary = "";
@@ -413,153 +847,165 @@ public class Assembler {
         // Split the operand by commas.
         String[] parts = operand.split(",");
         
-        // CASE 1: Memory to Memory Instruction.
-        if(memoryToMemory.contains(opcode)) {
-            // Case a: r, x, address[,I].
-            if (opcode.equals("LDR") || opcode.equals("STR") || opcode.equals("LDA") || 
-                opcode.equals("JZ") || opcode.equals("JNE") || opcode.equals("SOB") || 
-                opcode.equals("JGE") || opcode.equals("JCC") || opcode.equals("AMR") || opcode.equals("SMR")) {
-                register = Integer.parseInt(parts[0]);
-                indexRegister = Integer.parseInt(parts[1]);
-                address = Integer.parseInt(parts[2]);
+        switch (opcode) {
+            // CASE 1: Memory to Memory Instruction.
+            case LDR:
+            case STR:
+            case LDA:
+            case LDX:
+            case STX:
+            case JZ:
+            case JNE:
+            case JCC:
+            case JMA:
+            case JSR:
+            case RFS:
+            case SOB:
+            case JGE:
+            case AMR:
+            case SMR:
+            case AIR:
+            case SIR:
+                // Case a: r, x, address[,I].
+                if (opcode == LDR || opcode == STR || opcode == LDA || 
+                    opcode == JZ || opcode == JNE || opcode == SOB || 
+                    opcode == JGE || opcode == JCC || opcode == AMR || opcode == SMR) {
+                    register = Integer.parseInt(parts[0]);
+                    indexRegister = Integer.parseInt(parts[1]);
+                    address = Integer.parseInt(parts[2]);
+
+                    // Indirect bit.
+                    if (parts.length > 3) {
+                        indirectBit = Integer.parseInt(parts[3]);  
+                    }
+                } 
+
+                // Case b: x, address[,I].
+                else if (opcode == LDX || opcode == STX || opcode == JMA || opcode == JSR) {
+                    indexRegister = Integer.parseInt(parts[0]);
+                    address = Integer.parseInt(parts[1]);
+
+                    // Indirect bit.
+                    if (parts.length > 2) {
+                        indirectBit = Integer.parseInt(parts[2]);
+                    }
+                }
 
-                // Indirect bit.
-                if (parts.length > 3) {
-                    indirectBit = Integer.parseInt(parts[3]);  
+                // Case c: r, immed.
+                else if(opcode == AIR || opcode == SIR) {
+                    register = Integer.parseInt(parts[0]);
+                    // Convert negative numbers to 5-bit two's complement
+                    int immedValue = Integer.parseInt(parts[1]);
+                    if (immedValue < 0) {
+                        // For 5-bit field, we use 0x1F (31) as our mask
+                        address = immedValue & 0x1F;  // This will handle negative numbers correctly
+                    } 
+                    else {
+                        address = immedValue;
+                    }
+                }
+
+                // Case d: Immed.
+                else if(opcode == RFS) {
+                    address = Integer.parseInt(parts[0]);
                 }
-            } 
 
-            // Case b: x, address[,I].
-            else if (opcode.equals("LDX") || opcode.equals("STX") || opcode.equals("JMA") || 
-                    opcode.equals("JSR") || opcode.equals("JMA")) {
-                indexRegister = Integer.parseInt(parts[0]);
-                address = Integer.parseInt(parts[1]);
+                // Compute binary.
+                registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');
+                indexRegisterBinary = String.format("%2s", Integer.toBinaryString(indexRegister)).replace(' ', '0');
+                indirectBitBinary = Integer.toBinaryString(indirectBit);
+                addressBinary = String.format("%5s", Integer.toBinaryString(address)).replace(' ', '0');
+                
+                // Combine all parts into a single 16-bit instruction
+                output.append(opcodeBinary);
+                output.append(registerBinary);
+                output.append(indexRegisterBinary);
+                output.append(indirectBitBinary);
+                output.append(addressBinary);
+
+                // After creating the binary string
+                binaryString = output.toString();
 
-                // Indirect bit.
-                if (parts.length > 2) {
-                    indirectBit = Integer.parseInt(parts[2]);
+                return binaryToOctal(binaryString);
+
+            // CASE 2: Register to Register Instructions.
+            case MLT:
+            case DVD:
+            case TRR:
+            case AND:
+            case ORR:
+            case NOT:
+                // case a: rx.
+                registerX = Integer.parseInt(parts[0]);
+                
+                // case b: ry.
+                if(parts.length > 1) {
+                    registerY = Integer.parseInt(parts[1]);
                 }
-            }
 
-            // Case c: r, immed.
-            else if(opcode.equals("AIR") || opcode.equals("SIR")) {
+                // Compute binary.
+                registerXBinary = String.format("%2s", Integer.toBinaryString(registerX)).replace(' ', '0');
+                registerYBinary = String.format("%2s", Integer.toBinaryString(registerY)).replace(' ', '0');
+
+                // Combine all parts into a single 16-bit instruction.
+                output.append(opcodeBinary);
+                output.append(registerXBinary);
+                output.append(registerYBinary);
+                output.append("000000");    // unused bits.
+
+                binaryString = output.toString();
+                return binaryToOctal(binaryString);
+
+            // CASE 3: Shift and Rotate Instructions.
+            case SRC:
+            case RRC:
                 register = Integer.parseInt(parts[0]);
-                // Convert negative numbers to 5-bit two's complement
-                int immedValue = Integer.parseInt(parts[1]);
-                if (immedValue < 0) {
-                    // For 5-bit field, we use 0x1F (31) as our mask
-                    address = immedValue & 0x1F;  // This will handle negative numbers correctly
-                } 
-                else {
-                    address = immedValue;
-                }
-            }
+                count = Integer.parseInt(parts[1]);
+                L_R = Integer.parseInt(parts[2]);
+                A_L = Integer.parseInt(parts[3]);
 
-            // Case d: Immed.
-            else if(opcode.equals("RFS")) {
-                address = Integer.parseInt(parts[0]);
-            }
+                // Compute binary.
+                registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');   // 2 bits.
+                A_LBinary = Integer.toBinaryString(A_L);     // 1 bit.
+                L_RBinary = Integer.toBinaryString(L_R);     // 1 bit.
+                countBinary = String.format("%4s", Integer.toBinaryString(count)).replace(' ', '0');     // 4 bits.
 
-            // Compute binary.
-            opcodeBinary = opcodeMap.getOrDefault(opcode, "000000");
-            registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');
-            indexRegisterBinary = String.format("%2s", Integer.toBinaryString(indexRegister)).replace(' ', '0');
-            indirectBitBinary = Integer.toBinaryString(indirectBit);
-            addressBinary = String.format("%5s", Integer.toBinaryString(address)).replace(' ', '0');
-            
-            // Combine all parts into a single 16-bit instruction
-            output.append(opcodeBinary);
-            output.append(registerBinary);
-            output.append(indexRegisterBinary);
-            output.append(indirectBitBinary);
-            output.append(addressBinary);
+                // Combine all parts into a single 16-bit instruction.
+                output.append(opcodeBinary);
+                output.append(registerBinary);
+                output.append(A_LBinary);
+                output.append(L_RBinary);
+                output.append("00");    // unused bits.
+                output.append(countBinary);
 
-            // After creating the binary string
-            binaryString = output.toString();
+                binaryString = output.toString();
+                return binaryToOctal(binaryString);
 
-            return binaryToOctal(binaryString);
-        }
-        
+            // CASE 4: I/O Instructions.
+            case IN:
+            case OUT:
+            case CHK:
+                register = Integer.parseInt(parts[0]);
+                devID = Integer.parseInt(parts[1]);
 
-        // CASE 2: Register to Register Instructions.
-        else if(registerToRegister.contains(opcode)) {
-            // case a: rx.
-            registerX = Integer.parseInt(parts[0]);
-            
-            // case b: ry.
-            if(parts.length > 1) {
-                registerY = Integer.parseInt(parts[1]);
-            }
+                // Compute binary.
+                registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');   // 2 bits.
+                devIDBinary = String.format("%5s", Integer.toBinaryString(devID)).replace(' ', '0');   // 5 bits.
+
+                // Combine all parts into a single 16-bit instruction.
+                output.append(opcodeBinary);
+                output.append(registerBinary);
+                output.append("000");    // unused bits.
+                output.append(devIDBinary);
 
-            // Compute binary.
-            opcodeBinary = opcodeMap.getOrDefault(opcode, "000000");
-            registerXBinary = String.format("%2s", Integer.toBinaryString(registerX)).replace(' ', '0');
-            registerYBinary = String.format("%2s", Integer.toBinaryString(registerY)).replace(' ', '0');
-
-            // Combine all parts into a single 16-bit instruction.
-            output.append(opcodeBinary);
-            output.append(registerXBinary);
-            output.append(registerYBinary);
-            output.append("000000");    // unused bits.
-
-            binaryString = output.toString();
-            return binaryToOctal(binaryString);
-        }
-
-        // CASE 3: Shift and Rotate Instructions.
-        else if(shiftRotate.contains(opcode)) {
-            register = Integer.parseInt(parts[0]);
-            count = Integer.parseInt(parts[1]);
-            L_R = Integer.parseInt(parts[2]);
-            A_L = Integer.parseInt(parts[3]);
-
-            // Compute binary.
-            opcodeBinary = opcodeMap.getOrDefault(opcode, "000000");     // 6 bits.
-            registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');   // 2 bits.
-            A_LBinary = Integer.toBinaryString(A_L);     // 1 bit.
-            L_RBinary = Integer.toBinaryString(L_R);     // 1 bit.
-            countBinary = String.format("%4s", Integer.toBinaryString(count)).replace(' ', '0');     // 4 bits.
-
-            // Combine all parts into a single 16-bit instruction.
-            output.append(opcodeBinary);
-            output.append(registerBinary);
-            output.append(A_LBinary);
-            output.append(L_RBinary);
-            output.append("00");    // unused bits.
-            output.append(countBinary);
-
-            binaryString = output.toString();
-            return binaryToOctal(binaryString);
-        }
-
-        // CASE 4: I/O Instructions.
-        else if(inputOutput.contains(opcode)) {
-            register = Integer.parseInt(parts[0]);
-            devID = Integer.parseInt(parts[1]);
-
-            // Compute binary.
-            opcodeBinary = opcodeMap.getOrDefault(opcode, "000000");     // 6 bits.
-            registerBinary = String.format("%2s", Integer.toBinaryString(register)).replace(' ', '0');   // 2 bits.
-            devIDBinary = String.format("%5s", Integer.toBinaryString(devID)).replace(' ', '0');   // 5 bits.
-
-            // Combine all parts into a single 16-bit instruction.
-            output.append(opcodeBinary);
-            output.append(registerBinary);
-            output.append("000");    // unused bits.
-            output.append(devIDBinary);
-
-            binaryString = output.toString();
-            return binaryToOctal(binaryString);
-        }
-
-        // CASE 5: Miscellaneous Instructions.
-        else if(miscellaneous.contains(opcode)) {
-            // TRAP.
-            if(opcode.contains("TRAP")) {
+                binaryString = output.toString();
+                return binaryToOctal(binaryString);
+
+            // CASE 5: Miscellaneous Instructions.
+            case TRAP:
                 trapCode = Integer.parseInt(parts[0]);
 
                 // Compute binary.
-                opcodeBinary = opcodeMap.getOrDefault(opcode, "000000");     // 6 bits.
                 trapCodeBinary = String.format("%4s", Integer.toBinaryString(trapCode)).replace(' ', '0');     // 4 bits.
 
                 // Combine all parts into a single 16-bit instruction.
@@ -569,14 +1015,15 @@ public class Assembler {
 
                 binaryString = output.toString();
                 return binaryToOctal(binaryString);
-            }
 
             //HLT.
-            return "000000";
-        }
+            case HLT:
+                return "000000";
 
-        // CASE 6: Default.
-        return "";
+            // CASE 6: Default.
+            default:
+                return "";
+        }
     }
 
     private static String binaryToOctal(String binaryString) {
@@ -602,61 +1049,73 @@ public class Assembler {
     }
 
 
-    // Determines if the line contains a valid instruction
-    private static boolean isInstruction(String[] parts) {
-        if (parts.length == 0) return false;
-        
-        // If first part is a label, check second part
-        if (parts[0].endsWith(":")) {
-            return parts.length > 1 && opcodeMap.containsKey(parts[1].toUpperCase());
+    // Records a LOC redirect, rejecting targets the ProgramCounter could not jump to.
+    private void addLocDirective(int currentAddress, int targetLocation) {
+        if (targetLocation < 0 || targetLocation > MAX_LOC_TARGET) {
+            throw new IllegalArgumentException("LOC target location out of range for 12-bit address");
         }
-        
-        // Check if first part is an opcode
-        return opcodeMap.containsKey(parts[0].toUpperCase());
+        locDirectives.put(currentAddress, targetLocation);
     }
 
-    // Writes the output to files.
-    private static void writeFiles() throws IOException {
-        BufferedWriter listWriter = new BufferedWriter(new FileWriter("output/ListingOutput.lst"));
-        for (String line : listingFile) {
-            listWriter.write(line);
-            listWriter.newLine();
-        }
-        listWriter.close();
+    public AssembledProgram run(String sourceFile) throws IOException {
+        System.out.println("<<Running the Assembler>>");
+        AssembledProgram program = assemble(sourceFile);
+        program.writeFiles("output/ListingOutput.lst", "output/output.ld");
+        System.out.println("<<Finished Running the Assembler (End)>>");
+        return program;
+    }
 
-        BufferedWriter loadWriter = new BufferedWriter(new FileWriter("output/output.ld"));
-        for (String line : loadFile) {
-            loadWriter.write(line);
-            loadWriter.newLine();
+    public AssembledProgram assemble(String sourceFile) throws IOException {
+        try (Reader source = new FileReader(sourceFile)) {
+            return assemble(sourceFile, source, null);
         }
-        loadWriter.close();
     }
 
-    public static int getStartAddress() {
-        return startAddress;
+    public AssembledProgram assemble(String sourceName, Reader source, WordSink sink) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return assemble(sourceName, lines, sink);
     }
 
-    public static int getHltAddress() {
-        return hltAddress;
+    public AssembledProgram assemble(String sourceName, CharSequence source, WordSink sink) {
+        return assemble(sourceName, source.toString().lines().collect(Collectors.toList()), sink);
     }
 
-    // Method to get the ProgramCounter instance
-    public static ProgramCounter getProgramCounter() {
-        return programCounter;
+    private AssembledProgram assemble(String sourceName, List<String> lines, WordSink sink) {
+        assemble(lines, sink, false);
+        int[] halts = hltAddresses.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        return new AssembledProgram(sourceName, lines, Arrays.copyOf(loadAddresses, loadCount),
+            Arrays.copyOf(loadValues, loadCount), Arrays.copyOf(loadDigits, loadCount), startAddress, halts, locDirectives, labels.toMap());
     }
 
-    public static void run(String sourceFile) throws IOException {
-        System.out.println("<<Running the Assembler>>");
-        if (programCounter == null) {
-            programCounter = new ProgramCounter();
-        } else {
-            programCounter.reset();
-            programCounter.clearLocDirectives();
+    private void assemble(List<String> lines, WordSink sink, boolean listing) {
+        relisting = listing;
+        clear();
+        int start = onePass(lines, sink, listing, -1);
+        if (start >= 0) {
+            clear();
+            onePass(lines, sink, listing, start);
         }
-        passOne(sourceFile);  
-        passTwo(sourceFile);
-        writeFiles();
-        System.out.println("<<Finished Running the Assembler (End)>>");
+    }
+
+    // Start from empty tables so nothing leaks in from the previously assembled program.
+    private void clear() {
+        labels.clear();
+        listingFile.clear();
+        loadCount = 0;
+        waiting.clear();
+        waitingAt.clear();
+        locDirectives.clear();
+        hltAddresses.clear();
+    }
+
+    public List<String> listing(List<String> lines) {
+        assemble(lines, null, true);
+        return new ArrayList<>(listingFile);
     }
 
     // Additional helper method to check for valid line
@@ -670,7 +1129,7 @@ public class Assembler {
     public static void main(String[] args) throws IOException {
         // Sample input file
         String sourceFile = "assembly/gomez.asm";
-        run(sourceFile);
+        new Assembler().run(sourceFile);
     }
         */
 }
\ No newline at end of file
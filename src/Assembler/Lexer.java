@@ -0,0 +1,307 @@
+package Assembler;
+
+/*
+ * Lexer: Splits one source line into its tokens (label, mnemonic, operands), its comment and the
+ * comma-separated fields of its operands, without creating a string. Tokens and fields are kept as
+ * start and end offsets into the line in reusable int arrays, so a line is lexed by one scan of its
+ * characters; a token only becomes a String when the caller asks for it. The tokens are exactly
+ * those the assembler used to get from trim, split("\\s+") and split(","), including the empty
+ * fields of "1,,2" and the dropped trailing ones of "1,2,".
+ *
+ * line(String line): Lexes a source line, replacing the previous one.
+ *
+ * operands(String operands): Lexes an operand list on its own (e.g. one saved for later), as the
+ * text whose fields are split.
+ *
+ * isBlank(), isCommentOnly(): Whether the line holds nothing, or only a comment.
+ *
+ * tokenCount(), tokenStart(int t), tokenEnd(int t), token(int t), tokenIs(int t, String word),
+ * isLabel(int t), label(int t): The tokens before the comment, where one lies in text(), the token as
+ * a String, whether it is a word (ignoring case), whether it ends with ':' and the label it defines.
+ *
+ * mnemonic(int t): A token packed as a mnemonic key, one upper-case letter per byte (e.g. 'L' << 16
+ * | 'D' << 8 | 'R'), or -1 if it cannot be a mnemonic.
+ * - @return int: The key.
+ *
+ * number(int t): Reads a token as Integer.parseInt does.
+ * - @throws NumberFormatException: If it is not a number.
+ *
+ * comment(): The line's comment as the listing shows it, or "".
+ *
+ * splitOperands(int t): Splits a token (or nothing, past the last token) into operand fields.
+ * hasNoOperands() tells an empty operand list from one of nothing but commas.
+ *
+ * fieldCount(), fieldStart(int f), fieldEnd(int f), field(int f), shortNumber(int f), isNumber(int f):
+ * The operand fields, and a field's value if it is a plain number.
+ */
+
+import java.util.Arrays;
+
+final class Lexer {
+    static final int NOT_A_NUMBER = Integer.MIN_VALUE;  // shortNumber of anything else
+    private static final int MAX_SHORT_DIGITS = 9;      // Never overflow an int
+
+    private String text = "";
+    private boolean blank;
+    private boolean commentOnly;
+    private int commentStart;  // The ';', or -1
+    private int tokenCount;
+    private int[] tokenStart = new int[4];
+    private int[] tokenEnd = new int[4];
+    private int operandStart;
+    private int operandEnd;
+    private int fieldCount;
+    private int[] fieldStart = new int[4];
+    private int[] fieldEnd = new int[4];
+
+    void line(String line) {
+        text = line;
+        tokenCount = 0;
+        fieldCount = 0;
+        commentStart = -1;
+        int length = line.length();
+        int first = 0;
+        while (first < length && line.charAt(first) <= ' ') {
+            first++;
+        }
+        blank = first == length;
+        commentOnly = !blank && line.charAt(first) == ';';
+        if (blank || commentOnly) {
+            return;
+        }
+
+        // The code before the comment, trimmed when there is one (split never trimmed the rest)
+        int end = line.indexOf(';', first);
+        commentStart = end;
+        if (end < 0) {
+            first = 0;
+            end = length;
+        } else {
+            while (line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+
+        // Tokens are runs between whitespace; a run of nothing but control characters is dropped
+        int n = first;
+        while (n < end) {
+            while (n < end && isSpace(line.charAt(n))) {
+                n++;
+            }
+            int start = n;
+            boolean printable = false;
+            while (n < end && !isSpace(line.charAt(n))) {
+                printable |= line.charAt(n) > ' ';
+                n++;
+            }
+            if (printable) {
+                if (tokenCount == tokenStart.length) {
+                    tokenStart = Arrays.copyOf(tokenStart, tokenCount * 2);
+                    tokenEnd = Arrays.copyOf(tokenEnd, tokenCount * 2);
+                }
+                tokenStart[tokenCount] = start;
+                tokenEnd[tokenCount] = n;
+                tokenCount++;
+            }
+        }
+    }
+
+    void operands(String operands) {
+        text = operands;
+        tokenCount = 0;
+        commentStart = -1;
+        split(0, operands.length());
+    }
+
+    // The characters \s matches
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    boolean isBlank() {
+        return blank;
+    }
+
+    boolean isCommentOnly() {
+        return commentOnly;
+    }
+
+    String text() {
+        return text;
+    }
+
+    int tokenCount() {
+        return tokenCount;
+    }
+
+    String token(int t) {
+        return text.substring(tokenStart[t], tokenEnd[t]);
+    }
+
+    int tokenStart(int t) {
+        return tokenStart[t];
+    }
+
+    int tokenEnd(int t) {
+        return tokenEnd[t];
+    }
+
+    boolean tokenIs(int t, String word) {
+        return tokenEnd[t] - tokenStart[t] == word.length() && text.regionMatches(true, tokenStart[t], word, 0, word.length());
+    }
+
+    boolean isLabel(int t) {
+        return text.charAt(tokenEnd[t] - 1) == ':';
+    }
+
+    String label(int t) {
+        return text.substring(tokenStart[t], tokenEnd[t] - 1);
+    }
+
+    int mnemonic(int t) {
+        int start = tokenStart[t];
+        int end = tokenEnd[t];
+        int key = 0;
+        for (int n = start; n < end; n++) {
+            char c = text.charAt(n);
+            if (c >= 0x80) {
+                return mnemonic(text.substring(start, end).toUpperCase());  // e.g. a dotless i upper-cases to I
+            }
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            } else if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            key = key << 8 | c;
+        }
+        return end - start <= 4 ? key : -1;
+    }
+
+    private static int mnemonic(String upperCase) {
+        if (upperCase.length() > 4) {
+            return -1;
+        }
+        int key = 0;
+        for (int n = 0; n < upperCase.length(); n++) {
+            char c = upperCase.charAt(n);
+            if (c < 'A' || c > 'Z') {
+                return -1;
+            }
+            key = key << 8 | c;
+        }
+        return key;
+    }
+
+    int number(int t) {
+        return parseInt(text, tokenStart[t], tokenEnd[t]);
+    }
+
+    String comment() {
+        return commentStart < 0 ? "" : "\t\t" + text.substring(commentStart).trim();
+    }
+
+    void splitOperands(int t) {
+        if (t < tokenCount) {
+            split(tokenStart[t], tokenEnd[t]);
+        } else {
+            split(0, 0);
+        }
+    }
+
+    // As String.split(","): trailing empty fields are dropped, so "," has none
+    private void split(int start, int end) {
+        operandStart = start;
+        operandEnd = end;
+        fieldCount = 0;
+        if (start == end) {
+            return;
+        }
+        int from = start;
+        for (int n = start; n <= end; n++) {
+            if (n == end || text.charAt(n) == ',') {
+                if (fieldCount == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+                    fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+                }
+                fieldStart[fieldCount] = from;
+                fieldEnd[fieldCount] = n;
+                fieldCount++;
+                from = n + 1;
+            }
+        }
+        while (fieldCount > 0 && fieldStart[fieldCount - 1] == fieldEnd[fieldCount - 1]) {
+            fieldCount--;
+        }
+    }
+
+    // Whether there were no operands at all (rather than only empty fields)
+    boolean hasNoOperands() {
+        return operandStart == operandEnd;
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    int fieldStart(int f) {
+        return fieldStart[f];
+    }
+
+    int fieldEnd(int f) {
+        return fieldEnd[f];
+    }
+
+    String field(int f) {
+        return text.substring(fieldStart[f], fieldEnd[f]);
+    }
+
+    int shortNumber(int f) {
+        return shortNumber(text, fieldStart[f], fieldEnd[f]);
+    }
+
+    boolean isNumber(int f) {
+        return isNumber(text, fieldStart[f], fieldEnd[f]);
+    }
+
+    // True for what Integer.parseInt reads as a decimal number (rather than a label).
+    static boolean isNumber(String s, int start, int end) {
+        if (start < end && (s.charAt(start) == '-' || s.charAt(start) == '+')) {
+            start++;
+        }
+        if (start == end) {
+            return false;
+        }
+        for (int n = start; n < end; n++) {
+            if (!Character.isDigit(s.charAt(n))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Integer.parseInt of the characters, without a substring for the usual few ASCII digits.
+    static int parseInt(String s, int start, int end) {
+        int value = shortNumber(s, start, end);
+        return value != NOT_A_NUMBER ? value : Integer.parseInt(s.substring(start, end));
+    }
+
+    // An optionally signed run of up to nine ASCII digits, or NOT_A_NUMBER.
+    static int shortNumber(String s, int start, int end) {
+        boolean negative = start < end && s.charAt(start) == '-';
+        if (start < end && (negative || s.charAt(start) == '+')) {
+            start++;
+        }
+        if (start == end || end - start > MAX_SHORT_DIGITS) {
+            return NOT_A_NUMBER;
+        }
+        int value = 0;
+        for (int n = start; n < end; n++) {
+            int digit = s.charAt(n) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,18 @@
+package Assembler;
+
+/*
+ * WordSink: Receives the words an Assembler encodes, one call per word, as soon as each one is
+ * encoded (see Assembler.assemble): in source order, except that a word using a label defined further
+ * on follows when the label is defined, and words before the first LOC follow that LOC. A word is left
+ * out if a later one goes to the same address first, so storing every word in the order received
+ * leaves the same memory as loading the whole image. A Memory is a sink as it is: memory::storeValue.
+ *
+ * word(int address, int value): Called for every instruction and Data word.
+ * - @param address: The address the word is assembled at.
+ * - @param value: The word (an instruction whose fields overflow can exceed 16 bits, as in the
+ *   load file; Memory keeps the low 16).
+ */
+
+public interface WordSink {
+    void word(int address, int value);
+}
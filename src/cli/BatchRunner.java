@@ -0,0 +1,369 @@
+package cli;
+
+/*
+ * BatchRunner: Runs a manifest of jobs in parallel and writes one report. Every job is a program
+ * with an optional console input file; each one runs on its own ProgramRun (its own CPU, Memory,
+ * Cache and registers), so jobs share nothing but the thread pool. OUT output is captured per job
+ * and the report lists the jobs in manifest order whatever order they finished in.
+ *
+ * Each program is assembled only once per batch: the first job that runs it checkpoints the freshly
+ * loaded machine, and later jobs for the same program start from a restored copy of that checkpoint.
+ * A program may also be a core image (*.img, see CoreImage): it is mapped once per batch, and every
+ * job for it restores the mapped pages into its memory.
+ *
+ * Manifest format: one job per line, "program.asm [input.txt]" or "image.img [input.txt]". Blank
+ * lines and lines starting with # are ignored. Relative paths are taken relative to the manifest's
+ * directory.
+ *
+ * Usage: java -cp bin cli.BatchRunner [options] manifest.txt
+ *   -o, --output FILE          Write the report to FILE instead of standard output.
+ *   -j, --jobs N               Number of worker threads (default: available processors).
+ *   -n, --max-instructions N   Stop each job after N instructions (default: no limit).
+ *   -e, --engine NAME          interpreter (default), tiered or aot.
+ *   --cache, --l1i, --l2, --l2-exclusive, --cache-policy, --cache-seed and the other cache options:
+ *                              The cache levels (see CacheOptions).
+ *   --memory WORDS, --memory-store NAME:
+ *                              Memory size (banked above 4096 words) and store; checkpoints of a
+ *                              direct memory keep their words off the heap (see CacheOptions).
+ *   -h, --help                 Print this help.
+ *
+ * The exit status is 0 if every job halted, 2 if one hit the instruction limit and 1 on errors.
+ *
+ * main(String[] args): Parses the options, runs every job and writes the report.
+ * - @param args: The command line.
+ *
+ * readManifest(File manifest): Reads the jobs from a manifest file.
+ * - @param manifest: The manifest.
+ * - @return List<Job>: The jobs in manifest order.
+ * - @throws IOException: If the manifest cannot be read.
+ *
+ * runJob(Job job): Runs one job on a new machine and records its results in the job.
+ * - @param job: The job to run.
+ *
+ * writeReport(PrintStream report, List<Job> jobs, long elapsed): Writes every job's results and the totals.
+ * - @param report: Where the report goes.
+ * - @param jobs: The finished jobs.
+ * - @param elapsed: Wall-clock time of the whole batch in nanoseconds.
+ */
+
+import components.Cache;
+import components.CacheHierarchy;
+import components.CoreImage;
+import components.MachineState;
+import components.Memory;
+import Assembler.AssembledProgram;
+import Assembler.Assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+public class BatchRunner {
+    private static final int EXIT_HALTED = 0;
+    private static final int EXIT_ERROR = 1;
+    private static final int EXIT_LIMIT = 2;
+
+    private long maxInstructions = Long.MAX_VALUE;
+    private String engine = "interpreter";
+    private final CacheOptions cacheOptions = new CacheOptions();
+    private final Map<String, LoadedProgram> loadedPrograms = new ConcurrentHashMap<>();
+    private final Map<String, CoreImage> loadedImages = new ConcurrentHashMap<>();
+
+    // An assembled program and the machine state right after loading it.
+    private static class LoadedProgram {
+        final AssembledProgram program;
+        final MachineState state;
+
+        LoadedProgram(AssembledProgram program, MachineState state) {
+            this.program = program;
+            this.state = state;
+        }
+    }
+
+    // One manifest line and, once it has run, its results.
+    static class Job {
+        final int line;
+        final String program;
+        final String inputFile;
+
+        int status = EXIT_ERROR;
+        String error;
+        String registers = "";
+        String output = "";
+        long instructions;
+        long elapsed;
+        String[] cacheLevels = new String[0];  // Per level, in CacheHierarchy order
+        long[] cacheHits = new long[0];
+        long[] cacheMisses = new long[0];
+        long[] cacheWriteBacks = new long[0];
+        long[] cacheWriteThroughs = new long[0];  // -1 for a write-back level
+
+        Job(int line, String program, String inputFile) {
+            this.line = line;
+            this.program = program;
+            this.inputFile = inputFile;
+        }
+    }
+
+    public static void main(String[] args) {
+        BatchRunner runner = new BatchRunner();
+        String manifest = null;
+        String outputFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int n = 0; n < args.length; n++) {
+                String arg = args[n];
+                switch (arg) {
+                    case "-o":
+                    case "--output":
+                        outputFile = value(args, ++n, arg);
+                        break;
+                    case "-j":
+                    case "--jobs":
+                        threads = Integer.parseInt(value(args, ++n, arg));
+                        if (threads < 1) {
+                            throw new IllegalArgumentException("--jobs must be at least 1");
+                        }
+                        break;
+                    case "-n":
+                    case "--max-instructions":
+                        runner.maxInstructions = Long.parseLong(value(args, ++n, arg));
+                        break;
+                    case "-e":
+                    case "--engine":
+                        runner.engine = value(args, ++n, arg);
+                        if (!runner.engine.equals("interpreter") && !runner.engine.equals("tiered") && !runner.engine.equals("aot")) {
+                            throw new IllegalArgumentException("Unknown engine: " + runner.engine);
+                        }
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(System.out);
+                        return;
+                    default:
+                        int last = runner.cacheOptions.parse(args, n);
+                        if (last >= 0) {
+                            n = last;
+                            break;
+                        }
+                        if (arg.startsWith("-") || manifest != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + arg);
+                        }
+                        manifest = arg;
+                        break;
+                }
+            }
+            if (manifest == null) {
+                throw new IllegalArgumentException("No manifest given");
+            }
+            runner.cacheOptions.check();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            usage(System.err);
+            System.exit(EXIT_ERROR);
+        }
+
+        int status = EXIT_HALTED;
+        try {
+            List<Job> jobs = readManifest(new File(manifest));
+
+            long start = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.submit(() -> jobs.parallelStream().forEach(runner::runJob)).get();
+            } finally {
+                pool.shutdown();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            for (Job job : jobs) {
+                status = Math.max(status, job.status);
+            }
+            if (outputFile != null) {
+                try (PrintStream report = new PrintStream(outputFile)) {
+                    runner.writeReport(report, jobs, elapsed);
+                }
+            } else {
+                runner.writeReport(System.out, jobs, elapsed);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            status = EXIT_ERROR;
+        } catch (Exception e) {
+            System.err.println("Error: batch interrupted: " + e);
+            status = EXIT_ERROR;
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    private static String value(String[] args, int n, String option) {
+        if (n >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[n];
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java -cp bin cli.BatchRunner [options] manifest.txt");
+        stream.println("  -o, --output FILE          Write the report to FILE");
+        stream.println("  -j, --jobs N               Number of worker threads");
+        stream.println("  -n, --max-instructions N   Stop each job after N instructions");
+        stream.println("  -e, --engine NAME          interpreter (default), tiered or aot");
+        CacheOptions.usage(stream);
+        stream.println("  -h, --help                 Print this help");
+    }
+
+    static List<Job> readManifest(File manifest) throws IOException {
+        File base = manifest.getAbsoluteFile().getParentFile();
+        List<Job> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest.toPath());
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length > 2) {
+                throw new IOException(manifest + ":" + (n + 1) + ": expected \"program.asm [input]\"");
+            }
+            String program = resolve(base, parts[0]);
+            String input = parts.length > 1 ? resolve(base, parts[1]) : null;
+            jobs.add(new Job(n + 1, program, input));
+        }
+        return jobs;
+    }
+
+    private static String resolve(File base, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? path : new File(base, path).getPath();
+    }
+
+    void runJob(Job job) {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(captured, true);
+        Scanner input;
+        try {
+            input = job.inputFile != null ? new Scanner(new FileInputStream(job.inputFile)) : new Scanner("");
+        } catch (FileNotFoundException e) {
+            job.error = "Input file not found: " + job.inputFile;
+            job.output = "";
+            return;
+        }
+        try (input) {
+            ProgramRun run = newRun(job.program, input, console);
+            long start = System.nanoTime();
+            try {
+                boolean halted = run.run(engine, maxInstructions, -1);
+                job.status = halted ? EXIT_HALTED : EXIT_LIMIT;
+            } catch (RuntimeException e) {
+                job.error = e.toString();
+            }
+            job.elapsed = System.nanoTime() - start;
+            job.instructions = run.getInstructionCount();
+            job.registers = run.gprs.toString() + run.ixr + run.pc + "\n" + run.cc + "\n";
+            recordCaches(job, run.caches);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            job.error = "Program file not found: " + job.program;
+        } catch (IOException | RuntimeException e) {
+            job.error = e.toString();
+        }
+        console.flush();
+        job.output = captured.toString();
+    }
+
+    private static void recordCaches(Job job, CacheHierarchy caches) {
+        Cache[] levels = caches.getLevels();
+        job.cacheLevels = caches.getLevelNames();
+        job.cacheHits = new long[levels.length];
+        job.cacheMisses = new long[levels.length];
+        job.cacheWriteBacks = new long[levels.length];
+        job.cacheWriteThroughs = new long[levels.length];
+        for (int n = 0; n < levels.length; n++) {
+            job.cacheHits[n] = levels[n].getHitCount();
+            job.cacheMisses[n] = levels[n].getMissCount();
+            job.cacheWriteBacks[n] = levels[n].getWriteBackCount();
+            job.cacheWriteThroughs[n] = levels[n].getConfig().isWriteThrough() ? levels[n].getWriteThroughCount() : -1;
+        }
+    }
+
+    private ProgramRun newRun(String program, Scanner input, PrintStream console) throws IOException {
+        if (CoreImage.isImageFile(program)) {
+            CoreImage image = loadedImages.get(program);
+            if (image == null) {
+                loadedImages.putIfAbsent(program, CoreImage.load(Paths.get(program)));
+                image = loadedImages.get(program);
+            }
+            return new ProgramRun(image, program, cacheOptions, input, console);
+        }
+        LoadedProgram loaded = loadedPrograms.get(program);
+        if (loaded != null) {
+            return new ProgramRun(loaded.program, loaded.state, cacheOptions, input, console);
+        }
+        AssembledProgram assembled = new Assembler().assemble(program);
+        ProgramRun run = new ProgramRun(assembled, null, cacheOptions, input, console);
+        loadedPrograms.putIfAbsent(program, new LoadedProgram(assembled, run.cpu.checkpoint()));
+        return run;
+    }
+
+    void writeReport(PrintStream report, List<Job> jobs, long elapsed) {
+        int halted = 0;
+        int limited = 0;
+        int failed = 0;
+        long instructions = 0;
+        String[] cacheLevels = cacheOptions.build(new Memory()).getLevelNames();
+        long[] cacheHits = new long[cacheLevels.length];
+        long[] cacheMisses = new long[cacheLevels.length];
+        for (Job job : jobs) {
+            report.println("== " + job.program + (job.inputFile != null ? " < " + job.inputFile : "") + " (manifest line " + job.line + ")");
+            if (job.error != null) {
+                report.println("Status: error: " + job.error);
+                failed++;
+            } else if (job.status == EXIT_HALTED) {
+                report.println("Status: halted");
+                halted++;
+            } else {
+                report.println("Status: instruction limit of " + maxInstructions + " reached");
+                limited++;
+            }
+            report.print(job.registers);
+            report.printf("Instructions: %d in %.3f ms%n", job.instructions, job.elapsed / 1e6);
+            for (int n = 0; n < job.cacheLevels.length; n++) {
+                report.println(job.cacheLevels[n] + ": " + job.cacheHits[n] + " hits, " + job.cacheMisses[n] + " misses, "
+                    + job.cacheWriteBacks[n] + " write-backs"
+                    + (job.cacheWriteThroughs[n] >= 0 ? ", " + job.cacheWriteThroughs[n] + " write-throughs" : ""));
+            }
+            report.println("Output:");
+            for (String line : job.output.split("\n", -1)) {
+                if (!line.isEmpty()) {
+                    report.println("    " + line);
+                }
+            }
+            report.println();
+            instructions += job.instructions;
+            for (int n = 0; n < job.cacheLevels.length; n++) {
+                cacheHits[n] += job.cacheHits[n];
+                cacheMisses[n] += job.cacheMisses[n];
+            }
+        }
+        report.println("== Totals");
+        report.println("Jobs: " + jobs.size() + " (" + halted + " halted, " + limited + " limited, " + failed + " failed)");
+        report.println("Instructions: " + instructions);
+        for (int n = 0; n < cacheLevels.length; n++) {
+            report.println(cacheLevels[n] + ": " + cacheHits[n] + " hits, " + cacheMisses[n] + " misses");
+        }
+        report.printf("Wall time: %.3f ms with engine %s, cache %s%n", elapsed / 1e6, engine, cacheOptions);
+    }
+}
@@ -0,0 +1,290 @@
+package cli;
+
+/*
+ * CacheExplorer: Cache design-space explorer for address traces (see TraceReader). It writes one CSV
+ * with two kinds of rows:
+ *   lru-stack  The miss ratio of every fully associative LRU cache, from 1 line up to the number of
+ *              distinct blocks in the trace, all from a single pass (see StackDistance).
+ *   sweep      Every set-associative configuration of the --sets and --ways lists, each simulated
+ *              by its own Cache with the chosen replacement and write policy. The configurations
+ *              replay the trace in parallel on a fork-join pool; the memory-mapped trace pages are
+ *              shared between them.
+ *
+ * The columns are model,sets,ways,block,words,accesses,misses,miss_ratio, where model is lru-stack
+ * or the sweep's replacement policy.
+ *
+ * Usage: java -cp bin cli.CacheExplorer [options] trace
+ *   --format NAME              bin or din, as for cli.CacheSimulator.
+ *   -n, --max-records N        Use at most N records of the trace (default: all).
+ *   --stream NAME              data (reads and writes, default), instruction (fetches) or unified (all).
+ *   --block N                  Block size in words (default 8).
+ *   --sets LIST                Set counts to sweep, comma-separated (default 1,2,4,8,16,32,64).
+ *   --ways LIST                Ways to sweep, comma-separated (default 1,2,4,8).
+ *   --cache-policy NAME        Replacement of the swept caches (default lru).
+ *   --cache-seed N             Seed for the random replacement policy (default 1).
+ *   --write-policy NAME        Write policy of the swept caches (default write-back).
+ *   -j, --jobs N               Threads for the sweep (default: available processors).
+ *   -o, --output FILE          Write the CSV to FILE instead of standard output.
+ *   -h, --help                 Print this help.
+ *
+ * The stack rows assume write-allocate caches; with --write-policy write-through only the sweep
+ * rows model the missing allocation on write misses. Flush records empty the caches.
+ *
+ * main(String[] args): Parses the options, builds the curve and the sweep and writes the CSV. The
+ * exit status is 0, or 1 on errors.
+ * - @param args: The command line.
+ *
+ * stackCurve(): Replays the trace once through a StackDistance.
+ * - @return StackDistance: The stack distances of the selected accesses.
+ * - @throws IOException: If the trace cannot be read.
+ *
+ * simulate(CacheConfig config): Replays the trace through one cache.
+ * - @param config: The cache configuration.
+ * - @return Cache: The cache, with its counters.
+ * - @throws UncheckedIOException: If the trace cannot be read.
+ */
+
+import components.Cache;
+import components.CacheConfig;
+import components.CacheHierarchy;
+import components.Memory;
+import components.StackDistance;
+import components.TraceReader;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+public class CacheExplorer {
+    private Path trace;
+    private String format;
+    private long maxRecords = Long.MAX_VALUE;
+    private boolean data = true;
+    private boolean instructions;
+    private int blockSize = 8;
+    private int[] sets = {1, 2, 4, 8, 16, 32, 64};
+    private int[] ways = {1, 2, 4, 8};
+    private String policy = "lru";
+    private long seed = 1;
+    private String writePolicy = "write-back";
+
+    public static void main(String[] args) {
+        CacheExplorer explorer = new CacheExplorer();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputFile = null;
+        List<CacheConfig> configs = new ArrayList<>();
+        try {
+            for (int n = 0; n < args.length; n++) {
+                String arg = args[n];
+                switch (arg) {
+                    case "--format":
+                        explorer.format = value(args, ++n, arg);
+                        if (!explorer.format.equals("bin") && !explorer.format.equals("din")) {
+                            throw new IllegalArgumentException("Unknown trace format: " + explorer.format);
+                        }
+                        break;
+                    case "-n":
+                    case "--max-records":
+                        explorer.maxRecords = Long.parseLong(value(args, ++n, arg));
+                        break;
+                    case "--stream": {
+                        String stream = value(args, ++n, arg);
+                        if (!stream.equals("data") && !stream.equals("instruction") && !stream.equals("unified")) {
+                            throw new IllegalArgumentException("Unknown stream: " + stream);
+                        }
+                        explorer.data = !stream.equals("instruction");
+                        explorer.instructions = !stream.equals("data");
+                        break;
+                    }
+                    case "--block":
+                        explorer.blockSize = Integer.parseInt(value(args, ++n, arg));
+                        break;
+                    case "--sets":
+                        explorer.sets = list(value(args, ++n, arg));
+                        break;
+                    case "--ways":
+                        explorer.ways = list(value(args, ++n, arg));
+                        break;
+                    case "--cache-policy":
+                        explorer.policy = value(args, ++n, arg).toLowerCase();
+                        break;
+                    case "--cache-seed":
+                        explorer.seed = Long.parseLong(value(args, ++n, arg));
+                        break;
+                    case "--write-policy":
+                        explorer.writePolicy = value(args, ++n, arg);
+                        break;
+                    case "-j":
+                    case "--jobs":
+                        threads = Integer.parseInt(value(args, ++n, arg));
+                        if (threads < 1) {
+                            throw new IllegalArgumentException("Need at least one thread: " + threads);
+                        }
+                        break;
+                    case "-o":
+                    case "--output":
+                        outputFile = value(args, ++n, arg);
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(System.out);
+                        return;
+                    default:
+                        if (arg.startsWith("-") || explorer.trace != null) {
+                            throw new IllegalArgumentException("Unexpected argument: " + arg);
+                        }
+                        explorer.trace = Paths.get(arg);
+                        break;
+                }
+            }
+            if (explorer.trace == null) {
+                throw new IllegalArgumentException("No trace given");
+            }
+            new StackDistance(explorer.blockSize);  // Checks the block size
+            for (int setCount : explorer.sets) {
+                for (int wayCount : explorer.ways) {
+                    configs.add(new CacheConfig(setCount, wayCount, explorer.blockSize, explorer.policy, explorer.seed)
+                        .withWritePolicy(explorer.writePolicy));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            usage(System.err);
+            System.exit(1);
+        }
+        if (explorer.format == null) {
+            explorer.format = TraceReader.formatOf(explorer.trace);
+        }
+
+        int status = 0;
+        try {
+            long start = System.nanoTime();
+            StackDistance stack = explorer.stackCurve();
+            long curveTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<Cache> caches;
+            try {
+                caches = pool.submit(() -> configs.parallelStream().map(explorer::simulate).collect(Collectors.toList())).get();
+            } finally {
+                pool.shutdown();
+            }
+            long sweepTime = System.nanoTime() - start;
+
+            if (outputFile != null) {
+                try (PrintStream csv = new PrintStream(new FileOutputStream(outputFile), false, "UTF-8")) {
+                    explorer.writeCsv(csv, stack, caches);
+                }
+            } else {
+                explorer.writeCsv(System.out, stack, caches);
+            }
+            System.err.printf("Curve of %d sizes from %d accesses in %.3f ms; %d configurations swept in %.3f ms%n",
+                stack.getDistinctBlocks(), stack.getAccessCount(), curveTime / 1e6, caches.size(), sweepTime / 1e6);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            status = 1;
+        } catch (Exception e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e;
+            System.err.println("Error: " + cause.getMessage());
+            status = 1;
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    private static String value(String[] args, int n, String option) {
+        if (n >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[n];
+    }
+
+    private static int[] list(String values) {
+        String[] parts = values.split(",");
+        int[] numbers = new int[parts.length];
+        for (int n = 0; n < parts.length; n++) {
+            numbers[n] = Integer.parseInt(parts[n].trim());
+        }
+        return numbers;
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java -cp bin cli.CacheExplorer [options] trace");
+        stream.println("  --format NAME              bin or din (default: din for *.din files, bin otherwise)");
+        stream.println("  -n, --max-records N        Use at most N records of the trace");
+        stream.println("  --stream NAME              data (default), instruction or unified");
+        stream.println("  --block N                  Block size in words (default 8)");
+        stream.println("  --sets LIST                Set counts to sweep (default 1,2,4,8,16,32,64)");
+        stream.println("  --ways LIST                Ways to sweep (default 1,2,4,8)");
+        stream.println("  --cache-policy NAME        lru (default), plru, fifo, random or lfu");
+        stream.println("  --cache-seed N             Seed for the random replacement policy");
+        stream.println("  --write-policy NAME        write-back (default) or write-through");
+        stream.println("  -j, --jobs N               Threads for the sweep (default: all cores)");
+        stream.println("  -o, --output FILE          Write the CSV to FILE");
+        stream.println("  -h, --help                 Print this help");
+    }
+
+    // Whether the stream includes a record of this kind.
+    private boolean selected(int kind) {
+        return kind == TraceReader.FETCH ? instructions : (kind == TraceReader.READ || kind == TraceReader.WRITE) && data;
+    }
+
+    private StackDistance stackCurve() throws IOException {
+        StackDistance stack = new StackDistance(blockSize);
+        TraceReader.replay(trace, format, maxRecords, (kind, address, pc) -> {
+            if (selected(kind)) {
+                stack.access(address);
+            } else if (kind == TraceReader.FLUSH) {
+                stack.flush();
+            }
+        });
+        return stack;
+    }
+
+    private Cache simulate(CacheConfig config) {
+        CacheHierarchy caches = new CacheHierarchy(new Memory(), config);
+        caches.setMissProfiling(false);
+        try {
+            // The cache sees the selected accesses as data accesses, fetches as reads.
+            TraceReader.replay(trace, format, maxRecords, (kind, address, pc) -> {
+                if (selected(kind)) {
+                    caches.access(kind == TraceReader.FETCH ? TraceReader.READ : kind, address, pc);
+                } else if (kind == TraceReader.FLUSH) {
+                    caches.access(kind, address, pc);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return caches.getDataCache();
+    }
+
+    private void writeCsv(PrintStream csv, StackDistance stack, List<Cache> caches) {
+        csv.println("model,sets,ways,block,words,accesses,misses,miss_ratio");
+        int maxLines = Math.max(stack.getDistinctBlocks(), 1);
+        long[] misses = stack.getMissCurve(maxLines);
+        long accesses = stack.getAccessCount();
+        for (int lines = 1; lines <= maxLines; lines++) {
+            csv.println(row("lru-stack", 1, lines, accesses, misses[lines]));
+        }
+        for (Cache cache : caches) {
+            CacheConfig config = cache.getConfig();
+            csv.println(row(config.getPolicy(), config.getSets(), config.getWays(),
+                cache.getReadCount() + cache.getWriteCount(), cache.getMissCount()));
+        }
+    }
+
+    private String row(String model, int sets, int ways, long accesses, long misses) {
+        return String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%d,%.6f", model, sets, ways, blockSize,
+            sets * ways * blockSize, accesses, misses, accesses > 0 ? (double) misses / accesses : 0.0);
+    }
+}
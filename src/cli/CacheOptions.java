@@ -0,0 +1,224 @@
+package cli;
+
+/*
+ * CacheOptions: The cache command-line options shared by Main and BatchRunner, and the
+ * CacheHierarchy they describe, with the size and store of the Memory behind it. Each ProgramRun
+ * builds its own memory and hierarchy from them.
+ *
+ *   --cache SETSxWAYSxBLOCK    L1 data cache geometry, e.g. 16x2x8 (default 1x4x8: 4 fully associative lines).
+ *   --l1i SETSxWAYSxBLOCK      Add a split L1 instruction cache; every instruction fetch goes through it.
+ *   --l2 SETSxWAYSxBLOCK       Add a unified L2 behind the L1 caches.
+ *   --l2-exclusive             Make the L2 exclusive (default inclusive).
+ *   --cache-policy NAME        Replacement for every level: lru (default), plru, fifo, random or lfu.
+ *   --cache-seed N             Seed for the random replacement policy (default 1).
+ *   --write-policy NAME        L1D write policy: write-back (default, write-allocate) or
+ *                              write-through (no write-allocate, through a write buffer).
+ *   --write-buffer N           Write-through buffer depth in words (default 4).
+ *   --prefetch NAME            L1D prefetcher: none (default), next-line, stride or stream (see Prefetcher).
+ *   --prefetch-degree N        Blocks (or strides) per prefetch (default 1).
+ *   --prefetch-distance N      How far ahead the first prefetch is, in blocks or strides (default 1).
+ *   --victim-cache N           Give the L1D a fully associative victim cache of N lines (default 0: none).
+ *   --write-combining N        Put a write-combining buffer of N blocks between the last level and
+ *                              memory (default 0: none).
+ *   --memory WORDS             Memory size, a multiple of 2048 (default 2048); above 4096 the memory
+ *                              is banked (see Memory).
+ *   --memory-store NAME        Where memory words live: heap (default) or direct (see MemoryStore).
+ *
+ * parse(String[] args, int n): Handles the option at args[n] if it is a cache option.
+ * - @param args: The command line.
+ * - @param n: The index of the option.
+ * - @return int: The index of the option's last argument, or -1 if args[n] is not a cache option.
+ * - @throws IllegalArgumentException: If the value is missing or invalid.
+ *
+ * check(): Checks that the levels fit together (see CacheHierarchy).
+ * - @throws IllegalArgumentException: If they do not.
+ *
+ * newMemory(), newMemory(int size): Creates the memory for one machine, of the --memory size or
+ * the size given (for a core image).
+ * - @return Memory: The memory.
+ *
+ * build(Memory memory): Creates the caches for one machine.
+ * - @param memory: The machine's memory.
+ * - @return CacheHierarchy: The caches.
+ *
+ * usage(PrintStream stream): Prints the option help lines.
+ *
+ * toString(): Describes the configuration, e.g. "1x4x8 lru", "1x4x8 lru write-through/4" or
+ * "1x4x8 lru next-line/2/1" (prefetcher/degree/distance), with " victim/N" and " combining/N" for
+ * the victim cache and write-combining buffer, and ", memory 8192 direct" for a memory other than
+ * the default.
+ * - @return String: The description.
+ */
+
+import components.CacheConfig;
+import components.CacheHierarchy;
+import components.Memory;
+
+import java.io.PrintStream;
+
+class CacheOptions {
+    private CacheConfig dataConfig = CacheConfig.DEFAULT;
+    private CacheConfig instructionConfig;
+    private CacheConfig l2Config;
+    private boolean exclusive;
+    private int combiningEntries;
+    private int memorySize = Memory.BANK_SIZE;
+    private String memoryStore = "heap";
+
+    int parse(String[] args, int n) {
+        String option = args[n];
+        switch (option) {
+            case "--cache":
+                dataConfig = dataGeometry(value(args, n + 1, option));
+                return n + 1;
+            case "--l1i":
+                instructionConfig = geometry(value(args, n + 1, option));
+                return n + 1;
+            case "--l2":
+                l2Config = geometry(value(args, n + 1, option));
+                return n + 1;
+            case "--l2-exclusive":
+                exclusive = true;
+                return n;
+            case "--cache-policy": {
+                String policy = value(args, n + 1, option);
+                dataConfig = dataConfig.withPolicy(policy);
+                instructionConfig = instructionConfig != null ? instructionConfig.withPolicy(policy) : null;
+                l2Config = l2Config != null ? l2Config.withPolicy(policy) : null;
+                return n + 1;
+            }
+            case "--cache-seed": {
+                long seed = Long.parseLong(value(args, n + 1, option));
+                dataConfig = dataConfig.withSeed(seed);
+                instructionConfig = instructionConfig != null ? instructionConfig.withSeed(seed) : null;
+                l2Config = l2Config != null ? l2Config.withSeed(seed) : null;
+                return n + 1;
+            }
+            case "--write-policy":
+                dataConfig = dataConfig.withWritePolicy(value(args, n + 1, option));
+                return n + 1;
+            case "--write-buffer":
+                dataConfig = dataConfig.withWriteBuffer(Integer.parseInt(value(args, n + 1, option)));
+                return n + 1;
+            case "--prefetch":
+                dataConfig = dataConfig.withPrefetcher(value(args, n + 1, option),
+                    dataConfig.getPrefetchDegree(), dataConfig.getPrefetchDistance());
+                return n + 1;
+            case "--prefetch-degree":
+                dataConfig = dataConfig.withPrefetcher(dataConfig.getPrefetcher(),
+                    Integer.parseInt(value(args, n + 1, option)), dataConfig.getPrefetchDistance());
+                return n + 1;
+            case "--prefetch-distance":
+                dataConfig = dataConfig.withPrefetcher(dataConfig.getPrefetcher(),
+                    dataConfig.getPrefetchDegree(), Integer.parseInt(value(args, n + 1, option)));
+                return n + 1;
+            case "--victim-cache":
+                dataConfig = dataConfig.withVictimCache(Integer.parseInt(value(args, n + 1, option)));
+                return n + 1;
+            case "--write-combining":
+                combiningEntries = Integer.parseInt(value(args, n + 1, option));
+                CacheConfig.DEFAULT.withWriteCombining(combiningEntries);  // Checks the size
+                return n + 1;
+            case "--memory":
+                memorySize = Integer.parseInt(value(args, n + 1, option));
+                return n + 1;
+            case "--memory-store":
+                memoryStore = value(args, n + 1, option);
+                return n + 1;
+            default:
+                return -1;
+        }
+    }
+
+    // A new level takes the policy and seed already given for the data cache.
+    private CacheConfig geometry(String geometry) {
+        return CacheConfig.parse(geometry).withSeed(dataConfig.getSeed()).withPolicy(dataConfig.getPolicy());
+    }
+
+    // --cache replaces the L1D geometry but keeps its policies.
+    private CacheConfig dataGeometry(String geometry) {
+        return geometry(geometry).withWritePolicy(dataConfig.getWritePolicy())
+                                 .withWriteBuffer(dataConfig.getWriteBufferDepth())
+                                 .withPrefetcher(dataConfig.getPrefetcher(), dataConfig.getPrefetchDegree(),
+                                                 dataConfig.getPrefetchDistance())
+                                 .withVictimCache(dataConfig.getVictimLines());
+    }
+
+    private static String value(String[] args, int n, String option) {
+        if (n >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[n];
+    }
+
+    void check() {
+        if (exclusive && l2Config == null) {
+            throw new IllegalArgumentException("--l2-exclusive needs --l2");
+        }
+        build(newMemory());
+    }
+
+    Memory newMemory() {
+        return newMemory(memorySize);
+    }
+
+    Memory newMemory(int size) {
+        return new Memory(size, memoryStore);
+    }
+
+    CacheHierarchy build(Memory memory) {
+        // Only the level that writes back to memory combines.
+        if (l2Config != null) {
+            return new CacheHierarchy(memory, instructionConfig, dataConfig,
+                                      l2Config.withWriteCombining(combiningEntries), exclusive);
+        }
+        return new CacheHierarchy(memory, instructionConfig, dataConfig.withWriteCombining(combiningEntries),
+                                  null, exclusive);
+    }
+
+    static void usage(PrintStream stream) {
+        stream.println("  --cache SETSxWAYSxBLOCK    Cache (L1D) geometry (default 1x4x8)");
+        stream.println("  --l1i SETSxWAYSxBLOCK      Add a split L1 instruction cache");
+        stream.println("  --l2 SETSxWAYSxBLOCK       Add a unified L2 cache");
+        stream.println("  --l2-exclusive             Make the L2 exclusive (default inclusive)");
+        stream.println("  --cache-policy NAME        lru (default), plru, fifo, random or lfu");
+        stream.println("  --cache-seed N             Seed for the random replacement policy");
+        stream.println("  --write-policy NAME        L1D write-back (default) or write-through");
+        stream.println("  --write-buffer N           Write-through buffer depth (default 4)");
+        stream.println("  --prefetch NAME            L1D prefetcher: none (default), next-line, stride or stream");
+        stream.println("  --prefetch-degree N        Blocks (or strides) per prefetch (default 1)");
+        stream.println("  --prefetch-distance N      Blocks (or strides) ahead of the access (default 1)");
+        stream.println("  --victim-cache N           L1D victim cache lines (default 0)");
+        stream.println("  --write-combining N        Write-combining buffer blocks before memory (default 0)");
+        stream.println("  --memory WORDS             Memory size, a multiple of 2048 (default 2048; banked above 4096)");
+        stream.println("  --memory-store NAME        heap (default) or direct (off-heap buffers)");
+    }
+
+    @Override
+    public String toString() {
+        String description = dataConfig + " " + dataConfig.getPolicy();
+        if (dataConfig.isWriteThrough()) {
+            description += " write-through/" + dataConfig.getWriteBufferDepth();
+        }
+        if (!dataConfig.getPrefetcher().equals("none")) {
+            description += " " + dataConfig.getPrefetcher() + "/" + dataConfig.getPrefetchDegree()
+                + "/" + dataConfig.getPrefetchDistance();
+        }
+        if (dataConfig.getVictimLines() > 0) {
+            description += " victim/" + dataConfig.getVictimLines();
+        }
+        if (combiningEntries > 0) {
+            description += " combining/" + combiningEntries;
+        }
+        if (instructionConfig != null) {
+            description += ", L1I " + instructionConfig;
+        }
+        if (l2Config != null) {
+            description += ", L2 " + l2Config + (exclusive ? " exclusive" : " inclusive");
+        }
+        if (memorySize != Memory.BANK_SIZE || !memoryStore.equals("heap")) {
+            description += ", memory " + memorySize + " " + memoryStore;
+        }
+        return description;
+    }
+}
@@ -0,0 +1,152 @@
+package cli;
+
+/*
+ * CacheSimulator: Trace-driven cache simulator. It replays address traces against a cache
+ * configuration without running the CPU, so cache designs can be compared on recorded accesses.
+ * Traces are streamed through memory-mapped windows (see TraceReader), so a trace of any size
+ * replays in constant memory. Each trace is replayed on a fresh CacheHierarchy built from the cache
+ * options, and its statistics are printed like cli.Main prints a run's.
+ *
+ * Usage: java -cp bin cli.CacheSimulator [options] trace [trace ...]
+ *   --format NAME              bin (our binary format, recorded by cli.Main --trace) or din
+ *                              (Dinero text). Default: din for *.din files, bin otherwise.
+ *   -n, --max-records N        Replay at most N records of each trace (default: all).
+ *   --misses N                 List the N instruction and data address pairs with the most misses
+ *                              per level (default 0; bin traces carry the instruction addresses).
+ *                              The list grows with every distinct pair, so it costs memory.
+ *   --cache, --l1i, --l2, --l2-exclusive, --cache-policy, --cache-seed, --write-policy, --write-buffer,
+ *   --prefetch, --prefetch-degree, --prefetch-distance, --victim-cache, --write-combining:
+ *                              The cache levels (see CacheOptions).
+ *   -h, --help                 Print this help.
+ *
+ * Instruction fetches only touch the caches with --l1i, as when the CPU runs. The cold, capacity
+ * and conflict split is exact for 16-bit addresses; misses above that range count as cold.
+ *
+ * main(String[] args): Parses the options and replays every trace in order. The exit status is 0,
+ * or 1 on errors.
+ * - @param args: The command line.
+ *
+ * replay(String traceFile): Replays one trace and prints its statistics.
+ * - @param traceFile: The trace to replay.
+ * - @throws IOException: If the trace cannot be read.
+ */
+
+import components.CacheHierarchy;
+import components.Memory;
+import components.TraceReader;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CacheSimulator {
+    private final CacheOptions cacheOptions = new CacheOptions();
+    private String format;
+    private long maxRecords = Long.MAX_VALUE;
+    private int misses;
+    private final PrintStream out = System.out;
+
+    public static void main(String[] args) {
+        CacheSimulator simulator = new CacheSimulator();
+        List<String> traces = new ArrayList<>();
+        try {
+            for (int n = 0; n < args.length; n++) {
+                String arg = args[n];
+                switch (arg) {
+                    case "--format":
+                        simulator.format = value(args, ++n, arg);
+                        if (!simulator.format.equals("bin") && !simulator.format.equals("din")) {
+                            throw new IllegalArgumentException("Unknown trace format: " + simulator.format);
+                        }
+                        break;
+                    case "-n":
+                    case "--max-records":
+                        simulator.maxRecords = Long.parseLong(value(args, ++n, arg));
+                        break;
+                    case "--misses":
+                        simulator.misses = Integer.parseInt(value(args, ++n, arg));
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(System.out);
+                        return;
+                    default:
+                        int last = simulator.cacheOptions.parse(args, n);
+                        if (last >= 0) {
+                            n = last;
+                            break;
+                        }
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        traces.add(arg);
+                        break;
+                }
+            }
+            if (traces.isEmpty()) {
+                throw new IllegalArgumentException("No trace given");
+            }
+            simulator.cacheOptions.check();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            usage(System.err);
+            System.exit(1);
+        }
+
+        int status = 0;
+        for (String trace : traces) {
+            try {
+                simulator.replay(trace);
+            } catch (IOException e) {
+                System.err.println("Error: " + trace + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    private static String value(String[] args, int n, String option) {
+        if (n >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[n];
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java -cp bin cli.CacheSimulator [options] trace [trace ...]");
+        stream.println("  --format NAME              bin or din (default: din for *.din files, bin otherwise)");
+        stream.println("  -n, --max-records N        Replay at most N records of each trace");
+        stream.println("  --misses N                 List the N pairs with the most misses per level");
+        CacheOptions.usage(stream);
+        stream.println("  -h, --help                 Print this help");
+    }
+
+    private void replay(String traceFile) throws IOException {
+        Path path = Paths.get(traceFile);
+        String traceFormat = format != null ? format : TraceReader.formatOf(path);
+        CacheHierarchy caches = cacheOptions.build(new Memory());
+        caches.setMissProfiling(misses > 0);  // Keeps the replay in constant memory
+        long[] kinds = new long[16];  // Records per kind
+
+        long start = System.nanoTime();
+        long records = TraceReader.replay(path, traceFormat, maxRecords, (kind, address, pc) -> {
+            kinds[kind & 15]++;
+            caches.access(kind, address, pc);
+        });
+        long elapsed = System.nanoTime() - start;
+
+        out.println();
+        out.println("== " + traceFile + " (" + traceFormat + ", " + cacheOptions + ")");
+        out.println("Records: " + records + " (" + kinds[TraceReader.READ] + " reads, " + kinds[TraceReader.WRITE]
+            + " writes, " + kinds[TraceReader.FETCH] + " fetches, " + kinds[TraceReader.FLUSH] + " flushes)");
+        out.printf("Replayed in %.3f ms (%.1f M records/s)%n", elapsed / 1e6, records * 1e3 / Math.max(elapsed, 1));
+        out.print(caches.getStatistics());
+        if (misses > 0) {
+            out.print(caches.getMissReport(misses));
+        }
+    }
+}
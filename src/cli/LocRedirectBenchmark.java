@@ -0,0 +1,120 @@
+package cli;
+
+/*
+ * LocRedirectBenchmark: Command-line benchmark of the LOC checks the fetch loop makes for every
+ * instruction (the check on the fetched address in CPU.fetch and the one on the next address in
+ * incrementPC), once with the ProgramCounter's redirect table and once with the
+ * HashMap<Integer, Integer> it used to keep. It prints the time per fetch and the speedup.
+ *
+ * Usage: java -cp bin cli.LocRedirectBenchmark [fetches]
+ *
+ * The simulated program is a ring of eight 16-word segments chained by LOC directives, so most
+ * lookups miss and one in sixteen follows a redirect, as in an assembled program with several LOCs.
+ * A round makes the given number of fetches (50000000 by default). Each variant is warmed up before
+ * the timed rounds and the median round is reported.
+ */
+
+import components.ProgramCounter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LocRedirectBenchmark {
+    private static final int SEGMENTS = 8;
+    private static final int SEGMENT_LENGTH = 16;
+    private static final int SEGMENT_STRIDE = 100;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TIMED_ROUNDS = 11;
+
+    // The LOC bookkeeping ProgramCounter had before the redirect table.
+    private static class HashMapRedirects {
+        private final Map<Integer, Integer> locDirectives = new HashMap<>();
+
+        void addLocDirective(int currentAddress, int targetLocation) {
+            locDirectives.put(currentAddress, targetLocation);
+        }
+
+        boolean hasLocDirective(int address) {
+            return locDirectives.containsKey(address);
+        }
+
+        int getLocTarget(int address) {
+            return locDirectives.getOrDefault(address, address);
+        }
+    }
+
+    public static void main(String[] args) {
+        long fetches = args.length > 0 ? Long.parseLong(args[0]) : 50_000_000L;
+
+        ProgramCounter table = new ProgramCounter();
+        HashMapRedirects map = new HashMapRedirects();
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int end = segment * SEGMENT_STRIDE + SEGMENT_LENGTH;
+            int next = ((segment + 1) % SEGMENTS) * SEGMENT_STRIDE;
+            table.addLocDirective(end, next);
+            map.addLocDirective(end, next);
+        }
+
+        long[] tableTimes = new long[TIMED_ROUNDS];
+        long[] mapTimes = new long[TIMED_ROUNDS];
+        long checksum = 0;
+        for (int round = -WARMUP_ROUNDS; round < TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            long tableSum = fetchLoop(table, fetches);
+            long middle = System.nanoTime();
+            long mapSum = fetchLoop(map, fetches);
+            long end = System.nanoTime();
+            if (tableSum != mapSum) {
+                throw new IllegalStateException("Redirect table and HashMap disagree");
+            }
+            checksum += tableSum;
+            if (round >= 0) {
+                tableTimes[round] = middle - start;
+                mapTimes[round] = end - middle;
+            }
+        }
+
+        double tableNanos = median(tableTimes) / (double) fetches;
+        double mapNanos = median(mapTimes) / (double) fetches;
+        System.out.printf("Fetches per round: %d (checksum %d)%n", fetches, checksum);
+        System.out.printf("HashMap<Integer, Integer>: %.3f ns/fetch, %.1f M fetches/s%n", mapNanos, 1e3 / mapNanos);
+        System.out.printf("Redirect table:            %.3f ns/fetch, %.1f M fetches/s%n", tableNanos, 1e3 / tableNanos);
+        System.out.printf("Speedup: %.2fx%n", mapNanos / tableNanos);
+    }
+
+    // Walks the program the way CPU.fetch and incrementPC do and sums the fetched addresses.
+    private static long fetchLoop(ProgramCounter pc, long fetches) {
+        long sum = 0;
+        int address = 0;
+        for (long n = 0; n < fetches; n++) {
+            if (pc.hasLocDirective(address)) {
+                address = pc.getLocTarget(address);
+            }
+            sum += address;
+            int next = (address + 1) & 0xFFF;
+            address = pc.hasLocDirective(next) ? pc.getLocTarget(next) : next;
+        }
+        return sum;
+    }
+
+    private static long fetchLoop(HashMapRedirects pc, long fetches) {
+        long sum = 0;
+        int address = 0;
+        for (long n = 0; n < fetches; n++) {
+            if (pc.hasLocDirective(address)) {
+                address = pc.getLocTarget(address);
+            }
+            sum += address;
+            int next = (address + 1) & 0xFFF;
+            address = pc.hasLocDirective(next) ? pc.getLocTarget(next) : next;
+        }
+        return sum;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,308 @@
+package cli;
+
+/*
+ * Main: Headless command-line runner for batch use. It assembles each program in memory (no listing
+ * or load file is written), stores the load image straight into a fresh Memory, runs it to HLT or
+ * to the cycle limit without loading Swing, and prints the OUT output as the program runs followed
+ * by the registers and run statistics. A program may also be a core image (*.img, see CoreImage),
+ * which is mapped into memory instead of being assembled.
+ *
+ * Usage: java -cp bin cli.Main [options] program.asm|image.img [...]
+ *   -n, --max-instructions N   Stop a program after N instructions (default: no limit).
+ *   -i, --input FILE           Read the console keyboard (IN) from FILE instead of standard input.
+ *   -e, --engine NAME          interpreter (default), tiered or aot.
+ *   --cache, --l1i, --l2, --l2-exclusive, --cache-policy, --cache-seed, --write-policy, --write-buffer,
+ *   --prefetch, --prefetch-degree, --prefetch-distance, --victim-cache, --write-combining:
+ *                              The cache levels (see CacheOptions).
+ *   --memory WORDS, --memory-store NAME:
+ *                              Memory size (banked above 4096 words) and store (see CacheOptions).
+ *   --cache-csv FILE           Write every level's counters and its misses by instruction and data
+ *                              address to FILE as CSV (see writeCacheCsv).
+ *   --trace FILE               Record every program's loads, stores and instruction fetches to FILE
+ *                              as a binary address trace, for replay by cli.CacheSimulator, with
+ *                              a flush record between programs.
+ *   --save-image FILE          Save the program as a core image once it is loaded (one program only).
+ *   --dump-image FILE          Save the final memory state as a core image (one program only).
+ *   --hot-threshold N          Executions before the tiered engine translates a block (default 50).
+ *   --no-fusion                Turn off superinstruction fusion in the interpreter.
+ *   -q, --quiet                Print only the program's own output, no registers or statistics.
+ *   -h, --help                 Print this help.
+ *
+ * The exit status is 0 if every program halted, 2 if one hit the instruction limit and 1 on errors.
+ *
+ * main(String[] args): Parses the options and runs every program in order.
+ * - @param args: The command line.
+ *
+ * runProgram(String programFile): Assembles, loads and runs one program on a new machine (see ProgramRun).
+ * - @param programFile: The assembly source or core image to run.
+ * - @return int: The exit status for this program.
+ * - @throws IOException: If the program or input file cannot be read, the source does not assemble,
+ *   or an image cannot be written.
+ *
+ * writeCacheCsv(ProgramRun run): Appends a run's cache rows to the CSV file. The columns are
+ * program,level,pc,address,reads,writes,hits,misses,cold,capacity,conflict,evictions,write_backs.
+ * Each level has one totals row with empty pc and address, then one row per (pc, address) pair that
+ * missed, with only the miss columns filled in, most misses first.
+ */
+
+import components.Cache;
+import components.DecodeCache;
+import components.MissProfile;
+import components.TraceReader;
+import components.TraceWriter;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+public class Main {
+    private static final int EXIT_HALTED = 0;
+    private static final int EXIT_ERROR = 1;
+    private static final int EXIT_LIMIT = 2;
+
+    private long maxInstructions = Long.MAX_VALUE;
+    private String inputFile;
+    private String engine = "interpreter";
+    private final CacheOptions cacheOptions = new CacheOptions();
+    private int hotThreshold = -1;
+    private boolean fusion = true;
+    private boolean quiet;
+    private String cacheCsvFile;
+    private PrintStream cacheCsv;
+    private String traceFile;
+    private String saveImageFile;
+    private String dumpImageFile;
+    private TraceWriter trace;
+    private Scanner input;
+    private final PrintStream out = System.out;
+
+    public static void main(String[] args) {
+        Main runner = new Main();
+        List<String> programs = new ArrayList<>();
+        try {
+            for (int n = 0; n < args.length; n++) {
+                String arg = args[n];
+                switch (arg) {
+                    case "-n":
+                    case "--max-instructions":
+                        runner.maxInstructions = Long.parseLong(value(args, ++n, arg));
+                        break;
+                    case "-i":
+                    case "--input":
+                        runner.inputFile = value(args, ++n, arg);
+                        break;
+                    case "-e":
+                    case "--engine":
+                        runner.engine = value(args, ++n, arg);
+                        if (!runner.engine.equals("interpreter") && !runner.engine.equals("tiered") && !runner.engine.equals("aot")) {
+                            throw new IllegalArgumentException("Unknown engine: " + runner.engine);
+                        }
+                        break;
+                    case "--hot-threshold":
+                        runner.hotThreshold = Integer.parseInt(value(args, ++n, arg));
+                        break;
+                    case "--cache-csv":
+                        runner.cacheCsvFile = value(args, ++n, arg);
+                        break;
+                    case "--trace":
+                        runner.traceFile = value(args, ++n, arg);
+                        break;
+                    case "--save-image":
+                        runner.saveImageFile = value(args, ++n, arg);
+                        break;
+                    case "--dump-image":
+                        runner.dumpImageFile = value(args, ++n, arg);
+                        break;
+                    case "--no-fusion":
+                        runner.fusion = false;
+                        break;
+                    case "-q":
+                    case "--quiet":
+                        runner.quiet = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(System.out);
+                        return;
+                    default:
+                        int last = runner.cacheOptions.parse(args, n);
+                        if (last >= 0) {
+                            n = last;
+                            break;
+                        }
+                        if (arg.startsWith("-")) {
+                            throw new IllegalArgumentException("Unknown option: " + arg);
+                        }
+                        programs.add(arg);
+                        break;
+                }
+            }
+            if (programs.isEmpty()) {
+                throw new IllegalArgumentException("No program given");
+            }
+            if ((runner.saveImageFile != null || runner.dumpImageFile != null) && programs.size() > 1) {
+                throw new IllegalArgumentException("--save-image and --dump-image take one program");
+            }
+            runner.cacheOptions.check();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            usage(System.err);
+            System.exit(EXIT_ERROR);
+        }
+
+        int status = EXIT_HALTED;
+        try {
+            if (runner.inputFile != null) {
+                runner.input = new Scanner(new FileInputStream(runner.inputFile));
+            }
+            if (runner.cacheCsvFile != null) {
+                runner.cacheCsv = new PrintStream(new FileOutputStream(runner.cacheCsvFile), false, "UTF-8");
+                runner.cacheCsv.println("program,level,pc,address,reads,writes,hits,misses,cold,capacity,conflict,evictions,write_backs");
+            }
+            if (runner.traceFile != null) {
+                runner.trace = new TraceWriter(Paths.get(runner.traceFile));
+            }
+            for (String program : programs) {
+                status = Math.max(status, runner.runProgram(program));
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            status = EXIT_ERROR;
+        }
+        if (runner.cacheCsv != null) {
+            runner.cacheCsv.close();
+            if (runner.cacheCsv.checkError()) {
+                System.err.println("Error: could not write " + runner.cacheCsvFile);
+                status = EXIT_ERROR;
+            }
+        }
+        if (runner.trace != null) {
+            try {
+                runner.trace.close();
+            } catch (IOException e) {
+                System.err.println("Error: could not write " + runner.traceFile + ": " + e.getMessage());
+                status = EXIT_ERROR;
+            }
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+
+    private static String value(String[] args, int n, String option) {
+        if (n >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[n];
+    }
+
+    private static void usage(PrintStream stream) {
+        stream.println("Usage: java -cp bin cli.Main [options] program.asm|image.img [...]");
+        stream.println("  -n, --max-instructions N   Stop a program after N instructions");
+        stream.println("  -i, --input FILE           Read the console keyboard (IN) from FILE");
+        stream.println("  -e, --engine NAME          interpreter (default), tiered or aot");
+        CacheOptions.usage(stream);
+        stream.println("  --cache-csv FILE           Write cache counters and misses per instruction as CSV");
+        stream.println("  --trace FILE               Record a binary address trace of every run");
+        stream.println("  --save-image FILE          Save the loaded program as a core image");
+        stream.println("  --dump-image FILE          Save the final memory state as a core image");
+        stream.println("  --hot-threshold N          Executions before the tiered engine translates a block");
+        stream.println("  --no-fusion                Turn off superinstruction fusion");
+        stream.println("  -q, --quiet                Print only the program's output");
+        stream.println("  -h, --help                 Print this help");
+    }
+
+    private int runProgram(String programFile) throws IOException {
+        ProgramRun run = ProgramRun.open(programFile, cacheOptions, input, out);
+        if (saveImageFile != null) {
+            run.cpu.saveCoreImage(Paths.get(saveImageFile));
+        }
+        run.cpu.getDecodeCache().setFusionEnabled(fusion);
+        if (trace != null && trace.getRecordCount() > 0) {
+            trace.record(TraceReader.FLUSH, 0, -1);  // Every program starts with empty caches
+        }
+        run.caches.setTraceWriter(trace);
+
+        boolean halted;
+        String error = null;
+        long start = System.nanoTime();
+        try {
+            halted = run.run(engine, maxInstructions, hotThreshold);
+        } catch (RuntimeException e) {
+            halted = false;
+            error = e.toString();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (dumpImageFile != null) {
+            run.cpu.saveCoreImage(Paths.get(dumpImageFile));
+        }
+
+        if (!quiet) {
+            printSummary(run, halted, error, elapsed);
+        }
+        if (cacheCsv != null) {
+            writeCacheCsv(run);
+        }
+        if (error != null) {
+            return EXIT_ERROR;
+        }
+        return halted ? EXIT_HALTED : EXIT_LIMIT;
+    }
+
+    private void printSummary(ProgramRun run, boolean halted, String error, long elapsed) {
+        out.println();
+        out.println("== " + run.sourceFile);
+        if (error != null) {
+            out.println("Stopped: " + error);
+        } else if (halted) {
+            out.println("Halted");
+        } else {
+            out.println("Stopped: instruction limit of " + maxInstructions + " reached");
+        }
+        out.print(run.gprs);
+        out.print(run.ixr);
+        out.println(run.pc);
+        out.println(run.cc);
+
+        String engineStatistics = run.getEngineStatistics();
+        if (!engineStatistics.isEmpty()) {
+            out.println(engineStatistics);
+        }
+        out.printf("Instructions: %d in %.3f ms%n", run.getInstructionCount(), elapsed / 1e6);
+        out.print(run.caches.getStatistics());
+        DecodeCache decodeCache = run.cpu.getDecodeCache();
+        out.println("Decoded words: " + decodeCache.getDecodeCount() + ", fused instructions: " + decodeCache.getFusedCount());
+        out.print(decodeCache.getFusionReport());
+    }
+
+    private void writeCacheCsv(ProgramRun run) {
+        String program = csv(run.sourceFile);
+        Cache[] levels = run.caches.getLevels();
+        String[] names = run.caches.getLevelNames();
+        for (int n = 0; n < levels.length; n++) {
+            Cache level = levels[n];
+            cacheCsv.println(program + "," + names[n] + ",,," + level.getReadCount() + "," + level.getWriteCount() + ","
+                + level.getHitCount() + "," + level.getMissCount() + "," + level.getColdMissCount() + ","
+                + level.getCapacityMissCount() + "," + level.getConflictMissCount() + "," + level.getEvictionCount() + ","
+                + level.getWriteBackCount());
+            MissProfile profile = level.getMissProfile();
+            for (int entry : profile.byMisses()) {
+                cacheCsv.println(program + "," + names[n] + "," + profile.getInstructionAddress(entry) + ","
+                    + profile.getDataAddress(entry) + ",,,," + profile.getMisses(entry) + "," + profile.getColdMisses(entry) + ","
+                    + profile.getCapacityMisses(entry) + "," + profile.getConflictMisses(entry) + ",,");
+            }
+        }
+    }
+
+    // Quotes a CSV field if it needs it.
+    private static String csv(String field) {
+        if (field.contains(",") || field.contains("\"")) {
+            return "\"" + field.replace("\"", "\"\"") + "\"";
+        }
+        return field;
+    }
+}
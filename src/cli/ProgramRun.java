@@ -0,0 +1,197 @@
+package cli;
+
+/*
+ * ProgramRun: One program on its own machine. It assembles the source in memory (or maps a core
+ * image) and builds a private Memory, cache hierarchy, register set and CPU holding the program, so
+ * any number of runs can execute side by side on different threads.
+ *
+ * open(String programFile, CacheOptions cacheOptions, Scanner input, PrintStream console): Assembles
+ * and loads a program, or loads a core image (*.img, see CoreImage).
+ * - @param programFile: The assembly source or core image.
+ * - @param cacheOptions: The machine's cache levels.
+ * - @param input: The console keyboard for IN, or null for standard input.
+ * - @param console: Where OUT and device messages go.
+ * - @return ProgramRun: The loaded machine.
+ * - @throws IOException: If the file cannot be read or the source does not assemble.
+ *
+ * assemble(String sourceFile): Assembles a source, turning an assembly error into an IOException.
+ * - @return AssembledProgram: The assembled program.
+ * - @throws IOException: If the source cannot be read or does not assemble.
+ *
+ * ProgramRun(AssembledProgram program, MachineState loaded, CacheOptions cacheOptions, Scanner input,
+ * PrintStream console): Builds a machine for an already assembled program.
+ * - @param program: The assembled program.
+ * - @param loaded: A checkpoint of the program's post-load state to restore instead of storing the
+ *   load image, or null to load the image. It must come from caches with the same configuration.
+ * - @param cacheOptions: The machine's cache levels.
+ * - @param input: The console keyboard for IN, or null for standard input.
+ * - @param console: Where OUT and device messages go.
+ *
+ * ProgramRun(CoreImage image, String imageFile, CacheOptions cacheOptions, Scanner input,
+ * PrintStream console): Builds a machine holding a core image. The image brings its own memory size;
+ * the options only choose the store.
+ * - @param image: The image, which may be shared by any number of runs.
+ * - @param imageFile: The image's file, which names the program (and keys the AOT cache).
+ *
+ * run(String engine, long maxInstructions, int hotThreshold): Runs the program to HLT or to the limit.
+ * - @param engine: "interpreter", "tiered" or "aot".
+ * - @param maxInstructions: The instruction limit (Long.MAX_VALUE for none).
+ * - @param hotThreshold: The tiered engine's hot threshold, or -1 for its default.
+ * - @return boolean: True if the program halted, false if it hit the limit.
+ * - @throws IOException: If the AOT cache cannot be read or written.
+ *
+ * getInstructionCount(): Returns how many instructions the run executed, whatever the engine.
+ * - @return long: The instruction count.
+ *
+ * getEngineStatistics(): Describes how the instructions were split between the engine's tiers.
+ * - @return String: One line, or an empty string for the interpreter.
+ */
+
+import components.*;
+import Assembler.AssembledProgram;
+import Assembler.Assembler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+class ProgramRun {
+    final String sourceFile;
+    final Memory memory;
+    final GeneralPurposeRegisters gprs;
+    final IndexRegisters ixr;
+    final ProgramCounter pc;
+    final ConditionCode cc;
+    final CacheHierarchy caches;
+    final Cache cache;  // The L1 data cache
+    final CPU cpu;
+
+    private int[] addresses;  // The load image; null for a core image until the AOT compiler needs one
+    private int[] values;
+    private final int startAddress;
+    private String engine = "interpreter";
+
+    static ProgramRun open(String programFile, CacheOptions cacheOptions, Scanner input, PrintStream console) throws IOException {
+        if (CoreImage.isImageFile(programFile)) {
+            return new ProgramRun(CoreImage.load(Paths.get(programFile)), programFile, cacheOptions, input, console);
+        }
+        return new ProgramRun(assemble(programFile), null, cacheOptions, input, console);
+    }
+
+    static AssembledProgram assemble(String sourceFile) throws IOException {
+        try {
+            return new Assembler().assemble(sourceFile);
+        } catch (RuntimeException e) {
+            throw new IOException("cannot assemble " + sourceFile + ": " + e, e);
+        }
+    }
+
+    ProgramRun(AssembledProgram program, MachineState loaded, CacheOptions cacheOptions, Scanner input, PrintStream console) {
+        this(program.getSourceFile(), program.newProgramCounter(), program.getStartAddress(), cacheOptions.newMemory(),
+            cacheOptions, input, console);
+        this.addresses = program.getLoadAddresses();
+        this.values = program.getLoadValues();
+        cpu.setHaltAddresses(program.getHaltAddresses());
+        if (loaded != null) {
+            cpu.restore(loaded);
+        } else {
+            cpu.loadImage(addresses, values);
+            pc.setPC(startAddress);
+        }
+    }
+
+    ProgramRun(CoreImage image, String imageFile, CacheOptions cacheOptions, Scanner input, PrintStream console) {
+        this(imageFile, new ProgramCounter(), image.getStartAddress(), cacheOptions.newMemory(image.getMemorySize()),
+            cacheOptions, input, console);
+        cpu.loadCoreImage(image);
+    }
+
+    private ProgramRun(String sourceFile, ProgramCounter pc, int startAddress, Memory memory, CacheOptions cacheOptions,
+                       Scanner input, PrintStream console) {
+        this.sourceFile = sourceFile;
+        this.pc = pc;
+        this.startAddress = startAddress;
+        this.memory = memory;
+        this.gprs = new GeneralPurposeRegisters(4);
+        this.ixr = new IndexRegisters(3);
+        this.cc = new ConditionCode();
+        this.caches = cacheOptions.build(memory);
+        this.cache = caches.getDataCache();
+        this.cpu = new CPU(memory, new MemoryAddressRegister(), new MemoryBufferRegister(), gprs, ixr, pc, cc, caches);
+        cpu.setConsole(input, console);
+    }
+
+    boolean run(String engine, long maxInstructions, int hotThreshold) throws IOException {
+        this.engine = engine;
+        switch (engine) {
+            case "tiered":
+                if (hotThreshold >= 0) {
+                    cpu.getTieredEngine().setHotThreshold(hotThreshold);
+                }
+                return cpu.runTiered(maxInstructions);
+            case "aot": {
+                if (addresses == null) {
+                    loadImageOf(memory);
+                }
+                CompiledProgram program = new AotCompiler().compile(new File(sourceFile), addresses, values, pc, startAddress);
+                if (program != null) {
+                    return cpu.runCompiled(program, maxInstructions);
+                }
+                System.err.println("AOT translation unavailable; interpreting " + sourceFile);
+                this.engine = "interpreter";
+                return cpu.run(maxInstructions);
+            }
+            default:
+                return cpu.run(maxInstructions);
+        }
+    }
+
+    // Takes the non-zero addressable words of a freshly loaded core image as its load image.
+    private void loadImageOf(Memory memory) {
+        int[] words = new int[memory.getSize()];
+        memory.readBlock(0, words, 0, words.length);
+        int count = 0;
+        for (int word : words) {
+            if (word != 0) {
+                count++;
+            }
+        }
+        addresses = new int[count];
+        values = new int[count];
+        count = 0;
+        for (int address = 0; address < words.length; address++) {
+            if (words[address] != 0) {
+                addresses[count] = address;
+                values[count++] = words[address];
+            }
+        }
+    }
+
+    long getInstructionCount() {
+        if (engine.equals("tiered")) {
+            TieredEngine tiered = cpu.getTieredEngine();
+            return tiered.getInterpretedCount() + tiered.getTranslatedCount();
+        }
+        if (engine.equals("aot") && cpu.getAotEngine() != null) {
+            AotEngine aot = cpu.getAotEngine();
+            return aot.getInterpretedCount() + aot.getCompiledCount();
+        }
+        return cpu.getInstructionCount();
+    }
+
+    String getEngineStatistics() {
+        if (engine.equals("tiered")) {
+            TieredEngine tiered = cpu.getTieredEngine();
+            return "Interpreted: " + tiered.getInterpretedCount() + ", translated: " + tiered.getTranslatedCount()
+                + " (" + tiered.getBlocksTranslated() + " blocks, " + tiered.getBlocksInvalidated() + " invalidated)";
+        }
+        if (engine.equals("aot") && cpu.getAotEngine() != null) {
+            AotEngine aot = cpu.getAotEngine();
+            return "Interpreted: " + aot.getInterpretedCount() + ", compiled: " + aot.getCompiledCount()
+                + " (" + aot.getBlocksInvalidated() + " blocks invalidated)";
+        }
+        return "";
+    }
+}
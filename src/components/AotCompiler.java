@@ -0,0 +1,561 @@
+package components;
+
+/*
+ * AotCompiler: Translates a whole assembled program ahead of time into a Java class implementing
+ * CompiledProgram, compiles it in-process with javax.tools and caches the class file on disk. The
+ * cache is keyed by a SHA-256 hash of the assembly source and its load image (plus the translator
+ * version), so re-running an unchanged program loads the cached class without compiling anything.
+ *
+ * The compiler walks the load image from the start address and builds a control-flow graph from
+ * the static branch targets (transfers with IX = 0 and I = 0), the fall-through of conditional
+ * transfers, JSR return addresses and the word after every instruction left to the interpreter.
+ * Each basic block becomes a private method and a switch over the PC dispatches between them. The
+ * registers live in fields of the generated object while it runs; the instruction semantics are the
+ * BlockTranslator's, with every memory access and condition code update going through BlockRuntime.
+ *
+ * The generated code hands control back to the AotEngine (which interprets) when it reaches an
+ * address that is not a leader of a live block: indirect or indexed jumps to anything but a
+ * leader, HLT/Data words and the other instructions the BlockTranslator does not translate, and
+ * blocks that have been overwritten by a store.
+ *
+ * AotCompiler(): Creates a compiler caching classes under output/aot-cache.
+ *
+ * AotCompiler(File cacheDirectory): Creates a compiler caching classes under the given directory.
+ * - @param cacheDirectory: The directory holding one subdirectory per cached program.
+ *
+ * compile(File sourceFile, File loadFile, ProgramCounter pc, int startAddress): Returns the
+ * translated program, from the in-process cache, the disk cache or a fresh compilation.
+ * - @param sourceFile: The assembly source the load file was produced from.
+ * - @param loadFile: The load file written by the assembler (octal address/word pairs).
+ * - @param pc: The program counter holding the program's LOC directives.
+ * - @param startAddress: The address execution starts at.
+ * - @return CompiledProgram: A new instance of the translated program, or null if no Java
+ *   compiler is available (e.g. running on a JRE) or compilation failed.
+ * - @throws IOException: If the source, load file or cache cannot be read or written.
+ *
+ * compile(File sourceFile, int[] addresses, int[] values, ProgramCounter pc, int startAddress):
+ * The same for a load image held in memory (see AssembledProgram.getLoadAddresses/getLoadValues).
+ * - @param addresses: The loaded addresses.
+ * - @param values: The word loaded at each address.
+ *
+ * compile(String sourceName, byte[] source, int[] addresses, int[] values, ProgramCounter pc,
+ * int startAddress): The same for a source already read, so it is not read again for the hash.
+ * - @param sourceName: The source's file name (it only appears in the generated class).
+ * - @param source: The bytes of the source file.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+public class AotCompiler {
+    static final int VERSION = 4;                // Bump whenever the generated code changes
+    private static final int ADDRESS_SPACE = 0x1000;
+    private static final int MAX_BLOCK_LENGTH = 256;  // Keeps every block method well below the JVM limit
+
+    // Opcodes.
+    private static final int LDR = 0b000001, STR = 0b000010, LDA = 0b000011, LDX = 0b101001, STX = 0b101010;
+    private static final int JZ = 0b001010, JNE = 0b001011, JCC = 0b001100, JMA = 0b001101, JSR = 0b001110;
+    private static final int RFS = 0b001111, SOB = 0b010000, JGE = 0b010001;
+    private static final int AMR = 0b000100, SMR = 0b000101, AIR = 0b000110, SIR = 0b000111;
+    private static final int TRR = 0b111010, ORR = 0b111100, NOT = 0b111101;
+
+    // Classes already loaded in this JVM, by hash.
+    private static final Map<String, Class<? extends CompiledProgram>> LOADED = new ConcurrentHashMap<>();
+
+    private final File cacheDirectory;
+
+    public AotCompiler() {
+        this(new File("output/aot-cache"));
+    }
+
+    public AotCompiler(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public CompiledProgram compile(File sourceFile, File loadFile, ProgramCounter pc, int startAddress) throws IOException {
+        return compile(sourceFile.getName(), Files.readAllBytes(sourceFile.toPath()), readLoadImage(loadFile), pc, startAddress);
+    }
+
+    public CompiledProgram compile(File sourceFile, int[] addresses, int[] values, ProgramCounter pc, int startAddress) throws IOException {
+        return compile(sourceFile.getName(), Files.readAllBytes(sourceFile.toPath()), addresses, values, pc, startAddress);
+    }
+
+    public CompiledProgram compile(String sourceName, byte[] source, int[] addresses, int[] values, ProgramCounter pc,
+                                   int startAddress) throws IOException {
+        int[] image = new int[ADDRESS_SPACE];
+        Arrays.fill(image, -1);
+        for (int n = 0; n < addresses.length; n++) {
+            if (addresses[n] >= 0 && addresses[n] < ADDRESS_SPACE) {
+                image[addresses[n]] = values[n] & 0xFFFF;
+            }
+        }
+        return compile(sourceName, source, image, pc, startAddress);
+    }
+
+    private CompiledProgram compile(String sourceName, byte[] source, int[] image, ProgramCounter pc, int startAddress) throws IOException {
+        String hash = hash(source, image, pc, startAddress);
+        String className = "AotProgram_" + hash.substring(0, 16);
+
+        Class<? extends CompiledProgram> compiled = LOADED.get(hash);
+        if (compiled == null) {
+            // Batch runs compile from several threads; only one of them writes a given cache entry.
+            synchronized (LOADED) {
+                compiled = LOADED.get(hash);
+                if (compiled == null) {
+                    File directory = new File(cacheDirectory, hash);
+                    File classFile = new File(directory, className + ".class");
+                    if (!classFile.isFile()) {
+                        String javaSource = generate(className, sourceName, image, pc, startAddress);
+                        if (!compileSource(directory, className, javaSource)) {
+                            return null;
+                        }
+                    }
+                    compiled = load(directory, className);
+                    if (compiled == null) {
+                        return null;
+                    }
+                    LOADED.put(hash, compiled);
+                }
+            }
+        }
+        try {
+            return compiled.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not instantiate " + className, e);
+        }
+    }
+
+    // Reads the load file into a word per address; -1 marks addresses the program does not load.
+    private static int[] readLoadImage(File loadFile) throws IOException {
+        int[] image = new int[ADDRESS_SPACE];
+        Arrays.fill(image, -1);
+        try (BufferedReader br = new BufferedReader(new FileReader(loadFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(" ");
+                int address = Integer.parseInt(parts[0], 8);
+                int data = Integer.parseInt(parts[1], 8);
+                if (address >= 0 && address < ADDRESS_SPACE) {
+                    image[address] = data & 0xFFFF;
+                }
+            }
+        }
+        return image;
+    }
+
+    private static String hash(byte[] source, int[] image, ProgramCounter pc, int startAddress) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        key.writeBytes(("C6461 AOT " + VERSION + " start " + startAddress + "\n").getBytes(StandardCharsets.UTF_8));
+        key.writeBytes(source);
+        for (int address = 0; address < ADDRESS_SPACE; address++) {
+            if (image[address] >= 0) {
+                key.writeBytes((address + "=" + image[address] + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            if (pc.hasLocDirective(address)) {
+                key.writeBytes(("LOC " + address + ">" + pc.getLocTarget(address) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(key.toByteArray())) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // ---- Control-flow graph ----
+
+    private static boolean isCode(int[] image, int address) {
+        return image[address] >= 0 && BlockTranslator.isTranslatable(image[address]);
+    }
+
+    // The address incrementPC moves to from the given one, ignoring the LOC print.
+    private static int successor(ProgramCounter pc, int address) {
+        int next = (address + 1) & 0xFFF;
+        return pc.hasLocDirective(next) ? pc.getLocTarget(next) : next;
+    }
+
+    private static boolean[] findLeaders(int[] image, ProgramCounter pc, int startAddress) {
+        boolean[] leader = new boolean[ADDRESS_SPACE];
+        boolean[] visited = new boolean[ADDRESS_SPACE];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        leader[startAddress] = true;
+        work.push(startAddress);
+
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            if (visited[address]) {
+                continue;
+            }
+            visited[address] = true;
+
+            if (pc.hasLocDirective(address)) {
+                addLeader(leader, work, pc.getLocTarget(address));
+                continue;
+            }
+            if (image[address] < 0) {
+                continue;  // Never loaded; the interpreter decides what happens there
+            }
+            int word = image[address];
+            int opcode = CPUExe.opcode(word);
+            int next = successor(pc, address);
+            boolean redirected = next != ((address + 1) & 0xFFF);
+
+            if (!isCode(image, address)) {
+                addLeader(leader, work, next);
+            } else if (BlockTranslator.isTerminator(opcode)) {
+                if (opcode != RFS && CPUExe.ix(word) == 0 && CPUExe.i(word) == 0) {
+                    addLeader(leader, work, CPUExe.address(word));
+                }
+                if (opcode == SOB || opcode == JGE) {
+                    addLeader(leader, work, successor(pc, next));
+                } else if (opcode != JMA && opcode != RFS) {
+                    addLeader(leader, work, next);  // Fall-through, or the JSR return address
+                }
+            } else if (redirected) {
+                addLeader(leader, work, next);
+            } else {
+                work.push(next);
+            }
+        }
+        return leader;
+    }
+
+    private static void addLeader(boolean[] leader, ArrayDeque<Integer> work, int address) {
+        leader[address] = true;
+        work.push(address);
+    }
+
+    // Number of instructions in the block starting at a leader; 0 if it starts with untranslated code.
+    private static int blockLength(int[] image, ProgramCounter pc, boolean[] leader, int start) {
+        int length = 0;
+        int address = start;
+        while (isCode(image, address) && !pc.hasLocDirective(address)) {
+            length++;
+            int next = address + 1;
+            if (BlockTranslator.isTerminator(CPUExe.opcode(image[address])) || length == MAX_BLOCK_LENGTH
+                    || next >= ADDRESS_SPACE || leader[next] || pc.hasLocDirective(next)) {
+                break;
+            }
+            address = next;
+        }
+        return length;
+    }
+
+    // ---- Source generation ----
+
+    private static String generate(String className, String programName, int[] image, ProgramCounter pc, int startAddress) {
+        boolean[] leader = findLeaders(image, pc, startAddress);
+        StringBuilder leaders = new StringBuilder();
+        StringBuilder lengths = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        StringBuilder cases = new StringBuilder();
+        StringBuilder methods = new StringBuilder();
+
+        for (int start = 0; start < ADDRESS_SPACE; start++) {
+            if (!leader[start]) {
+                continue;
+            }
+            int length = blockLength(image, pc, leader, start);
+            if (length == 0) {
+                continue;
+            }
+            leaders.append(start).append(',');
+            lengths.append(length).append(',');
+            for (int n = 0; n < length; n++) {
+                words.append(image[start + n]).append(',');
+            }
+            cases.append("                    case ").append(start).append(": go = executed + ").append(length)
+                 .append(" <= budget && b").append(start).append("(); break;\n");
+            emitBlock(methods, pc, image, start, length);
+        }
+
+        return "// Generated by components.AotCompiler from " + programName + "; do not edit.\n"
+            + "import components.BlockRuntime;\n"
+            + "import components.CompiledProgram;\n\n"
+            + "public final class " + className + " implements CompiledProgram {\n"
+            + "    private static final int[] LEADERS = decode(\"" + leaders + "\");\n"
+            + "    private static final int[] LENGTHS = decode(\"" + lengths + "\");\n"
+            + "    private static final int[] WORDS = decode(\"" + words + "\");\n\n"
+            + "    private BlockRuntime rt;\n"
+            + "    private int g0, g1, g2, g3, x0, x1, x2;\n"
+            + "    private int pc;\n"
+            + "    private long executed;\n\n"
+            + "    public int[] blockLeaders() {\n"
+            + "        return LEADERS.clone();\n"
+            + "    }\n\n"
+            + "    public int[] blockWords(int leader) {\n"
+            + "        int offset = 0;\n"
+            + "        for (int n = 0; n < LEADERS.length; n++) {\n"
+            + "            if (LEADERS[n] == leader) {\n"
+            + "                return java.util.Arrays.copyOfRange(WORDS, offset, offset + LENGTHS[n]);\n"
+            + "            }\n"
+            + "            offset += LENGTHS[n];\n"
+            + "        }\n"
+            + "        return new int[0];\n"
+            + "    }\n\n"
+            + "    public long execute(BlockRuntime runtime, boolean[] live, long budget) {\n"
+            + "        rt = runtime;\n"
+            + "        g0 = rt.getGPR(0); g1 = rt.getGPR(1); g2 = rt.getGPR(2); g3 = rt.getGPR(3);\n"
+            + "        x0 = rt.getIXR(0); x1 = rt.getIXR(1); x2 = rt.getIXR(2);\n"
+            + "        pc = rt.getPC();\n"
+            + "        executed = 0;\n"
+            + "        boolean go = true;\n"
+            + "        while (go && executed < budget && pc < live.length && live[pc]) {\n"
+            + "            int leader = pc;\n"
+            + "            long before = executed;\n"
+            + "            try {\n"
+            + "                switch (pc) {\n"
+            + cases
+            + "                    default: go = false; break;\n"
+            + "                }\n"
+            + "            } catch (RuntimeException e) {\n"
+            + "                rt.fetched(leader, (int) (executed - before));  // The faulting instruction was fetched\n"
+            + "                throw e;\n"
+            + "            }\n"
+            + "            rt.fetched(leader, (int) (executed - before));\n"
+            + "        }\n"
+            + "        flush();\n"
+            + "        rt.setPC(pc);\n"
+            + "        rt = null;\n"
+            + "        return executed;\n"
+            + "    }\n\n"
+            + "    public long getExecuted() {\n"
+            + "        return executed;\n"
+            + "    }\n\n"
+            + "    private void flush() {\n"
+            + "        rt.setGPR(0, g0); rt.setGPR(1, g1); rt.setGPR(2, g2); rt.setGPR(3, g3);\n"
+            + "        rt.setIXR(0, x0); rt.setIXR(1, x1); rt.setIXR(2, x2);\n"
+            + "    }\n\n"
+            + "    // A store overwrote translated code: stop right after it.\n"
+            + "    private boolean modified(int address, int count) {\n"
+            + "        executed += count;\n"
+            + "        flush();\n"
+            + "        rt.advance(address);\n"
+            + "        pc = rt.getPC();\n"
+            + "        return false;\n"
+            + "    }\n\n"
+            + "    private boolean jump(int target, int next) {\n"
+            + "        if (target < 0 || target > 0xFFF) {\n"
+            + "            flush();\n"
+            + "            rt.setPC(next);\n"
+            + "            rt.setPC(target);  // Rejects the target exactly like the interpreter\n"
+            + "        }\n"
+            + "        pc = target;\n"
+            + "        return true;\n"
+            + "    }\n\n"
+            + "    // Unpacks a comma-terminated list of numbers (array initializers would bloat <clinit>).\n"
+            + "    private static int[] decode(String packed) {\n"
+            + "        String[] parts = packed.split(\",\");\n"
+            + "        int[] values = new int[packed.isEmpty() ? 0 : parts.length];\n"
+            + "        for (int n = 0; n < values.length; n++) {\n"
+            + "            values[n] = Integer.parseInt(parts[n]);\n"
+            + "        }\n"
+            + "        return values;\n"
+            + "    }\n"
+            + methods
+            + "}\n";
+    }
+
+    private static void emitBlock(StringBuilder out, ProgramCounter pc, int[] image, int start, int length) {
+        out.append("\n    private boolean b").append(start).append("() {\n");
+        out.append("        int ea, v;\n");
+        for (int n = 0; n < length; n++) {
+            int address = start + n;
+            int word = image[address];
+            int opcode = CPUExe.opcode(word);
+            int r = CPUExe.r(word);
+            int ix = CPUExe.ix(word);
+            int field = CPUExe.address(word);
+            String ea = effectiveAddress(ix, CPUExe.i(word), field);
+            int count = n + 1;
+
+            if (BlockTranslator.accessesData(word)) {
+                line(out, "rt.at(" + address + ");");
+            }
+            switch (opcode) {
+                case LDR:
+                    line(out, "g" + r + " = (short) rt.readForRegister(" + ea + ");");
+                    break;
+                case STR:
+                case STX:
+                    line(out, "if (rt.writeOperand(" + ea + ", " + (opcode == STR ? "g" + r : "x" + ix) + ")) return modified("
+                        + address + ", " + count + ");");
+                    break;
+                case LDA:
+                    line(out, "g" + r + " = (short) (" + ea + ");");
+                    break;
+                case LDX:
+                    line(out, "x" + ix + " = (short) rt.readOperand(" + ea + ");");
+                    break;
+                case AMR:
+                    line(out, "g" + r + " = (short) (rt.readOperand(" + ea + ") + g" + r + ");");
+                    break;
+                case SMR:
+                    line(out, "g" + r + " = (short) rt.subtractMemory(g" + r + ", rt.readOperand(" + ea + "));");
+                    break;
+                case AIR:
+                    line(out, "g" + r + " = (short) (g" + r + " + " + field + ");");
+                    break;
+                case SIR:
+                    // The immediate is computed like an effective address, before the register is read.
+                    line(out, "v = " + ea + ";");
+                    line(out, "g" + r + " = (short) rt.subtractImmediate(g" + r + ", v);");
+                    break;
+                case TRR:
+                    line(out, "rt.setEqual(g" + r + " == g" + ix + ");");
+                    break;
+                case ORR:
+                    line(out, "g" + r + " = (short) (g" + r + " | g" + ix + ");");
+                    break;
+                case NOT:
+                    line(out, "g" + r + " = (short) ~g" + r + ";");
+                    break;
+                default:
+                    emitTransfer(out, pc, opcode, r, field, ea, address, count);
+                    out.append("    }\n");
+                    return;
+            }
+        }
+        line(out, "executed += " + length + ";");
+        emitFallThrough(out, pc, start + length - 1);
+        line(out, "return true;");
+        out.append("    }\n");
+    }
+
+    private static String effectiveAddress(int ix, int i, int field) {
+        String base = ix == 0 ? Integer.toString(field) : field + " + x" + ix;
+        return i == 1 ? "rt.readIndirect(" + base + ")" : base;
+    }
+
+    private static void line(StringBuilder out, String statement) {
+        out.append("        ").append(statement).append('\n');
+    }
+
+    // Sets pc to the instruction after the given one; a LOC redirect goes through the runtime so
+    // it is reported exactly as the interpreter reports it.
+    private static void emitFallThrough(StringBuilder out, ProgramCounter pc, int address) {
+        int next = (address + 1) & 0xFFF;
+        if (pc.hasLocDirective(next)) {
+            line(out, "rt.advance(" + address + ");");
+            line(out, "pc = rt.getPC();");
+        } else {
+            line(out, "pc = " + next + ";");
+        }
+    }
+
+    private static void emitTransfer(StringBuilder out, ProgramCounter pc, int opcode, int r, int field, String ea,
+                                     int address, int count) {
+        int next = (address + 1) & 0xFFF;
+        boolean redirected = pc.hasLocDirective(next);
+        String nextPC = Integer.toString(next);
+        if (redirected) {
+            // Report the redirect at fetch time, as the interpreter does.
+            line(out, "rt.advance(" + address + ");");
+            nextPC = "rt.getPC()";
+        }
+        line(out, "executed += " + count + ";");
+
+        // Work out the register value and effective address in the interpreter's order.
+        if (opcode == SOB) {
+            line(out, "v = g" + r + " - 1;");
+            line(out, "g" + r + " = (short) v;");
+        }
+        if (opcode != RFS) {
+            line(out, "ea = " + ea + ";");
+        }
+
+        switch (opcode) {
+            case JZ:
+            case JNE:
+            case JCC: {
+                String condition = opcode == JZ ? "g" + r + " == 0" : opcode == JNE ? "g" + r + " != 0" : "rt.conditionMet(" + r + ")";
+                line(out, "if (" + condition + ") return jump(ea, " + nextPC + ");");
+                line(out, "pc = " + nextPC + ";");
+                line(out, "return true;");
+                break;
+            }
+            case JMA:
+                line(out, "return jump(ea, " + nextPC + ");");
+                break;
+            case JSR:
+                // Save the return address (the PC after fetch) in GPR3.
+                line(out, "g3 = (short) " + nextPC + ";");
+                line(out, "return jump(ea, " + nextPC + ");");
+                break;
+            case RFS:
+                line(out, "g0 = (short) " + field + ";");
+                line(out, "return jump(g3, " + nextPC + ");");
+                break;
+            default: {
+                // SOB and JGE skip one more word when the branch is not taken.
+                line(out, "if (" + (opcode == SOB ? "v > 0" : "g" + r + " >= 0") + ") return jump(ea, " + nextPC + ");");
+                if (redirected) {
+                    line(out, "rt.incrementPC();");
+                    line(out, "pc = rt.getPC();");
+                } else if (pc.hasLocDirective((next + 1) & 0xFFF)) {
+                    line(out, "rt.setPC(" + next + ");");
+                    line(out, "rt.incrementPC();");
+                    line(out, "pc = rt.getPC();");
+                } else {
+                    line(out, "pc = " + ((next + 1) & 0xFFF) + ";");
+                }
+                line(out, "return true;");
+                break;
+            }
+        }
+    }
+
+    // ---- Compilation and loading ----
+
+    private static boolean compileSource(File directory, String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            return false;
+        }
+        Files.createDirectories(directory.toPath());
+        File sourceFile = new File(directory, className + ".java");
+        Files.writeString(sourceFile.toPath(), source);
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int result = compiler.run(null, null, errors, "-nowarn", "-g:none",
+            "-cp", System.getProperty("java.class.path"), "-d", directory.getPath(), sourceFile.getPath());
+        if (result != 0) {
+            System.err.println("AOT compilation of " + className + " failed:\n" + errors);
+            return false;
+        }
+        return true;
+    }
+
+    private static Class<? extends CompiledProgram> load(File directory, String className) throws IOException {
+        URLClassLoader loader = new URLClassLoader(new URL[] { directory.toURI().toURL() }, CompiledProgram.class.getClassLoader());
+        try {
+            return loader.loadClass(className).asSubclass(CompiledProgram.class);
+        } catch (ClassNotFoundException | LinkageError | ClassCastException e) {
+            // A stale cache entry built against other classes; the caller falls back to the interpreter.
+            System.err.println("Could not load cached AOT class " + className + ": " + e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package components;
+
+/*
+ * AotEngine: Runs a program that the AotCompiler translated ahead of time. Whenever the PC is at
+ * the leader of a live translated block, control goes to the CompiledProgram, which keeps running
+ * translated blocks until it reaches something it does not cover; everything else (indirect jumps
+ * to non-leaders, HLT/Data words, I/O and the other untranslated instructions) is executed by the
+ * predecoded interpreter one instruction at a time until a live leader is reached again.
+ *
+ * A block is only made live if the words in memory still match the words it was translated from.
+ * The engine listens to Memory: a store into a translated block kills that block for the rest of
+ * the run and makes the running code exit right after the store, so self-modifying code falls back
+ * to the interpreter and stays exact.
+ *
+ * Instruction fetches go through the CPU's instruction cache, if it has one: the interpreted ones
+ * one by one, and the instructions of a translated block all at once when the block returns.
+ *
+ * AotEngine(Memory memory, ProgramCounter pc, CPUExe cpuExe, DecodeCache decodeCache,
+ * GeneralPurposeRegisters gpr, IndexRegisters ixr, CompiledProgram program): Creates the engine
+ * for one CPU and one translated program.
+ *
+ * run(): Executes the Fetch-Decode-Execute cycle until a HLT instruction is encountered.
+ *
+ * run(long maxInstructions): Like run(), but stops once the given number of instructions has been
+ * executed. A translated block is only entered if all of it fits under the limit (otherwise its
+ * instructions are interpreted), so the run stops exactly at the limit.
+ * - @param maxInstructions: The instruction limit.
+ * - @return boolean: True if the program halted, false if the limit was reached first.
+ *
+ * getProgram(): Returns the translated program the engine runs.
+ * - @return CompiledProgram: The program.
+ *
+ * getInterpretedCount(), getCompiledCount(): Number of instructions executed by each tier. As in
+ * the interpreter, an instruction that faults (throws) counts as executed.
+ * - @return long: The instruction count.
+ *
+ * getBlocksInvalidated(): Number of translated blocks killed by stores.
+ * - @return int: The block count.
+ */
+
+import java.util.Arrays;
+
+public class AotEngine implements MemoryListener {
+    private final Memory memory;
+    private final ProgramCounter pc;
+    private final DecodeCache decodeCache;
+    private final CompiledProgram program;
+    private final BlockRuntime runtime;
+
+    private final boolean[] live;      // Indexed by leader address
+    private final int[] blockLength;   // Indexed by leader address
+    private final int[] owner;         // Leader of the live block covering each word, or -1
+
+    private long interpretedCount;
+    private long compiledCount;
+    private int blocksInvalidated;
+
+    public AotEngine(Memory memory, ProgramCounter pc, CPUExe cpuExe, DecodeCache decodeCache,
+                     GeneralPurposeRegisters gpr, IndexRegisters ixr, CompiledProgram program) {
+        int size = memory.getSize();
+        this.memory = memory;
+        this.pc = pc;
+        this.decodeCache = decodeCache;
+        this.program = program;
+        this.runtime = new BlockRuntime(cpuExe, gpr, ixr, pc, decodeCache);
+        this.live = new boolean[size];
+        this.blockLength = new int[size];
+        this.owner = new int[size];
+        Arrays.fill(owner, -1);
+        for (int leader : program.blockLeaders()) {
+            activate(leader, program.blockWords(leader));
+        }
+        memory.addListener(this);
+    }
+
+    private void activate(int leader, int[] words) {
+        if (words.length == 0 || leader + words.length > live.length) {
+            return;
+        }
+        int[] current = new int[words.length];
+        memory.readBlock(leader, current, 0, words.length);
+        if (!Arrays.equals(current, words)) {
+            return;  // Memory no longer holds what was translated
+        }
+        live[leader] = true;
+        blockLength[leader] = words.length;
+        Arrays.fill(owner, leader, leader + words.length, leader);
+    }
+
+    public void run() {
+        run(Long.MAX_VALUE);
+    }
+
+    public boolean run(long maxInstructions) {
+        long limit = interpretedCount + compiledCount + maxInstructions;
+        if (limit < 0) {
+            limit = Long.MAX_VALUE;  // Overflowed
+        }
+        boolean halt = false;
+        while (!halt) {
+            long remaining = limit - interpretedCount - compiledCount;
+            if (remaining <= 0) {
+                return false;
+            }
+            int address = pc.getPC();
+
+            // Resolve LOC directives exactly as CPU.fetch does.
+            if (pc.hasLocDirective(address)) {
+                pc.setPC(pc.getLocTarget(address));
+                continue;
+            }
+
+            if (address < live.length && live[address]) {
+                long executed;
+                try {
+                    executed = program.execute(runtime, live, remaining);
+                } catch (RuntimeException e) {
+                    compiledCount += program.getExecuted();  // Up to and including the faulting instruction
+                    throw e;
+                }
+                compiledCount += executed;
+                if (executed > 0) {
+                    continue;
+                }
+            }
+
+            // Interpret one instruction (counted before it runs, so one that faults counts).
+            pc.incrementPC();
+            interpretedCount++;
+            halt = decodeCache.executeOne(address);
+        }
+        return true;
+    }
+
+    public CompiledProgram getProgram() {
+        return program;
+    }
+
+    public long getInterpretedCount() {
+        return interpretedCount;
+    }
+
+    public long getCompiledCount() {
+        return compiledCount;
+    }
+
+    public int getBlocksInvalidated() {
+        return blocksInvalidated;
+    }
+
+    @Override
+    public void wordStored(int address) {
+        int leader = owner[address];
+        if (leader < 0) {
+            return;
+        }
+        live[leader] = false;
+        Arrays.fill(owner, leader, leader + blockLength[leader], -1);
+        blocksInvalidated++;
+        runtime.codeModified();
+    }
+
+    @Override
+    public void memoryReset() {
+        Arrays.fill(live, false);
+        Arrays.fill(owner, -1);
+    }
+}
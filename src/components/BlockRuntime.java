@@ -0,0 +1,135 @@
+package components;
+
+/*
+ * BlockRuntime: The calls translated code (a CompiledBlock or a CompiledProgram) makes back into the
+ * machine. It is public because ahead-of-time translated programs are loaded by their own class
+ * loader; instances are only created inside this package. Translated blocks keep the
+ * GPRs and IXRs in JVM locals, read them through getGPR/getIXR on entry and write them back through
+ * setGPR/setIXR before they exit; every memory access and condition code update is delegated to the
+ * same CPUExe helpers the interpreter uses, so both tiers have identical side effects.
+ * 
+ * BlockRuntime(CPUExe cpuExe, GeneralPurposeRegisters gpr, IndexRegisters ixr, ProgramCounter pc,
+ * DecodeCache decodeCache): Creates the bridge for one CPU.
+ * 
+ * getGPR(int index), setGPR(int index, int value), getIXR(int index), setIXR(int index, int value):
+ * Read and write registers; values are truncated to 16 bits on write.
+ * 
+ * readIndirect(int address), readForRegister(int ea), readOperand(int ea): Memory reads for
+ * indirect addressing, LDR and AMR/SMR/LDX respectively.
+ * 
+ * writeOperand(int ea, int value): Performs an STR/STX store.
+ * - @return boolean: True if the store overwrote translated code, in which case the block must exit
+ *   right after the store and let the interpreter continue.
+ * 
+ * subtractMemory(int regValue, int value), subtractImmediate(int regValue, int immed), setEqual(boolean),
+ * conditionMet(int index): Arithmetic with condition code side effects, matching CPUExe.
+ * 
+ * getPC(), setPC(int value), incrementPC(): Program counter access.
+ * 
+ * advance(int address): Moves the PC past the instruction at the given address, exactly as fetch
+ * does (including LOC directive redirects).
+ * 
+ * at(int address): Names the instruction whose data accesses follow, for the caches' miss profiles
+ * (see CacheHierarchy.setInstructionAddress).
+ * 
+ * fetched(int leader, int count): Reports that count instructions of the block at leader ran, so
+ * their fetches reach the instruction cache (see DecodeCache.fetched).
+ * 
+ * codeModified(): Called by the TieredEngine or AotEngine when a store hits translated code.
+ */
+
+public final class BlockRuntime {
+    private final CPUExe cpuExe;
+    private final GeneralPurposeRegisters gpr;
+    private final IndexRegisters ixr;
+    private final ProgramCounter pc;
+    private final DecodeCache decodeCache;
+    private boolean codeModified;
+
+    BlockRuntime(CPUExe cpuExe, GeneralPurposeRegisters gpr, IndexRegisters ixr, ProgramCounter pc, DecodeCache decodeCache) {
+        this.cpuExe = cpuExe;
+        this.gpr = gpr;
+        this.ixr = ixr;
+        this.pc = pc;
+        this.decodeCache = decodeCache;
+    }
+
+    public int getGPR(int index) {
+        return gpr.getGPR(index);
+    }
+
+    public void setGPR(int index, int value) {
+        gpr.setGPR(index, (short) value);
+    }
+
+    public int getIXR(int index) {
+        return ixr.getIndexRegister(index);
+    }
+
+    public void setIXR(int index, int value) {
+        ixr.setIndexRegister(index, (short) value);
+    }
+
+    public int readIndirect(int address) {
+        return cpuExe.readIndirect(address);
+    }
+
+    public int readForRegister(int ea) {
+        return cpuExe.readForRegister(ea);
+    }
+
+    public int readOperand(int ea) {
+        return cpuExe.readOperand(ea);
+    }
+
+    public boolean writeOperand(int ea, int value) {
+        codeModified = false;
+        cpuExe.writeOperand(ea, value);
+        return codeModified;
+    }
+
+    public int subtractMemory(int regValue, int value) {
+        return cpuExe.subtractMemory(regValue, value);
+    }
+
+    public int subtractImmediate(int regValue, int immed) {
+        return cpuExe.subtractImmediate(regValue, immed);
+    }
+
+    public void setEqual(boolean equal) {
+        cpuExe.setEqual(equal);
+    }
+
+    public boolean conditionMet(int index) {
+        return cpuExe.conditionMet(index);
+    }
+
+    public int getPC() {
+        return pc.getPC();
+    }
+
+    public void setPC(int value) {
+        pc.setPC(value);
+    }
+
+    public void incrementPC() {
+        pc.incrementPC();
+    }
+
+    public void advance(int address) {
+        pc.setPC(address);
+        pc.incrementPC();
+    }
+
+    public void at(int address) {
+        decodeCache.executing(address);
+    }
+
+    public void fetched(int leader, int count) {
+        decodeCache.fetched(leader, count);
+    }
+
+    void codeModified() {
+        codeModified = true;
+    }
+}
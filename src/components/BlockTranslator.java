@@ -0,0 +1,458 @@
+package components;
+
+/*
+ * BlockTranslator: Translates a basic block of C6461 instructions into a JVM hidden class that
+ * implements CompiledBlock. A block is the straight-line run of instructions starting at a leader
+ * address and ending at the first transfer instruction (JZ, JNE, JCC, JMA, JSR, RFS, SOB, JGE).
+ * It also ends before any instruction the translator leaves to the interpreter (HLT/Data words,
+ * MLT, DVD, AND, I/O, unknown opcodes, IX = 3) and before an address that has a LOC directive.
+ *
+ * The generated code keeps GPR0-3 and IXR0-2 in JVM locals, loads the ones the block uses on
+ * entry and writes back the ones it changes before every exit. All memory accesses and condition
+ * code updates go through BlockRuntime, which delegates to the interpreter's CPUExe helpers. After
+ * every STR/STX the block checks whether the store overwrote translated code; if so it writes the
+ * registers back, sets the PC to the next instruction and returns, so the interpreter continues
+ * exactly where the block stopped.
+ *
+ * BlockTranslator(Memory memory, ProgramCounter pc): Creates a translator reading from the given memory.
+ * - @param memory: The memory holding the program.
+ * - @param pc: The program counter, consulted for LOC directives.
+ *
+ * blockLength(int start): Finds how many instructions the block starting at an address contains.
+ * - @param start: The leader address.
+ * - @return int: The number of instructions in the block, or 0 if the first one is not translatable.
+ *
+ * translate(int start, int length): Generates and loads the hidden class for a block.
+ * - @param start: The leader address.
+ * - @param length: The block length returned by blockLength.
+ * - @return CompiledBlock: A new instance of the generated class.
+ *
+ * isTerminator(int opcode): Checks whether an opcode ends a basic block.
+ * - @param opcode: The 6-bit opcode.
+ * - @return boolean: True for the transfer instructions.
+ *
+ * isTranslatable(int word): Checks whether an instruction word can be translated at all.
+ * - @param word: The 16-bit instruction word.
+ * - @return boolean: False for instructions left to the interpreter.
+ *
+ * accessesData(int word): Checks whether a translated instruction reads or writes data memory (a
+ * load, a store or an indirect address); translated code names such instructions to the caches
+ * before running them (see BlockRuntime.at).
+ * - @param word: The 16-bit instruction word.
+ * - @return boolean: True if it does.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+class BlockTranslator {
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    private static final String RUNTIME = "components/BlockRuntime";
+    private static final String CLASS_NAME = "components/TranslatedBlock";
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Opcodes.
+    private static final int LDR = 0b000001, STR = 0b000010, LDA = 0b000011, LDX = 0b101001, STX = 0b101010;
+    private static final int JZ = 0b001010, JNE = 0b001011, JCC = 0b001100, JMA = 0b001101, JSR = 0b001110;
+    private static final int RFS = 0b001111, SOB = 0b010000, JGE = 0b010001;
+    private static final int AMR = 0b000100, SMR = 0b000101, AIR = 0b000110, SIR = 0b000111;
+    private static final int TRR = 0b111010, ORR = 0b111100, NOT = 0b111101;
+
+    // Local variable slots of the generated execute method.
+    private static final int RT = 1;
+    private static final int GPR_BASE = 2;   // GPR0-3 in slots 2-5
+    private static final int IXR_BASE = 6;   // IXR0-2 in slots 6-8
+    private static final int EA = 9;
+    private static final int VALUE = 10;
+    private static final int MAX_LOCALS = 11;
+    private static final int MAX_STACK = 8;
+
+    private static final boolean[] TRANSLATABLE = new boolean[64];
+    private static final boolean[] TERMINATOR = new boolean[64];
+    private static final boolean[] USES_EA = new boolean[64];
+
+    static {
+        for (int op : new int[] { LDR, STR, LDA, LDX, STX, JZ, JNE, JCC, JMA, JSR, RFS, SOB, JGE, AMR, SMR, AIR, SIR, TRR, ORR, NOT }) {
+            TRANSLATABLE[op] = true;
+        }
+        for (int op : new int[] { JZ, JNE, JCC, JMA, JSR, RFS, SOB, JGE }) {
+            TERMINATOR[op] = true;
+        }
+        for (int op : new int[] { LDR, STR, LDA, LDX, STX, JZ, JNE, JCC, JMA, JSR, SOB, JGE, AMR, SMR, SIR }) {
+            USES_EA[op] = true;
+        }
+    }
+
+    private final Memory memory;
+    private final ProgramCounter pc;
+
+    BlockTranslator(Memory memory, ProgramCounter pc) {
+        this.memory = memory;
+        this.pc = pc;
+    }
+
+    static boolean isTerminator(int opcode) {
+        return TERMINATOR[opcode];
+    }
+
+    static boolean isTranslatable(int word) {
+        int opcode = CPUExe.opcode(word);
+        return TRANSLATABLE[opcode] && !(USES_EA[opcode] && CPUExe.ix(word) == 3);
+    }
+
+    static boolean accessesData(int word) {
+        int opcode = CPUExe.opcode(word);
+        return opcode == LDR || opcode == STR || opcode == LDX || opcode == STX || opcode == AMR || opcode == SMR
+            || (USES_EA[opcode] && CPUExe.i(word) == 1);
+    }
+
+    int blockLength(int start) {
+        int length = 0;
+        int address = start;
+        while (true) {
+            int word = memory.loadMemoryValue(address);
+            if (!isTranslatable(word)) {
+                return length;
+            }
+            int opcode = CPUExe.opcode(word);
+            length++;
+            int next = address + 1;
+            if (TERMINATOR[opcode] || length == MAX_BLOCK_LENGTH || next >= memory.getSize()
+                    || next > 0xFFF || pc.hasLocDirective(next)) {
+                return length;
+            }
+            address = next;
+        }
+    }
+
+    CompiledBlock translate(int start, int length) {
+        int[] words = new int[length];
+        memory.readBlock(start, words, 0, length);
+
+        boolean[] used = new boolean[7];     // GPR0-3, IXR0-2
+        boolean[] written = new boolean[7];
+        for (int word : words) {
+            markRegisters(word, used, written);
+        }
+
+        BytecodeWriter w = new BytecodeWriter(CLASS_NAME, "components/CompiledBlock");
+        for (int slot = 0; slot < 7; slot++) {
+            if (used[slot]) {
+                w.aload(RT);
+                w.iconst(slot < 4 ? slot : slot - 4);
+                w.invokeVirtual(RUNTIME, slot < 4 ? "getGPR" : "getIXR", "(I)I");
+                w.istore(GPR_BASE + slot);
+            }
+        }
+
+        // Early exits after stores that overwrote translated code: {label, address, executed}.
+        int[][] storeExits = new int[length][];
+        boolean endsWithTransfer = false;
+
+        for (int n = 0; n < length; n++) {
+            int address = start + n;
+            int word = words[n];
+            int opcode = CPUExe.opcode(word);
+            int r = CPUExe.r(word);
+            int ix = CPUExe.ix(word);
+            int i = CPUExe.i(word);
+            int field = CPUExe.address(word);
+            int executed = n + 1;
+
+            if (accessesData(word)) {
+                w.aload(RT);
+                w.iconst(address);
+                w.invokeVirtual(RUNTIME, "at", "(I)V");
+            }
+            switch (opcode) {
+                case LDR:
+                    w.aload(RT);
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.invokeVirtual(RUNTIME, "readForRegister", "(I)I");
+                    storeGPR(w, r);
+                    break;
+                case STR:
+                case STX:
+                    w.aload(RT);
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.iload(opcode == STR ? GPR_BASE + r : IXR_BASE + ix);
+                    w.invokeVirtual(RUNTIME, "writeOperand", "(II)Z");
+                    storeExits[n] = new int[] { w.newLabel(), address, executed };
+                    w.branch(BytecodeWriter.IFNE, storeExits[n][0]);
+                    break;
+                case LDA:
+                    emitEffectiveAddress(w, ix, i, field);
+                    storeGPR(w, r);
+                    break;
+                case LDX:
+                    w.aload(RT);
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.invokeVirtual(RUNTIME, "readOperand", "(I)I");
+                    w.op(BytecodeWriter.I2S);
+                    w.istore(IXR_BASE + ix);
+                    break;
+                case AMR:
+                    w.aload(RT);
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.invokeVirtual(RUNTIME, "readOperand", "(I)I");
+                    w.iload(GPR_BASE + r);
+                    w.op(BytecodeWriter.IADD);
+                    storeGPR(w, r);
+                    break;
+                case SMR:
+                    w.aload(RT);
+                    w.iload(GPR_BASE + r);
+                    w.aload(RT);
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.invokeVirtual(RUNTIME, "readOperand", "(I)I");
+                    w.invokeVirtual(RUNTIME, "subtractMemory", "(II)I");
+                    storeGPR(w, r);
+                    break;
+                case AIR:
+                    w.iload(GPR_BASE + r);
+                    w.iconst(field);
+                    w.op(BytecodeWriter.IADD);
+                    storeGPR(w, r);
+                    break;
+                case SIR:
+                    // The immediate is computed like an effective address, before the register is read.
+                    emitEffectiveAddress(w, ix, i, field);
+                    w.istore(VALUE);
+                    w.aload(RT);
+                    w.iload(GPR_BASE + r);
+                    w.iload(VALUE);
+                    w.invokeVirtual(RUNTIME, "subtractImmediate", "(II)I");
+                    storeGPR(w, r);
+                    break;
+                case TRR: {
+                    int notEqual = w.newLabel();
+                    int done = w.newLabel();
+                    w.aload(RT);
+                    w.iload(GPR_BASE + r);
+                    w.iload(GPR_BASE + ix);
+                    w.branch(BytecodeWriter.IF_ICMPNE, notEqual);
+                    w.iconst(1);
+                    w.branch(BytecodeWriter.GOTO, done);
+                    w.bind(notEqual);
+                    w.iconst(0);
+                    w.bind(done);
+                    w.invokeVirtual(RUNTIME, "setEqual", "(Z)V");
+                    break;
+                }
+                case ORR:
+                    w.iload(GPR_BASE + r);
+                    w.iload(GPR_BASE + ix);
+                    w.op(BytecodeWriter.IOR);
+                    storeGPR(w, r);
+                    break;
+                case NOT:
+                    w.iload(GPR_BASE + r);
+                    w.iconst(-1);
+                    w.op(BytecodeWriter.IXOR);
+                    storeGPR(w, r);
+                    break;
+                default:
+                    emitTransfer(w, opcode, r, ix, i, field, address, executed, written);
+                    endsWithTransfer = true;
+                    break;
+            }
+        }
+
+        if (!endsWithTransfer) {
+            emitExit(w, start + length - 1, length, written);
+        }
+        for (int[] exit : storeExits) {
+            if (exit != null) {
+                w.bind(exit[0]);
+                emitExit(w, exit[1], exit[2], written);
+            }
+        }
+
+        byte[] classFile = w.toByteArray("execute", "(Lcomponents/BlockRuntime;)I", MAX_STACK, MAX_LOCALS);
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(classFile, true);
+            return (CompiledBlock) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load translated block at " + start, e);
+        }
+    }
+
+    // Leaves the effective address (or SIR immediate) on the operand stack.
+    private static void emitEffectiveAddress(BytecodeWriter w, int ix, int i, int field) {
+        if (i == 1) {
+            w.aload(RT);
+        }
+        w.iconst(field);
+        if (ix != 0) {
+            w.iload(IXR_BASE + ix);
+            w.op(BytecodeWriter.IADD);
+        }
+        if (i == 1) {
+            w.invokeVirtual(RUNTIME, "readIndirect", "(I)I");
+        }
+    }
+
+    private static void storeGPR(BytecodeWriter w, int r) {
+        w.op(BytecodeWriter.I2S);
+        w.istore(GPR_BASE + r);
+    }
+
+    private static void emitTransfer(BytecodeWriter w, int opcode, int r, int ix, int i, int field,
+                                     int address, int executed, boolean[] written) {
+        int fallThrough = w.newLabel();
+
+        // Work out the register value and effective address in the interpreter's order.
+        if (opcode == SOB) {
+            w.iload(GPR_BASE + r);
+            w.iconst(1);
+            w.op(BytecodeWriter.ISUB);
+            w.op(BytecodeWriter.DUP);
+            w.istore(VALUE);
+            storeGPR(w, r);
+        }
+        if (opcode != RFS) {
+            emitEffectiveAddress(w, ix, i, field);
+            w.istore(EA);
+        }
+
+        writeBack(w, written);
+        w.aload(RT);
+        w.iconst(address);
+        w.invokeVirtual(RUNTIME, "advance", "(I)V");
+
+        switch (opcode) {
+            case JZ:
+                w.iload(GPR_BASE + r);
+                w.branch(BytecodeWriter.IFNE, fallThrough);
+                break;
+            case JNE:
+                w.iload(GPR_BASE + r);
+                w.branch(BytecodeWriter.IFEQ, fallThrough);
+                break;
+            case JCC:
+                w.aload(RT);
+                w.iconst(r);
+                w.invokeVirtual(RUNTIME, "conditionMet", "(I)Z");
+                w.branch(BytecodeWriter.IFEQ, fallThrough);
+                break;
+            case JSR:
+                // Save the return address (the PC after fetch) in GPR3.
+                w.aload(RT);
+                w.iconst(3);
+                w.aload(RT);
+                w.invokeVirtual(RUNTIME, "getPC", "()I");
+                w.invokeVirtual(RUNTIME, "setGPR", "(II)V");
+                break;
+            case RFS:
+                w.aload(RT);
+                w.iconst(0);
+                w.iconst(field);
+                w.invokeVirtual(RUNTIME, "setGPR", "(II)V");
+                w.aload(RT);
+                w.iload(GPR_BASE + 3);
+                w.invokeVirtual(RUNTIME, "setPC", "(I)V");
+                w.iconst(executed);
+                w.op(BytecodeWriter.IRETURN);
+                return;
+            case SOB:
+            case JGE: {
+                // When the branch is not taken these instructions skip one more word.
+                int taken = w.newLabel();
+                if (opcode == SOB) {
+                    w.iload(VALUE);
+                    w.branch(BytecodeWriter.IFGT, taken);
+                } else {
+                    w.iload(GPR_BASE + r);
+                    w.branch(BytecodeWriter.IFGE, taken);
+                }
+                w.aload(RT);
+                w.invokeVirtual(RUNTIME, "incrementPC", "()V");
+                w.iconst(executed);
+                w.op(BytecodeWriter.IRETURN);
+                w.bind(taken);
+                break;
+            }
+            default:
+                break;  // JMA always jumps
+        }
+
+        w.aload(RT);
+        w.iload(EA);
+        w.invokeVirtual(RUNTIME, "setPC", "(I)V");
+        w.bind(fallThrough);
+        w.iconst(executed);
+        w.op(BytecodeWriter.IRETURN);
+    }
+
+    // Writes the registers back, moves the PC past the given instruction and returns.
+    private static void emitExit(BytecodeWriter w, int address, int executed, boolean[] written) {
+        writeBack(w, written);
+        w.aload(RT);
+        w.iconst(address);
+        w.invokeVirtual(RUNTIME, "advance", "(I)V");
+        w.iconst(executed);
+        w.op(BytecodeWriter.IRETURN);
+    }
+
+    private static void writeBack(BytecodeWriter w, boolean[] written) {
+        for (int slot = 0; slot < 7; slot++) {
+            if (written[slot]) {
+                w.aload(RT);
+                w.iconst(slot < 4 ? slot : slot - 4);
+                w.iload(GPR_BASE + slot);
+                w.invokeVirtual(RUNTIME, slot < 4 ? "setGPR" : "setIXR", "(II)V");
+            }
+        }
+    }
+
+    // Records which register slots (GPR0-3 = 0-3, IXR0-2 = 4-6) an instruction reads or writes.
+    private static void markRegisters(int word, boolean[] used, boolean[] written) {
+        int opcode = CPUExe.opcode(word);
+        int r = CPUExe.r(word);
+        int ix = CPUExe.ix(word);
+        if (USES_EA[opcode] && ix != 0) {
+            used[4 + ix] = true;
+        }
+        switch (opcode) {
+            case LDR:
+            case LDA:
+            case AMR:
+            case SMR:
+            case AIR:
+            case SIR:
+            case SOB:
+            case NOT:
+                used[r] = true;
+                written[r] = true;
+                break;
+            case ORR:
+                used[r] = true;
+                written[r] = true;
+                used[ix] = true;
+                break;
+            case TRR:
+                used[r] = true;
+                used[ix] = true;
+                break;
+            case STR:
+            case JZ:
+            case JNE:
+            case JGE:
+                used[r] = true;
+                break;
+            case LDX:
+                used[4 + ix] = true;
+                written[4 + ix] = true;
+                break;
+            case STX:
+                used[4 + ix] = true;
+                break;
+            case RFS:
+                used[3] = true;
+                break;
+            default:
+                break;
+        }
+    }
+}
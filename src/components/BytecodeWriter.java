@@ -0,0 +1,295 @@
+package components;
+
+/*
+ * BytecodeWriter: A minimal JVM class file writer used by the BlockTranslator. It builds one public
+ * final class with a no-argument constructor, one implemented interface and a single instance
+ * method, and emits it as a version 49 class file so no StackMapTable has to be computed (the JVM
+ * verifies such classes by type inference).
+ *
+ * BytecodeWriter(String className, String interfaceName): Starts a class that implements the given
+ * interface. Names use the internal form (e.g. "components/CompiledBlock").
+ * - @param className: The internal name of the class to build.
+ * - @param interfaceName: The internal name of the interface it implements.
+ *
+ * iload(int local), istore(int local), aload(int local): Emit local variable instructions.
+ * - @param local: The local variable slot.
+ *
+ * iconst(int value): Pushes an int constant using the shortest encoding.
+ * - @param value: The constant to push.
+ *
+ * op(int opcode): Emits an instruction without operands (iadd, i2s, ireturn, ...).
+ * - @param opcode: The JVM opcode.
+ *
+ * invokeVirtual(String owner, String name, String descriptor): Emits a virtual method call.
+ * - @param owner: The internal name of the class declaring the method.
+ * - @param name: The method name.
+ * - @param descriptor: The method descriptor.
+ *
+ * newLabel(): Creates an unbound branch label.
+ * - @return int: The label handle.
+ *
+ * branch(int opcode, int label): Emits a branch (if<cond>, if_icmp<cond> or goto) to a label.
+ * - @param opcode: The branch opcode.
+ * - @param label: The target label, bound before or after the branch.
+ *
+ * bind(int label): Binds a label to the current code position.
+ * - @param label: The label to bind.
+ *
+ * toByteArray(String methodName, String descriptor, int maxStack, int maxLocals): Finishes the
+ * method emitted so far and returns the complete class file.
+ * - @param methodName: The name of the implemented method.
+ * - @param descriptor: Its descriptor.
+ * - @param maxStack: The maximum operand stack depth of the method.
+ * - @param maxLocals: The number of local variable slots used by the method.
+ * - @return byte[]: The class file bytes.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class BytecodeWriter {
+    // JVM opcodes used by the translator.
+    static final int ICONST_M1 = 0x02;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ISTORE = 0x36;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IAND = 0x7e;
+    static final int IOR = 0x80;
+    static final int IXOR = 0x82;
+    static final int I2S = 0x93;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPNE = 0xa0;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+
+    private final String className;
+    private final String interfaceName;
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;  // Slot 0 of the constant pool is unused
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Integer> labelPositions = new ArrayList<>();
+    private final List<int[]> fixups = new ArrayList<>();  // {branch position, label}
+
+    BytecodeWriter(String className, String interfaceName) {
+        this.className = className;
+        this.interfaceName = interfaceName;
+    }
+
+    // ---- Constant pool ----
+
+    private int utf8(String value) {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            DataOutputStream out = new DataOutputStream(constantPool);
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = constantCount++;
+            constants.put("U" + value, index);
+        }
+        return index;
+    }
+
+    private int classRef(String name) {
+        Integer index = constants.get("C" + name);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            constantPool.write(7);
+            writeShort(constantPool, nameIndex);
+            index = constantCount++;
+            constants.put("C" + name, index);
+        }
+        return index;
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            constantPool.write(12);  // NameAndType
+            writeShort(constantPool, nameIndex);
+            writeShort(constantPool, descriptorIndex);
+            int nameAndType = constantCount++;
+            constantPool.write(10);  // Methodref
+            writeShort(constantPool, ownerIndex);
+            writeShort(constantPool, nameAndType);
+            index = constantCount++;
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    private int intConstant(int value) {
+        Integer index = constants.get("I" + value);
+        if (index == null) {
+            constantPool.write(3);
+            writeInt(constantPool, value);
+            index = constantCount++;
+            constants.put("I" + value, index);
+        }
+        return index;
+    }
+
+    // ---- Code ----
+
+    void iload(int local) {
+        localOp(ILOAD, 0x1a, local);
+    }
+
+    void istore(int local) {
+        localOp(ISTORE, 0x3b, local);
+    }
+
+    void aload(int local) {
+        localOp(ALOAD, 0x2a, local);
+    }
+
+    private void localOp(int opcode, int shortForm, int local) {
+        if (local <= 3) {
+            code.write(shortForm + local);
+        } else {
+            code.write(opcode);
+            code.write(local);
+        }
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            code.write(ICONST_M1 + 1 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.write(SIPUSH);
+            writeShort(code, value);
+        } else {
+            code.write(LDC_W);
+            writeShort(code, intConstant(value));
+        }
+    }
+
+    void op(int opcode) {
+        code.write(opcode);
+    }
+
+    void invokeVirtual(String owner, String name, String descriptor) {
+        code.write(INVOKEVIRTUAL);
+        writeShort(code, methodRef(owner, name, descriptor));
+    }
+
+    int newLabel() {
+        labelPositions.add(-1);
+        return labelPositions.size() - 1;
+    }
+
+    void branch(int opcode, int label) {
+        fixups.add(new int[] { code.size(), label });
+        code.write(opcode);
+        writeShort(code, 0);  // Patched in toByteArray
+    }
+
+    void bind(int label) {
+        labelPositions.set(label, code.size());
+    }
+
+    // ---- Class file ----
+
+    byte[] toByteArray(String methodName, String descriptor, int maxStack, int maxLocals) {
+        byte[] methodCode = code.toByteArray();
+        for (int[] fixup : fixups) {
+            int target = labelPositions.get(fixup[1]);
+            if (target < 0) {
+                throw new IllegalStateException("Unbound label " + fixup[1]);
+            }
+            int offset = target - fixup[0];
+            methodCode[fixup[0] + 1] = (byte) (offset >> 8);
+            methodCode[fixup[0] + 2] = (byte) offset;
+        }
+
+        // Resolve every constant before the pool is written out.
+        int thisIndex = classRef(className);
+        int superIndex = classRef("java/lang/Object");
+        int interfaceIndex = classRef(interfaceName);
+        int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+        int initName = utf8("<init>");
+        int initDescriptor = utf8("()V");
+        int methodNameIndex = utf8(methodName);
+        int methodDescriptor = utf8(descriptor);
+        int codeName = utf8("Code");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0xCAFEBABE);
+        writeShort(out, 0);                // minor version
+        writeShort(out, 49);               // major version (Java 5, no stack maps)
+        writeShort(out, constantCount);
+        out.writeBytes(constantPool.toByteArray());
+        writeShort(out, 0x0001 | 0x0010 | 0x0020);  // public final super
+        writeShort(out, thisIndex);
+        writeShort(out, superIndex);
+        writeShort(out, 1);
+        writeShort(out, interfaceIndex);
+        writeShort(out, 0);                // fields
+        writeShort(out, 2);                // methods
+
+        // public <init>() { super(); }
+        byte[] initCode = { 0x2a, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN };
+        writeMethod(out, initName, initDescriptor, codeName, 1, 1, initCode);
+        writeMethod(out, methodNameIndex, methodDescriptor, codeName, maxStack, maxLocals, methodCode);
+
+        writeShort(out, 0);                // class attributes
+        return out.toByteArray();
+    }
+
+    private static void writeMethod(ByteArrayOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] methodCode) {
+        writeShort(out, 0x0001);           // public
+        writeShort(out, name);
+        writeShort(out, descriptor);
+        writeShort(out, 1);                // attributes: Code
+        writeShort(out, codeName);
+        writeInt(out, 12 + methodCode.length);
+        writeShort(out, maxStack);
+        writeShort(out, maxLocals);
+        writeInt(out, methodCode.length);
+        out.writeBytes(methodCode);
+        writeShort(out, 0);                // exception table
+        writeShort(out, 0);                // code attributes
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+}
@@ -4,7 +4,7 @@ package components;
  * CPU: Manages the main components of a computer simulator, including the memory, registers, 
  * cache, and condition codes. This class controls the Fetch-Decode-Execute cycle and provides
  * methods to load ROM files, store values in memory, and reset registers. Each instruction is
- * decoded and executed through direct calls to the CPUExe class.
+ * decoded from its raw word and dispatched through an opcode table of CPUExe handlers.
  * 
  * CPU(Memory memory, MemoryAddressRegister mar, MemoryBufferRegister mbr, GeneralPurposeRegisters gpr, 
  * IndexRegisters ixr, ProgramCounter pc, ConditionCode cc, Cache cac): Constructs the CPU with all required components.
@@ -15,41 +15,127 @@ package components;
  * - @param ixr: Index Registers for indexed addressing.
  * - @param pc: Program Counter to track the address of the next instruction.
  * - @param cc: Condition Code register to handle flags like overflow and zero.
- * - @param cac: Cache instance for storing frequently accessed data.
+ * - @param cac: Cache instance for storing frequently accessed data (the single level of a CacheHierarchy).
  * 
- * loadROMFile(File file): Loads a ROM file into memory, parsing address-data pairs in octal format.
+ * CPU(Memory memory, MemoryAddressRegister mar, MemoryBufferRegister mbr, GeneralPurposeRegisters gpr,
+ * IndexRegisters ixr, ProgramCounter pc, ConditionCode cc, CacheHierarchy caches): Constructs the CPU
+ * with a cache hierarchy. Data loads and stores go through its L1D, instruction fetches through its
+ * L1I if it has one (see DecodeCache.setCacheHierarchy).
+ * - @param caches: The caches.
+ * 
+ * loadROMFile(File file): Loads a ROM file into memory, parsing address-data pairs in octal format,
+ * and stores them like loadImage.
  * - @param file: The file containing the ROM instructions.
  * - @throws IOException: If an error occurs while reading the file.
  * 
+ * getDecodeCache(): Returns the predecoded instruction cache used by the CPU.
+ * - @return DecodeCache: The decode cache in front of fetch.
+ * 
  * getCache(): Returns the Cache instance connected to the CPU.
- * - @return Cache: The cache instance associated with the CPU.
+ * - @return Cache: The cache instance associated with the CPU (the L1 data cache).
+ * 
+ * getCacheHierarchy(): Returns every cache level of the CPU.
+ * - @return CacheHierarchy: The caches.
+ * 
+ * loadImage(int[] addresses, int[] values): Stores an assembled load image straight into memory,
+ * without going through a load file. Runs of consecutive addresses are stored as one block each
+ * (see Memory.writeBlock).
+ * - @param addresses: The addresses to store to.
+ * - @param values: The word for each address.
+ * 
+ * loadCoreImage(CoreImage image): Puts a core image into memory, with its HLT addresses, LOC
+ * redirects and start address. Memory shares the image's mapped pages instead of storing words (see
+ * Memory.restore), so loading costs O(pages).
+ * - @param image: An image of a memory the size of this one.
+ * - @throws IllegalArgumentException: If the image holds a memory of another size.
+ * 
+ * saveCoreImage(Path file): Saves memory, the PC, the LOC redirects and the HLT addresses as a core
+ * image (the final state of a run, or a loaded program to run again without assembling it).
+ * - @param file: The image file.
+ * - @throws IOException: If the file cannot be written.
+ * 
+ * setHaltAddresses(int[] addresses): Sets the addresses of the program's HLT instructions. Opcode 0
+ * only halts there; anywhere else it is a Data word and execution continues. Defaults to address 0.
+ * - @param addresses: The HLT addresses reported by the assembler.
+ * 
+ * setConsole(Scanner input, PrintStream console): Redirects the console keyboard and printer used
+ * by IN, OUT and CHK (see CPUExe.setConsole).
  * 
  * run(): Executes the Fetch-Decode-Execute cycle until a HLT instruction is encountered.
  * 
- * fetch(): Retrieves the next instruction from memory based on the current Program Counter (PC).
- * - @return String: The binary string representation of the instruction.
+ * run(long maxInstructions): Executes the Fetch-Decode-Execute cycle until a HLT instruction is
+ * encountered or the given number of instructions has been executed.
+ * - @param maxInstructions: The instruction limit.
+ * - @return boolean: True if the program halted, false if the limit was reached first.
+ * 
+ * getInstructionCount(): Returns how many instructions the interpreter has executed.
+ * - @return long: The instruction count.
+ * 
+ * runTiered(): Executes the program until HLT with the TieredEngine, which translates hot basic
+ * blocks to JVM bytecode and interprets everything else.
+ * 
+ * getTieredEngine(): Returns the tiered engine (created on first use) so it can be tuned or inspected.
+ * - @return TieredEngine: The engine bound to this CPU.
  * 
- * decode(String binaryInstruction): Decodes and executes a binary instruction based on the opcode.
- * - @param binaryInstruction: The binary string of the instruction to decode and execute.
+ * runCompiled(CompiledProgram program): Executes the program until HLT with an AotEngine, running
+ * the ahead-of-time translated blocks and interpreting everything they do not cover.
+ * - @param program: The translated program returned by the AotCompiler for the loaded image.
+ * 
+ * runTiered(long maxInstructions), runCompiled(CompiledProgram program, long maxInstructions): The
+ * same with an instruction limit, checked between translated blocks.
+ * - @return boolean: True if the program halted, false if the limit was reached first.
+ * 
+ * getAotEngine(): Returns the engine used by the last runCompiled call.
+ * - @return AotEngine: The engine, or null if runCompiled has not been called.
+ * 
+ * fetch(): Resolves LOC directives for the current Program Counter (PC), advances the PC and returns
+ * the address of the instruction to execute.
+ * - @return int: The address of the next instruction.
+ * 
+ * decode(int address): Executes the instruction at the given address through the DecodeCache, which
+ * decodes each word once with shifts and masks and dispatches through the opcode handler table.
+ * Nothing is allocated per instruction. Common idioms run as one superinstruction.
+ * - @param address: The address of the instruction to decode and execute.
  * - @return boolean: True if a HLT instruction is encountered, ending execution.
  * 
+ * buildHandlerTable(): Fills the 64-entry opcode table with the int-field CPUExe handlers. Unused
+ * opcodes get a handler that rejects the instruction.
+ * 
  * getPc(): Retrieves the current value of the Program Counter (PC).
  * - @return int: The current PC value.
  * 
- * store(int address, int value): Stores a value in memory and updates the cache with the given address.
+ * store(int address, int value): Stores a value through the cache hierarchy (memory and the L1D).
  * - @param address: The memory address to store the value.
  * - @param value: The value to store at the specified address.
  * 
  * resetRegisters(): Resets all general-purpose registers, index registers, and control registers 
  * (PC, MAR, MBR) to their initial state.
+ * 
+ * getMachineFaultRegister(): Returns the CPU's Machine Fault Register.
+ * - @return MachineFaultRegister: The MFR.
+ * 
+ * checkpoint(): Captures the full machine state (memory, registers, MFR and every cache level) cheaply; memory
+ * pages are shared copy-on-write, so e.g. the post-load state of a program can be kept and
+ * restored for every run instead of assembling and loading it again.
+ * - @return MachineState: The checkpoint.
+ * 
+ * restore(MachineState state): Puts the machine back into a checkpointed state. Translated and
+ * predecoded code for words that changed since is invalidated through the memory listeners.
+ * - @param state: A checkpoint taken on this or another CPU with the same register counts.
+ *
+ * close(): Detaches the CPU from its memory: the decode cache, the engines and the cache hierarchy
+ * stop listening for stores. Call it before replacing a CPU with a new one on the same Memory; the
+ * closed CPU must not be run again.
  */
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-
-import Assembler.Assembler;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
 
 public class CPU {
     private Memory memory;
@@ -60,9 +146,19 @@ public class CPU {
     private MemoryAddressRegister mar; // Memory Address Register
     private MemoryBufferRegister mbr; // Memory Buffer Register
     private CPUExe cpuExe;
-    private Cache cache;
+    private CacheHierarchy caches;
+    private final InstructionHandler[] handlers = new InstructionHandler[64];  // Indexed by 6-bit opcode
+    private DecodeCache decodeCache;
+    private TieredEngine tieredEngine;
+    private AotEngine aotEngine;
+    private int[] haltAddresses = {0};  // Addresses of the assembled HLT instructions
+    private final MachineFaultRegister mfr = new MachineFaultRegister();
 
     public CPU(Memory memory, MemoryAddressRegister mar, MemoryBufferRegister mbr, GeneralPurposeRegisters gpr, IndexRegisters ixr, ProgramCounter pc, ConditionCode cc, Cache cac) {
+        this(memory, mar, mbr, gpr, ixr, pc, cc, new CacheHierarchy(memory, cac));
+    }
+
+    public CPU(Memory memory, MemoryAddressRegister mar, MemoryBufferRegister mbr, GeneralPurposeRegisters gpr, IndexRegisters ixr, ProgramCounter pc, ConditionCode cc, CacheHierarchy caches) {
         this.memory = memory;
         this.mar = mar;
         this.mbr = mbr;
@@ -70,39 +166,156 @@ public class CPU {
         this.ixr = ixr;
         this.pc = pc;
         this.cc = cc;
-        this.cache = cac;
-        this.cpuExe = new CPUExe(memory, gpr, ixr, pc, cc, cac);
+        this.caches = caches;
+        this.cpuExe = new CPUExe(memory, gpr, ixr, pc, cc, caches);
+        buildHandlerTable();
+        this.decodeCache = new DecodeCache(memory, pc, handlers);
+        decodeCache.setCacheHierarchy(caches);
     }   
 
     // loads rom file.
     public void loadROMFile(File file) throws IOException {
+        int[] addresses = new int[64];
+        int[] values = new int[64];
+        int count = 0;
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = br.readLine()) != null) {
                 String[] parts = line.split(" ");  // Assuming space separates address and data
-                int address = Integer.parseInt(parts[0], 8);  // Address part
-                int data = Integer.parseInt(parts[1], 8);     // Data part
+                if (count == addresses.length) {
+                    addresses = Arrays.copyOf(addresses, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                addresses[count] = Integer.parseInt(parts[0], 8);  // Address part
+                values[count] = Integer.parseInt(parts[1], 8);     // Data part
+                count++;
+            }
+        }
+        loadImage(Arrays.copyOf(addresses, count), Arrays.copyOf(values, count));
+    }
+
+    // Stores each run of consecutive addresses as one block.
+    public void loadImage(int[] addresses, int[] values) {
+        int start = 0;
+        for (int n = 1; n <= addresses.length; n++) {
+            if (n == addresses.length || addresses[n] != addresses[n - 1] + 1) {
+                memory.writeBlock(addresses[start], values, start, n - start);
+                start = n;
+            }
+        }
+    }
+
+    public void loadCoreImage(CoreImage image) {
+        memory.restore(image.getMemory());
+        image.setLocDirectives(pc);
+        pc.setPC(image.getStartAddress());
+        setHaltAddresses(image.getHaltAddresses());
+    }
+
+    public void saveCoreImage(Path file) throws IOException {
+        CoreImage.write(file, memory, pc, haltAddresses);
+    }
+
+    public void setHaltAddresses(int[] addresses) {
+        this.haltAddresses = addresses.clone();
+    }
 
-                memory.storeValue(address, data);
-                
+    private boolean isHaltAddress(int address) {
+        for (int haltAddress : haltAddresses) {
+            if (haltAddress == address) {
+                return true;
             }
         }
+        return false;
+    }
+
+    public void setConsole(Scanner input, PrintStream console) {
+        cpuExe.setConsole(input, console);
+    }
+
+    public DecodeCache getDecodeCache() {
+        return this.decodeCache;
     }
 
     public Cache getCache() {
-        return this.cache;
+        return caches.getDataCache();
     }    
 
+    public CacheHierarchy getCacheHierarchy() {
+        return this.caches;
+    }
+
     // Fetch-Decode-Execute Cycle.
     public void run() {
         boolean halt = false;
         while (!halt) {
-            String binaryInstruction = fetch();
-            halt = decode(binaryInstruction);
+            int address = fetch();
+            halt = decode(address);
+        }
+    }
+
+    // Fetch-Decode-Execute Cycle with a cycle limit.
+    public boolean run(long maxInstructions) {
+        long limit = decodeCache.getExecutedCount() + maxInstructions;
+        if (limit < 0) {
+            limit = Long.MAX_VALUE;  // Overflowed
+        }
+        decodeCache.setExecutionLimit(limit);
+        try {
+            boolean halt = false;
+            while (!halt) {
+                if (decodeCache.getExecutedCount() >= limit) {
+                    return false;
+                }
+                int address = fetch();
+                halt = decode(address);
+            }
+            return true;
+        } finally {
+            decodeCache.setExecutionLimit(Long.MAX_VALUE);
+        }
+    }
+
+    public long getInstructionCount() {
+        return decodeCache.getExecutedCount();
+    }
+
+    // Fetch-Decode-Execute Cycle with hot blocks translated to JVM bytecode.
+    public void runTiered() {
+        getTieredEngine().run();
+    }
+
+    public boolean runTiered(long maxInstructions) {
+        return getTieredEngine().run(maxInstructions);
+    }
+
+    public TieredEngine getTieredEngine() {
+        if (tieredEngine == null) {
+            tieredEngine = new TieredEngine(memory, pc, cpuExe, decodeCache, gpr, ixr);
         }
+        return tieredEngine;
+    }
+
+    // Fetch-Decode-Execute Cycle with an ahead-of-time translated program.
+    public void runCompiled(CompiledProgram program) {
+        runCompiled(program, Long.MAX_VALUE);
     }
 
-    private String fetch() {
+    public boolean runCompiled(CompiledProgram program, long maxInstructions) {
+        if (aotEngine == null || aotEngine.getProgram() != program) {
+            if (aotEngine != null) {
+                memory.removeListener(aotEngine);
+            }
+            aotEngine = new AotEngine(memory, pc, cpuExe, decodeCache, gpr, ixr, program);
+        }
+        return aotEngine.run(maxInstructions);
+    }
+
+    public AotEngine getAotEngine() {
+        return aotEngine;
+    }
+
+    private int fetch() {
         // First check if current PC has a LOC directive
         int currentPC = pc.getPC();
         
@@ -112,169 +325,64 @@ public class CPU {
             return fetch(); // Fetch from new location
         }
         
-        // Load instruction from memory
-        int instruction = memory.loadMemoryValue(currentPC);
-        
         // Increment PC for next instruction
         pc.incrementPC();
         
-        // Convert to binary
-        String binaryInstruction = Integer.toBinaryString(instruction);
-        while (binaryInstruction.length() < 16) {
-            binaryInstruction = "0" + binaryInstruction;
-        }
-        
-        return binaryInstruction;
+        return currentPC;
     }
 
+    // Execute the predecoded instruction (decoding it on first use)
+    private boolean decode(int address) {
+        return decodeCache.execute(address);
+    }
 
-    // Decode and execute the instruction directly
-    private boolean decode(String binaryInstruction) {
-        String opcode = binaryInstruction.substring(0, 6);  // Extract opcode (first 6 bits)
-        switch (opcode) {
-            // LDR: Done!
-            case "000001":  
-                //System.out.println("LDR");
-                return cpuExe.executeLDR(binaryInstruction);
-
-            // STR: Done!
-            case "000010": 
-            //System.out.println("STR");
-                return cpuExe.executeSTR(binaryInstruction);
-
-            // LDA: Done!
-            case "000011":  
-            //System.out.println("LDA");
-                return cpuExe.executeLDA(binaryInstruction);
-
-            // AMR: Done!
-            case "000100":  
-                //System.out.println("AMR");
-                return cpuExe.executeAMR(binaryInstruction);
-            
-            // SMR: Done!
-            case "000101":  
-                //System.out.println("SMR");
-                return cpuExe.executeSMR(binaryInstruction);
-
-            // AIR: Done!
-            case "000110":  
-                //System.out.println("AIR");
-                return cpuExe.executeAIR(binaryInstruction);    
-              
-            // SIR: Not Done.
-            case "000111":
-                //System.out.println("SIR");      
-                return cpuExe.executeSIR(binaryInstruction);    
-
-            // LDX: Done!
-            case "101001": 
-                //System.out.println("LDX");
-                return cpuExe.executeLDX(binaryInstruction);
-            
-            // STX: Done!
-            case "101010":  
-                //System.out.println("STX");
-                return cpuExe.executeSTX(binaryInstruction);
-
-            // JZ: Done!
-            case "001010":  
-                //System.out.println("JZ");
-                return cpuExe.executeJZ(binaryInstruction);
-            
-            // JNE: Done!
-            case "001011":
-                //System.out.println("JNE");
-                return cpuExe.executeJNE(binaryInstruction);
-            
-            // JCC: Done (not 100% confident on this one).
-            case "001100":
-                //System.out.println("JCC");
-                return cpuExe.executeJCC(binaryInstruction, pc, cc);
-            
-            // JMA: Done!
-            case "001101":
-                //System.out.println("JMA");
-                return cpuExe.executeJMA(binaryInstruction);
-            
-            // JSR: Done!
-            case "001110":
-                //System.out.println("JSR");
-                return cpuExe.executeJSR(binaryInstruction);
-            
-            // RFS: Done but can't test (dont know about subroutines).
-            case "001111":
-                //System.out.println("RFS");
-                return cpuExe.executeRFS(binaryInstruction);
-
-            // SOB: Done but not tested properly.
-            case "010000":
-                //System.out.println("SOB");
-                return cpuExe.executeSOB(binaryInstruction);
-
-            // JGE: Done!
-            case "010001":
-                //System.out.println("JGE");
-                return cpuExe.executeJGE(binaryInstruction);
-
-            // MLT: Done! 
-            case "111000":
-                //System.out.println("MLT");
-                return cpuExe.executeMLT(binaryInstruction);
-
-            // DVD: Done!
-            case "111001":
-                //System.out.println("DVD");
-                return cpuExe.executeDVD(binaryInstruction);
-
-            // TRR: Done!
-            case "111010":
-                //System.out.println("TRR");
-                return cpuExe.executeTRR(binaryInstruction);
-
-            // AND: Done!
-            case "111011":
-                //System.out.println("AND");
-                return cpuExe.executeAND(binaryInstruction);
-
-            // ORR: Done!
-            case "111100":
-                //System.out.println("ORR");
-                return cpuExe.executeORR(binaryInstruction);
-
-            // NOT: Done!
-            case "111101":
-                //System.out.println("NOT");
-                return cpuExe.executeNOT(binaryInstruction);
-
-            // IN: Done!
-            case "110011":
-                //System.out.println("IN");
-                return cpuExe.executeIN(binaryInstruction);
-
-            // OUT: Done!
-            case "110100":
-                //System.out.println("OUT");
-                return cpuExe.executeOUT(binaryInstruction);
-
-            // CHK: Done!
-            case "110101":
-                //System.out.println("CHK");
-                return cpuExe.executeCHK(binaryInstruction);
-
-            // HLT + Data: Done!
-            case "000000":  
-                // HLT.
-                if(Assembler.getHltAddress() == pc.getPC()-1) {
-                    return true;
-                    //return cpuExe.executeHLT();
-                }
-
-                // data.
-                return false;
-
-            default:
-                throw new IllegalArgumentException("Unknown opcode: " + opcode);
+    private void buildHandlerTable() {
+        // Load/Store Instructions.
+        handlers[0b000001] = cpuExe::executeLDR;
+        handlers[0b000010] = cpuExe::executeSTR;
+        handlers[0b000011] = cpuExe::executeLDA;
+        handlers[0b101001] = cpuExe::executeLDX;
+        handlers[0b101010] = cpuExe::executeSTX;
+
+        // Transfer Instructions.
+        handlers[0b001010] = cpuExe::executeJZ;
+        handlers[0b001011] = cpuExe::executeJNE;
+        handlers[0b001100] = cpuExe::executeJCC;
+        handlers[0b001101] = cpuExe::executeJMA;
+        handlers[0b001110] = cpuExe::executeJSR;
+        handlers[0b001111] = cpuExe::executeRFS;
+        handlers[0b010000] = cpuExe::executeSOB;
+        handlers[0b010001] = cpuExe::executeJGE;
+
+        // Arithmetic/Logical Instructions.
+        handlers[0b000100] = cpuExe::executeAMR;
+        handlers[0b000101] = cpuExe::executeSMR;
+        handlers[0b000110] = cpuExe::executeAIR;
+        handlers[0b000111] = cpuExe::executeSIR;
+
+        // Register to Register Operations.
+        handlers[0b111000] = cpuExe::executeMLT;
+        handlers[0b111001] = cpuExe::executeDVD;
+        handlers[0b111010] = cpuExe::executeTRR;
+        handlers[0b111011] = cpuExe::executeAND;
+        handlers[0b111100] = cpuExe::executeORR;
+        handlers[0b111101] = cpuExe::executeNOT;
+
+        // I/O Operations.
+        handlers[0b110011] = cpuExe::executeIN;
+        handlers[0b110100] = cpuExe::executeOUT;
+        handlers[0b110101] = cpuExe::executeCHK;
+
+        // HLT + Data: opcode 0 only halts at an assembled HLT address.
+        handlers[0b000000] = (r, ix, i, address) -> isHaltAddress(pc.getPC() - 1);
+
+        for (int opcode = 0; opcode < handlers.length; opcode++) {
+            if (handlers[opcode] == null) {
+                String opcodeBinary = String.format("%6s", Integer.toBinaryString(opcode)).replace(' ', '0');
+                handlers[opcode] = (r, ix, i, address) -> {
+                    throw new IllegalArgumentException("Unknown opcode: " + opcodeBinary);
+                };
+            }
         }
     }
 
@@ -283,8 +391,7 @@ public class CPU {
     }
     
     public void store(int address, int value) {
-        memory.storeValue(address, value);
-        cache.write(address, value);
+        caches.store(address, value);
     }
 
     public void resetRegisters() {
@@ -294,4 +401,54 @@ public class CPU {
         mar.resetMAR(); // Reset memory address register
         mbr.resetMBR(); // Reset memory buffer register
     } 
-}
\ No newline at end of file
+
+    public MachineFaultRegister getMachineFaultRegister() {
+        return mfr;
+    }
+
+    public MachineState checkpoint() {
+        return new MachineState(memory.snapshot(), gpr.copyValues(), ixr.copyValues(), pc.getPC(), cc,
+            mar.getValue(), mbr.getValue(), mfr.getMFR(), snapshotCaches());
+    }
+
+    private Cache.Snapshot[] snapshotCaches() {
+        Cache[] levels = caches.getLevels();
+        Cache.Snapshot[] snapshots = new Cache.Snapshot[levels.length];
+        for (int n = 0; n < snapshots.length; n++) {
+            snapshots[n] = levels[n].snapshot();
+        }
+        return snapshots;
+    }
+
+    public void restore(MachineState state) {
+        memory.restore(state.memory);
+        gpr.restoreValues(state.gprs);
+        ixr.restoreValues(state.ixrs);
+        pc.setPC(state.pc);
+        cc.setOverflow(state.overflow);
+        cc.setUnderflow(state.underflow);
+        cc.setDivZero(state.divZero);
+        cc.setEqual(state.equal);
+        mar.setValue((short) state.mar);
+        mbr.setValue(state.mbr);
+        mfr.setMFR(state.mfr);
+        Cache[] levels = caches.getLevels();
+        if (levels.length != state.caches.length) {
+            throw new IllegalArgumentException("Checkpoint has " + state.caches.length + " cache levels, CPU has " + levels.length);
+        }
+        for (int n = 0; n < state.caches.length; n++) {
+            levels[n].restore(state.caches[n]);
+        }
+    }
+
+    public void close() {
+        memory.removeListener(decodeCache);
+        if (tieredEngine != null) {
+            memory.removeListener(tieredEngine);
+        }
+        if (aotEngine != null) {
+            memory.removeListener(aotEngine);
+        }
+        memory.removeListener(caches);
+    }
+}
@@ -1,175 +1,1085 @@
 package components;
 
 /*
- * Cache: This class contains methods for managing a fully associative cache with 4 cache lines, 
- * implementing a Least Recently Used (LRU) replacement policy. Each cache line stores a block of 
- * 8 words from memory, supporting read, write, and cache management operations.
+ * Cache: This class contains methods for managing a set-associative cache with a configurable number
+ * of sets, ways and words per block (see CacheConfig). Empty ways of a set are filled first; after
+ * that a pluggable ReplacementPolicy (LRU by default) picks the line to replace. The default
+ * configuration is the original fully associative LRU cache of 4 lines of 8 words. An address splits into tag | set index | word offset, so finding the set
+ * is a shift and a mask and only the ways of that set are searched.
  * 
- * Cache(Memory memory): Initializes the cache and sets up cache lines and the LRU list.
+ * The lines are stored as flat arrays indexed by line number (set * ways + way): tags, valid and
+ * dirty flags, and one data array holding every line's block. A table
+ * indexed by block number records the line each resident block is in, so a hit costs the same
+ * however many ways the cache has; only a miss scans its set for the line to replace.
+ * 
+ * A cache reads and writes back whole blocks from Memory, or from a next-level cache when it is
+ * part of a CacheHierarchy. Below an inclusive level the next level holds every block this one
+ * holds: misses are filled through it, dirty victims are written back into it, and when it evicts
+ * a block it first invalidates the block here (merging any dirty words). Below an exclusive level
+ * the next level only holds blocks evicted from here: a miss takes the block out of it (or reads
+ * memory), and every victim, clean or dirty, moves down into it. Split L1 caches keep each other
+ * coherent: a miss first writes back the peer's dirty copy so the fill sees the newest words, and
+ * a write drops the now older copies of the block in the peer and in an exclusive next level (the
+ * peer first sends on its dirty line and buffered words of the block, which may hold other words).
+ * 
+ * A write-back cache (the default) allocates the block on a write miss and marks the line dirty. A
+ * write-through cache updates the line only on a hit and sends every written word on through a
+ * WriteBuffer; a full buffer retires its oldest word first (a stall), and the words of a block are
+ * drained before the block is read from the next level. In a CacheHierarchy, Memory always holds
+ * the current words (the hierarchy stores there first and snoops other writers), so what the last
+ * level writes back or through is only counted; a Cache used on its own writes it to Memory.
+ * 
+ * An optional Prefetcher (see CacheConfig.withPrefetcher) sees every demand access the cache
+ * serves and loads blocks ahead of them, through the same fill path as a miss, so the levels below
+ * see prefetches as ordinary block requests. A prefetched line stays tagged until its first use;
+ * the first use counts as a useful prefetch and a hit, and a tagged line that is evicted or
+ * invalidated counts as a useless one. Prefetches are not reads, so they do not change the read,
+ * hit and miss counts of this level, only which accesses hit.
+ * 
+ * An optional victim cache (see CacheConfig.withVictimCache) is a few fully associative LRU lines
+ * kept after the sets in the same arrays. A block evicted from a set moves into it instead of
+ * leaving the level, and a later access to it swaps it back into its set, counting as a hit, so
+ * blocks that only conflict in their set stay on chip. A block leaves the level (written back,
+ * moved down or surrendered by the levels above) when the victim cache evicts it in turn.
+ * 
+ * An optional write-combining buffer (see CacheConfig.withWriteCombining) sits between a cache
+ * with no next level and Memory: dirty blocks written back wait in it, a second write-back of a
+ * waiting block merges into its entry, and the oldest entry drains to Memory when the buffer is
+ * full. A fill of a waiting block reads through the buffer (its waiting words over Memory's), so
+ * the entry stays and keeps combining.
+ * 
+ * Cache(Memory memory): Initializes a cache with the default geometry.
+ * - @param memory: A reference to the Memory instance used to access and store data.
+ * 
+ * Cache(Memory memory, CacheConfig config): Initializes a cache with the given configuration.
  * - @param memory: A reference to the Memory instance used to access and store data.
+ * - @param config: The number of sets, ways and words per block and the replacement policy.
  * 
- * getBlockID(int address): Retrieves the block ID from a memory address.
+ * getConfig(): Returns the cache configuration.
+ * - @return CacheConfig: The configuration.
+ * 
+ * getBlockID(int address): Retrieves the word offset within the block from a memory address.
+ * - @param address: The full memory address.
+ * - @return int: The word offset derived from the lowest address bits.
+ * 
+ * getSetIndex(int address): Retrieves the set a memory address maps to.
  * - @param address: The full memory address.
- * - @return int: The block ID derived from the lower 3 bits of the address.
+ * - @return int: The set index derived from the bits above the word offset.
  * 
  * getTag(int address): Extracts the tag portion of a memory address for cache lookups.
  * - @param address: The full memory address.
- * - @return int: The tag derived from the upper bits of the address.
+ * - @return int: The tag derived from the bits above the set index.
  * 
  * read(int address): Reads a word from the cache or loads the block from memory if it's not present.
  * - @param address: The full memory address of the word to read.
  * - @return int: The word at the specified address.
  * 
- * write(int address, int value): Writes a word to the cache, updating the block if present or loading it if not.
+ * write(int address, int value): Writes a word to the cache, updating the block if present or loading it if not
+ * (write-back); a write-through cache updates a present block only and always sends the word on.
  * - @param address: The full memory address where the value should be written.
  * - @param value: The word to write at the specified address.
  * 
- * updateLRU(int index): Updates the LRU order by moving the specified index to the most recently used position.
- * - @param index: The index of the cache line to update.
+ * findLine(int address): Finds the line holding an address's block.
+ * - @param address: The full memory address.
+ * - @return int: The line number, or -1 on a miss.
  * 
- * loadBlockFromMemory(int address): Loads a block of words from memory into a cache line and manages eviction.
- * - @param address: The starting memory address of the block to load.
- * - @return int: The index of the cache line where the block was loaded.
+ * loadBlockFromMemory(int address): Loads a block of words from memory (or the next level) into
+ * an empty way of its set or else the way the replacement policy chooses, evicting that line first.
+ * - @param address: The memory address whose block is loaded.
+ * - @return int: The line number the block was loaded into.
  * 
- * writeBackToMemory(CacheLine cacheLine): Writes back a dirty cache line to memory before eviction.
- * - @param cacheLine: The cache line to write back to memory.
+ * writeBackToMemory(int line): Writes back a dirty cache line to memory (or the next level).
+ * - @param line: The line number to write back.
+ * 
+ * getNextLevel(): Returns the cache behind this one in a hierarchy.
+ * - @return Cache: The next level, or null if this cache reads memory directly.
  * 
  * getCacheStateString(): Generates a formatted string representing the current state of the cache.
  * - @return String: A detailed string showing the cache line tags and block data.
+ * 
+ * getHitCount(), getMissCount(), getWriteBackCount(): Access statistics since the cache was created
+ * (reads and writes that found their block, that had to load it, and dirty blocks written back).
+ * For a next level, the accesses are the block requests of the levels above it.
+ * - @return long: The count.
+ * 
+ * getReadCount(), getWriteCount(): The reads and writes asked of this level (hits plus misses).
+ * - @return long: The count.
+ * 
+ * getColdMissCount(), getCapacityMissCount(), getConflictMissCount(): The misses by class (see
+ * MissClassifier); they add up to getMissCount().
+ * - @return long: The count.
+ * 
+ * getEvictionCount(): Valid lines replaced to make room for another block (clean or dirty); with a
+ * victim cache, only the blocks the victim cache evicts.
+ * - @return long: The count.
+ * 
+ * getMissProfile(): Every miss by the instruction that caused it and the address it touched. The
+ * instruction is the one the CacheHierarchy was told about last (see CacheHierarchy.setInstructionAddress).
+ * - @return MissProfile: The live profile.
+ * 
+ * getWriteThroughCount(), getWriteMergeCount(), getWriteStallCount(): Write-through statistics (words
+ * that left the write buffer, stores merged into a waiting word, and stores that found it full).
+ * - @return long: The count.
+ * 
+ * getPrefetchCount(), getUsefulPrefetchCount(), getUselessPrefetchCount(): Blocks prefetched, and
+ * prefetched blocks used before they left and evicted or invalidated unused (the rest are still
+ * waiting in the cache).
+ * - @return long: The count.
+ * 
+ * getVictimHitCount(), getVictimInsertCount(): Accesses served from the victim cache, and blocks
+ * moved into it from the sets.
+ * - @return long: The count.
+ * 
+ * getCombiningMergeCount(), getCombiningDrainCount(): Write-backs merged into a block already
+ * waiting in the write-combining buffer, and blocks the buffer wrote to Memory.
+ * - @return long: The count.
+ * 
+ * prefetch(int address): Loads an address's block unless it is already here; called by the Prefetcher.
+ * - @param address: An address in the block.
+ * 
+ * All counters are plain fields updated inline and stay on in every run.
+ * 
+ * snapshot(): Copies the cache lines (tags, words and dirty bits), the replacement policy state, the
+ * write buffer, the victim cache order, the write-combining buffer, the miss classification and
+ * profile, the prefetcher, and the counters.
+ * - @return Cache.Snapshot: The captured state.
+ * 
+ * restore(Snapshot snapshot): Puts back a captured state without touching memory, so dirty lines
+ * stay dirty and are written back when they are evicted, exactly as they would have been.
+ * - @param snapshot: The snapshot to restore, taken from a cache with the same configuration.
+ * - @throws IllegalArgumentException: If the snapshot has a different geometry or policies.
  */
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 public class Cache {
-    private ArrayList<CacheLine> cacheLines;
-    private int cacheSize = 4;
-    private int blockSize = 8;
-    private Memory memory;
-    private LinkedList<Integer> lruList;
+    private final Memory memory;
+    private final CacheConfig config;
+    private final int ways;
+    private final int blockSize;
+    private final int offsetBits;  // log2(blockSize)
+    private final int setBits;     // log2(number of sets)
+    private final int setMask;
+
+    // One entry per line, line = set * ways + way.
+    private final int[] tags;
+    private final boolean[] valid;
+    private final boolean[] dirty;
+    private final int[] data;       // Line n's block is data[n * blockSize ..]
+    private final int[] swap;       // One block, for moving blocks out of an exclusive next level
+    private ReplacementPolicy policy;
+    private final boolean writeThrough;
+    private WriteBuffer buffer;     // Words written through but not yet sent on (write-through only)
+    private Prefetcher prefetcher;  // Or null
+    private final boolean[] prefetched;  // Prefetched and not used yet
+    private boolean trigger;        // Set by access(): a miss or the first use of a prefetched line
+    private int filling = -1;       // Line being handed to the level above while the prefetcher runs
+    private final int mainLines;    // Lines in the sets; victim cache lines follow them
+    private final long[] victimStamps;  // Last insertion time of each victim line
+    private long victimClock;
+    private WriteCombiningBuffer combining;  // Or null
+
+    // Position in a CacheHierarchy (see connect/setPeer).
+    private Cache next;                     // Next level, or null for memory
+    private boolean exclusive;              // How the next level relates to this one
+    private Cache[] upper = new Cache[0];   // Inclusive levels above this one
+    private Cache peer;                     // The other split L1 cache
+    private boolean victimOnly;             // Exclusive next level: holds only blocks evicted above
+    private CacheHierarchy owner;           // Keeps Memory current and knows the instruction; or null
+
+    // Line holding each resident block, indexed by block number (address >> offsetBits), or -1.
+    private static final int ADDRESS_RANGE = 1 << 16;
+    private final int[] lineOfBlock;
+
+    private long reads;
+    private long writes;
+    private long hits;
+    private long misses;
+    private final long[] missesByKind = new long[3];  // Indexed by MissClassifier.COLD, CAPACITY, CONFLICT
+    private long evictions;
+    private long writeBacks;
+    private long writeThroughs;
+    private long writeMerges;
+    private long writeStalls;
+    private long prefetches;
+    private long usefulPrefetches;
+    private long uselessPrefetches;
+    private long victimHits;
+    private long victimInserts;
+    private long combiningMerges;
+    private long combiningDrains;
+    private final MissClassifier classifier;
+    private MissProfile profile = new MissProfile();
+
+    // An immutable copy of the cache state.
+    public static final class Snapshot {
+        private final CacheConfig config;
+        private final int[] tags;
+        private final boolean[] valid;
+        private final boolean[] dirty;
+        private final int[] data;
+        private final ReplacementPolicy policy;
+        private final WriteBuffer buffer;
+        private final Prefetcher prefetcher;
+        private final boolean[] prefetched;
+        private final MissClassifier classifier;
+        private final MissProfile profile;
+        private final long reads;
+        private final long writes;
+        private final long hits;
+        private final long misses;
+        private final long[] missesByKind;
+        private final long evictions;
+        private final long writeBacks;
+        private final long writeThroughs;
+        private final long writeMerges;
+        private final long writeStalls;
+        private final long prefetches;
+        private final long usefulPrefetches;
+        private final long uselessPrefetches;
+        private final long[] victimStamps;
+        private final long victimClock;
+        private final WriteCombiningBuffer combining;
+        private final long victimHits;
+        private final long victimInserts;
+        private final long combiningMerges;
+        private final long combiningDrains;
+
+        private Snapshot(Cache cache) {
+            this.config = cache.config;
+            this.tags = cache.tags.clone();
+            this.valid = cache.valid.clone();
+            this.dirty = cache.dirty.clone();
+            this.data = cache.data.clone();
+            this.policy = cache.policy.copy();
+            this.buffer = cache.buffer != null ? cache.buffer.copy() : null;
+            this.prefetcher = cache.prefetcher != null ? cache.prefetcher.copy() : null;
+            this.prefetched = cache.prefetched.clone();
+            this.classifier = cache.classifier.copy();
+            this.profile = cache.profile.copy();
+            this.reads = cache.reads;
+            this.writes = cache.writes;
+            this.hits = cache.hits;
+            this.misses = cache.misses;
+            this.missesByKind = cache.missesByKind.clone();
+            this.evictions = cache.evictions;
+            this.writeBacks = cache.writeBacks;
+            this.writeThroughs = cache.writeThroughs;
+            this.writeMerges = cache.writeMerges;
+            this.writeStalls = cache.writeStalls;
+            this.prefetches = cache.prefetches;
+            this.usefulPrefetches = cache.usefulPrefetches;
+            this.uselessPrefetches = cache.uselessPrefetches;
+            this.victimStamps = cache.victimStamps.clone();
+            this.victimClock = cache.victimClock;
+            this.combining = cache.combining != null ? cache.combining.copy() : null;
+            this.victimHits = cache.victimHits;
+            this.victimInserts = cache.victimInserts;
+            this.combiningMerges = cache.combiningMerges;
+            this.combiningDrains = cache.combiningDrains;
+        }
+    }
 
     public Cache(Memory memory) {
+        this(memory, CacheConfig.DEFAULT);
+    }
+
+    public Cache(Memory memory, CacheConfig config) {
         this.memory = memory;
-        cacheLines = new ArrayList<>(cacheSize);
-        lruList = new LinkedList<>();
+        this.config = config;
+        this.ways = config.getWays();
+        this.blockSize = config.getBlockSize();
+        this.offsetBits = Integer.numberOfTrailingZeros(blockSize);
+        this.setBits = Integer.numberOfTrailingZeros(config.getSets());
+        this.setMask = config.getSets() - 1;
+
+        mainLines = config.getLines();
+        int lines = mainLines + config.getVictimLines();
+        tags = new int[lines];
+        valid = new boolean[lines];
+        dirty = new boolean[lines];
+        data = new int[lines * blockSize];
+        swap = new int[blockSize];
+        Arrays.fill(data, -1);  // Not loaded yet
+        lineOfBlock = new int[ADDRESS_RANGE >> offsetBits];
+        Arrays.fill(lineOfBlock, -1);
+        policy = ReplacementPolicy.create(config);
+        classifier = new MissClassifier(mainLines, offsetBits);
+        writeThrough = config.isWriteThrough();
+        buffer = writeThrough ? new WriteBuffer(config.getWriteBufferDepth()) : null;
+        prefetcher = Prefetcher.create(config);
+        prefetched = new boolean[lines];
+        victimStamps = new long[config.getVictimLines()];
+        combining = config.getWriteCombiningEntries() > 0
+            ? new WriteCombiningBuffer(config.getWriteCombiningEntries(), blockSize) : null;
+    }
 
-        for (int i = 0; i < cacheSize; i++) {
-            cacheLines.add(new CacheLine());
-            lruList.addLast(i);  // Add to end, so first element is LRU
+    public CacheConfig getConfig() {
+        return config;
+    }
+
+    public Cache getNextLevel() {
+        return next;
+    }
+
+    // Puts next behind this cache. The block size checks are the CacheHierarchy's.
+    void connect(Cache next, boolean exclusive) {
+        this.next = next;
+        this.exclusive = exclusive;
+        next.victimOnly = exclusive;
+        if (!exclusive) {
+            next.upper = Arrays.copyOf(next.upper, next.upper.length + 1);
+            next.upper[next.upper.length - 1] = this;
         }
     }
 
+    void setPeer(Cache peer) {
+        this.peer = peer;
+    }
+
+    void setOwner(CacheHierarchy owner) {
+        this.owner = owner;
+    }
+
     public int getBlockID(int address) {
-        return address & 0b111;  // Lower 3 bits as block ID
+        return address & (blockSize - 1);  // Lowest bits as word offset
+    }
+
+    public int getSetIndex(int address) {
+        return (address >> offsetBits) & setMask;
     }
 
     public int getTag(int address) {
-        return address >> 3;     // Remaining bits are the tag
+        return address >> (offsetBits + setBits);  // Remaining bits are the tag
     }
 
     public int read(int address) {
-        int blockID = getBlockID(address);
-        int tag = getTag(address);
-        int wordOffset = blockID;
+        int line = access(address, false);
+        if (line < 0) {
+            line = loadBlockFromMemory(address);
+        }
+        int value = data[line * blockSize + getBlockID(address)];
+        train(address);
+        return value;
+    }
+
+    public void write(int address, int value) {
+        int line = access(address, true);
+        if (line < 0 && !writeThrough) {
+            line = loadBlockFromMemory(address);
+        }
+        if (line >= 0) {
+            data[line * blockSize + getBlockID(address)] = value;
+            dirty[line] = !writeThrough;
+        }
+        // Copies of the block elsewhere are older than this one.
+        if (peer != null) {
+            peer.discard(address);
+        }
+        if (writeThrough) {
+            send(address, value);
+        } else if (next != null && exclusive) {
+            next.discard(address);
+        }
+        train(address);
+    }
+
+    // Write-through: queues a word for the next level, merging it into a waiting store if possible.
+    private void send(int address, int value) {
+        if (buffer.merge(address, value)) {
+            writeMerges++;
+            return;
+        }
+        if (buffer.isFull()) {
+            writeStalls++;
+            retireOldest();
+        }
+        buffer.add(address, value);
+    }
 
-        for (int i = 0; i < cacheSize; i++) {
-            CacheLine line = cacheLines.get(i);
+    private void retireOldest() {
+        int address = buffer.oldestAddress();
+        int value = buffer.oldestValue();
+        buffer.removeOldest();
+        writeThroughs++;
+        if (next != null) {
+            next.writeWord(address, value);
+        } else {
+            storeWord(address, value);
+        }
+    }
 
-            if (line.getTag() != null && line.getTag() == tag) {
-                updateLRU(i);
-                //System.out.println("Cache hit at line " + i + " for address " + address);
-                return line.getBlock()[wordOffset];
+    // Retires buffered words until none of the range is left, so a fill sees them.
+    private void drain(int baseAddress, int length) {
+        if (buffer != null) {
+            for (int n = buffer.pendingInRange(baseAddress, length); n > 0; n--) {
+                retireOldest();
             }
         }
+    }
 
-        //System.out.println("Cache miss for address " + address + ". Fetching from memory.");
-        return loadBlockFromMemory(address);
+    private void storeWord(int address, int value) {
+        if (combining != null) {
+            combining.update(address, value);  // A waiting block must not drain an older word over it
+        }
+        if (owner == null) {
+            memory.storeValue(address, value);
+        }
     }
 
-    public void write(int address, int value) {
-        int blockID = getBlockID(address);
+    // Counts a read or write asked of this level; returns the line holding the address, or -1 on a miss.
+    private int access(int address, boolean isWrite) {
+        int line = findLine(address);
+        if (line >= mainLines) {
+            countHit(address, isWrite);
+            line = promote(line);
+        } else if (line >= 0) {
+            countHit(address, isWrite);
+            policy.accessed(line / ways, line % ways);
+        }
+        if (line >= 0) {
+            trigger = prefetched[line];
+            if (trigger) {
+                prefetched[line] = false;
+                usefulPrefetches++;
+                classifier.referenced(address);
+            }
+        } else {
+            countMiss(address, isWrite);
+            trigger = true;
+        }
+        return line;
+    }
+
+    // Shows the prefetcher a demand access once it has been served.
+    private void train(int address) {
+        if (prefetcher != null) {
+            prefetcher.accessed(this, address, owner != null ? owner.instructionAddress : -1, trigger);
+        }
+    }
+
+    void prefetch(int address) {
+        if (address < 0 || address >= ADDRESS_RANGE || findLine(address) >= 0) {
+            return;
+        }
+        if (filling >= 0 && getSetIndex(address) == filling / ways) {
+            return;  // Could evict the block the level above is filling, which inclusion needs here
+        }
+        prefetches++;
+        int line = loadBlockFromMemory(address);
+        prefetched[line] = true;
+    }
+
+    private void countHit(int address, boolean isWrite) {
+        if (isWrite) {
+            writes++;
+        } else {
+            reads++;
+        }
+        hits++;
+        classifier.touch(address);
+    }
+
+    private void countMiss(int address, boolean isWrite) {
+        if (isWrite) {
+            writes++;
+        } else {
+            reads++;
+        }
+        misses++;
+        int kind = classifier.classify(address);
+        missesByKind[kind]++;
+        if (owner == null) {
+            profile.record(-1, address, kind);
+        } else if (owner.profiling) {
+            profile.record(owner.instructionAddress, address, kind);
+        }
+    }
+
+    private int findLine(int address) {
+        if (address >= 0 && address < ADDRESS_RANGE) {
+            return lineOfBlock[address >> offsetBits];
+        }
+        // Addresses outside the table can still be cached; search their set and the victim cache.
         int tag = getTag(address);
-        int wordOffset = blockID;
+        int first = getSetIndex(address) * ways;
+        for (int line = first; line < first + ways; line++) {
+            if (valid[line] && tags[line] == tag) {
+                return line;
+            }
+        }
+        for (int line = mainLines; line < tags.length; line++) {
+            if (valid[line] && tags[line] == address >>> offsetBits) {
+                return line;
+            }
+        }
+        return -1;
+    }
 
-        for (int i = 0; i < cacheSize; i++) {
-            CacheLine line = cacheLines.get(i);
+    private int loadBlockFromMemory(int address) {
+        int line = chooseLine(address);
+        int baseAddress = address & ~(blockSize - 1);  // Base address for the block
+        int base = line * blockSize;
+        drain(baseAddress, blockSize);
+        if (peer != null) {
+            peer.clean(baseAddress, blockSize);
+        }
+        if (next != null && exclusive) {
+            // Swap: take the block out of the next level before the victim moves down into it, so
+            // an older copy of the block there is never evicted past this one.
+            boolean wasDirty = next.takeBlock(baseAddress, swap, 0);
+            if (writeThrough && wasDirty) {
+                sendAll(baseAddress, swap, 0, blockSize);
+                wasDirty = false;
+            }
+            if (valid[line]) {
+                evict(line);
+            }
+            System.arraycopy(swap, 0, data, base, blockSize);
+            install(line, baseAddress, wasDirty);
+            return line;
+        }
+        if (valid[line]) {
+            evict(line);
+        }
+        if (next == null) {
+            memory.readBlock(baseAddress, data, base, blockSize);
+            forwardCombined(baseAddress, data, base);
+        } else {
+            next.readBlock(baseAddress, data, base, blockSize);
+        }
+        install(line, baseAddress, false);
+        return line;
+    }
 
-            if (line.getTag() != null && line.getTag() == tag) {
-                line.setBlock(wordOffset, value);
-                line.setDirty(true);
-                updateLRU(i);
-                //System.out.println("Cache hit! Data written to address " + address);
-                return;
+    // An empty way of the address's set, or else the replacement policy's victim.
+    private int chooseLine(int address) {
+        int set = getSetIndex(address);
+        int first = set * ways;
+        for (int line = first; line < first + ways; line++) {
+            if (!valid[line]) {
+                return line;  // Fill empty ways first
             }
         }
+        return first + policy.victim(set);
+    }
 
-        loadBlockFromMemory(address);
+    // Makes a line whose data has been filled hold the block at baseAddress.
+    private void install(int line, int baseAddress, boolean isDirty) {
+        tags[line] = getTag(baseAddress);
+        valid[line] = true;
+        dirty[line] = isDirty;
+        setResident(baseAddress, line);
+        policy.filled(line / ways, line % ways);
+    }
 
-        for (int i = 0; i < cacheSize; i++) {
-            CacheLine line = cacheLines.get(i);
-            if (line.getTag() == tag) {
-                line.setBlock(wordOffset, value);
-                line.setDirty(true);
-                updateLRU(i);
-                //System.out.println("Data written to newly loaded block at address " + address);
-                return;
+    private void evict(int line) {
+        if (line < mainLines && victimStamps.length > 0) {
+            toVictimCache(line);
+            return;
+        }
+        evictions++;
+        int baseAddress = blockAddress(line);
+        for (Cache level : upper) {
+            level.surrender(baseAddress, blockSize, this, line);
+        }
+        if (next != null && exclusive) {
+            if (dirty[line]) {
+                writeBacks++;
             }
+            next.insertBlock(baseAddress, data, line * blockSize, dirty[line]);
+        } else if (dirty[line]) {
+            writeBackToMemory(line);
         }
+        drop(line);
     }
 
-    private void updateLRU(int index) {
-        lruList.remove((Integer) index);
-        lruList.addLast(index);  // Most recently used goes to the end
+    // Moves the block of a set's line into the victim cache, evicting the victim cache's least
+    // recently inserted block if it is full.
+    private void toVictimCache(int line) {
+        int slot = mainLines;
+        for (int n = mainLines; n < tags.length; n++) {
+            if (!valid[n]) {
+                slot = n;
+                break;
+            }
+            if (victimStamps[n - mainLines] < victimStamps[slot - mainLines]) {
+                slot = n;
+            }
+        }
+        if (valid[slot]) {
+            evict(slot);
+        }
+        int baseAddress = blockAddress(line);
+        System.arraycopy(data, line * blockSize, data, slot * blockSize, blockSize);
+        tags[slot] = baseAddress >>> offsetBits;  // Victim lines hold the block number
+        valid[slot] = true;
+        dirty[slot] = dirty[line];
+        prefetched[slot] = prefetched[line];
+        prefetched[line] = false;  // Not useless yet: it moved
+        victimStamps[slot - mainLines] = ++victimClock;
+        victimInserts++;
+        drop(line);
+        setResident(baseAddress, slot);
     }
 
-    private int loadBlockFromMemory(int address) {
-        int evictIndex = lruList.removeFirst();
-        CacheLine evictLine = cacheLines.get(evictIndex);
+    // Swaps a victim cache block with a line of its set (an empty way, or else the replacement
+    // policy's victim, which takes the freed victim line). Returns the line the block is in now.
+    private int promote(int slot) {
+        victimHits++;
+        int baseAddress = blockAddress(slot);
+        int line = chooseLine(baseAddress);
+        boolean occupied = valid[line];
+        int lineAddress = occupied ? blockAddress(line) : 0;
+        boolean lineDirty = dirty[line];
+        boolean linePrefetched = prefetched[line];
+        for (int i = 0; i < blockSize; i++) {
+            int word = data[line * blockSize + i];
+            data[line * blockSize + i] = data[slot * blockSize + i];
+            data[slot * blockSize + i] = word;
+        }
+        tags[line] = getTag(baseAddress);
+        valid[line] = true;
+        dirty[line] = dirty[slot];
+        prefetched[line] = prefetched[slot];
+        setResident(baseAddress, line);
+        policy.filled(line / ways, line % ways);
+        if (occupied) {
+            tags[slot] = lineAddress >>> offsetBits;
+            dirty[slot] = lineDirty;
+            prefetched[slot] = linePrefetched;
+            victimStamps[slot - mainLines] = ++victimClock;
+            victimInserts++;
+            setResident(lineAddress, slot);
+        } else {
+            valid[slot] = false;  // The empty way's words were cleared when it was dropped
+            dirty[slot] = false;
+            prefetched[slot] = false;
+        }
+        return line;
+    }
 
-        if (evictLine.isDirty()) {
-            writeBackToMemory(evictLine);
+    // Marks a line empty.
+    private void drop(int line) {
+        if (prefetched[line]) {
+            prefetched[line] = false;
+            uselessPrefetches++;
         }
+        setResident(blockAddress(line), -1);
+        valid[line] = false;
+        dirty[line] = false;
+        Arrays.fill(data, line * blockSize, (line + 1) * blockSize, -1);
+    }
 
-        int tag = getTag(address);
-        int baseAddress = (address & ~0b111);  // Base address for the block
+    // ---- Requests from the other caches of a hierarchy ----
 
-        for (int i = 0; i < blockSize; i++) {
-            int word = memory.loadMemoryValue(baseAddress + i);
-            evictLine.setBlock(i, word);
+    // Inclusive next level: copies the requested words out, loading their block on a miss.
+    void readBlock(int baseAddress, int[] dest, int offset, int length) {
+        int line = lookup(baseAddress, false);
+        System.arraycopy(data, line * blockSize + getBlockID(baseAddress), dest, offset, length);
+        filling = line;
+        train(baseAddress);
+        filling = -1;
+    }
+
+    // Inclusive next level: takes a dirty block written back from the level above.
+    void writeBlock(int baseAddress, int[] src, int offset, int length) {
+        int line = lookup(baseAddress, true);
+        System.arraycopy(src, offset, data, line * blockSize + getBlockID(baseAddress), length);
+        if (writeThrough) {
+            sendAll(baseAddress, src, offset, length);
+        } else {
+            dirty[line] = true;
+        }
+    }
+
+    // Next level of a write-through cache: takes one word. A miss allocates only in a write-back,
+    // non-exclusive level; otherwise the word goes on down.
+    void writeWord(int address, int value) {
+        int line = access(address, true);
+        if (line < 0 && !writeThrough && !victimOnly) {
+            line = loadBlockFromMemory(address);
+        }
+        if (line >= 0) {
+            data[line * blockSize + getBlockID(address)] = value;
+            dirty[line] |= !writeThrough;
+        }
+        if (writeThrough) {
+            send(address, value);
+        } else if (line < 0) {
+            storeWord(address, value);
+        }
+    }
+
+    private void sendAll(int baseAddress, int[] src, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            send(baseAddress + i, src[offset + i]);
+        }
+    }
+
+    private int lookup(int address, boolean isWrite) {
+        int line = access(address, isWrite);
+        if (line < 0) {
+            line = loadBlockFromMemory(address);
+        }
+        return line;
+    }
+
+    // Exclusive next level: hands over the block (removing it here) or reads it from memory.
+    // Returns whether the block was dirty.
+    boolean takeBlock(int baseAddress, int[] dest, int offset) {
+        int line = findLine(baseAddress);
+        if (line < 0) {
+            countMiss(baseAddress, false);
+            memory.readBlock(baseAddress, dest, offset, blockSize);
+            forwardCombined(baseAddress, dest, offset);
+            return false;
         }
+        countHit(baseAddress, false);
+        if (line >= mainLines) {
+            victimHits++;
+        }
+        if (prefetched[line]) {
+            prefetched[line] = false;  // Used by the level above
+            usefulPrefetches++;
+        }
+        boolean wasDirty = dirty[line];
+        System.arraycopy(data, line * blockSize, dest, offset, blockSize);
+        drop(line);
+        return wasDirty;
+    }
 
-        evictLine.setTag(tag);  
-        evictLine.setDirty(false);
-        lruList.addLast(evictIndex);  
+    // Exclusive next level: takes a block evicted (or cleaned) above. The block above is always the
+    // newest copy, so it replaces one already held here.
+    void insertBlock(int baseAddress, int[] src, int offset, boolean isDirty) {
+        if (writeThrough && isDirty) {
+            sendAll(baseAddress, src, offset, blockSize);
+            isDirty = false;
+        }
+        int line = findLine(baseAddress);
+        if (line >= 0) {
+            System.arraycopy(src, offset, data, line * blockSize, blockSize);
+            dirty[line] |= isDirty;
+            return;
+        }
+        line = chooseLine(baseAddress);
+        if (valid[line]) {
+            evict(line);
+        }
+        System.arraycopy(src, offset, data, line * blockSize, blockSize);
+        install(line, baseAddress, isDirty);
+    }
 
-        return evictIndex;
+    // Inclusive level above an evicting cache: drops every block in the range, merging dirty words
+    // into the evicting line first.
+    private void surrender(int baseAddress, int length, Cache below, int belowLine) {
+        for (int block = baseAddress; block < baseAddress + length; block += blockSize) {
+            int line = findLine(block);
+            if (line < 0) {
+                continue;
+            }
+            if (dirty[line]) {
+                writeBacks++;
+                System.arraycopy(data, line * blockSize, below.data, belowLine * below.blockSize + (block - baseAddress), blockSize);
+                if (below.writeThrough) {
+                    below.sendAll(block, data, line * blockSize, blockSize);
+                } else {
+                    below.dirty[belowLine] = true;
+                }
+            }
+            drop(line);
+        }
     }
 
-    private void writeBackToMemory(CacheLine cacheLine) {
-        int tag = cacheLine.getTag();
+    // Peer of a cache that is about to fill a block: writes back dirty copies of the range and
+    // drains its buffered words.
+    private void clean(int baseAddress, int length) {
+        drain(baseAddress, length);
+        for (int block = baseAddress & ~(blockSize - 1); block < baseAddress + length; block += blockSize) {
+            drainCombined(block);
+            int line = findLine(block);
+            if (line >= 0 && dirty[line]) {
+                writeBackToMemory(line);
+                dirty[line] = false;
+            }
+        }
+    }
+
+    // Drops a stale copy of the word's block after another cache wrote a newer one. The other words
+    // of the block may be newer here (a dirty line, or words still in the write buffer), so they
+    // are sent on first, ahead of the write, rather than lost or retired over it later.
+    private void discard(int address) {
+        drain(address & ~(blockSize - 1), blockSize);
+        int line = findLine(address);
+        if (line >= 0) {
+            if (dirty[line]) {
+                writeBackToMemory(line);
+            }
+            drop(line);
+        }
+    }
+
+    // First address of the block held in a valid line.
+    private int blockAddress(int line) {
+        if (line >= mainLines) {
+            return tags[line] << offsetBits;
+        }
+        int set = line / ways;
+        return ((tags[line] << setBits) | set) << offsetBits;
+    }
+
+    private void setResident(int baseAddress, int line) {
+        if (baseAddress >= 0 && baseAddress < ADDRESS_RANGE) {
+            lineOfBlock[baseAddress >> offsetBits] = line;
+        }
+    }
+
+    private void writeBackToMemory(int line) {
+        writeBacks++;
+        int baseAddress = blockAddress(line);
+        int base = line * blockSize;
+        if (next == null && combining != null) {
+            combine(baseAddress, base);
+        } else if (next == null) {
+            if (owner == null) {
+                memory.writeBlock(baseAddress, data, base, blockSize);
+            }
+        } else if (exclusive) {
+            next.insertBlock(baseAddress, data, base, true);
+        } else {
+            next.writeBlock(baseAddress, data, base, blockSize);
+        }
+    }
+
+    // Queues a block written back for Memory, merging it into its waiting entry if there is one.
+    private void combine(int baseAddress, int base) {
+        int entry = combining.find(baseAddress);
+        if (entry >= 0) {
+            combiningMerges++;
+        } else {
+            if (combining.isFull()) {
+                drainOldestBlock();
+            }
+            entry = combining.add(baseAddress);
+        }
+        combining.write(entry, 0, data, base, blockSize);
+    }
+
+    private void drainOldestBlock() {
+        int entry = combining.oldest();
+        int baseAddress = combining.baseAddress(entry);
+        combining.removeOldest();  // Its words stay readable until the next add
+        combiningDrains++;
         for (int i = 0; i < blockSize; i++) {
-            int wordAddress = (tag << 3) + i;
-            memory.storeValue(wordAddress, cacheLine.getBlock()[i]);
+            if (combining.isWritten(entry, i)) {
+                storeWord(baseAddress + i, combining.word(entry, i));
+            }
+        }
+    }
+
+    // Copies the waiting words of the block at baseAddress over a block just read from Memory. In a
+    // CacheHierarchy Memory already holds the newest words and the buffer only counts.
+    private void forwardCombined(int baseAddress, int[] dest, int offset) {
+        int entry = combining != null && owner == null ? combining.find(baseAddress) : -1;
+        if (entry >= 0) {
+            for (int i = 0; i < blockSize; i++) {
+                if (combining.isWritten(entry, i)) {
+                    dest[offset + i] = combining.word(entry, i);
+                }
+            }
+        }
+    }
+
+    // Drains waiting blocks until the block at baseAddress is not among them, so the peer's fill
+    // from Memory sees it.
+    private void drainCombined(int baseAddress) {
+        if (combining != null) {
+            for (int n = combining.pendingFor(baseAddress); n > 0; n--) {
+                drainOldestBlock();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getWriteBackCount() {
+        return writeBacks;
+    }
+
+    public long getReadCount() {
+        return reads;
+    }
+
+    public long getWriteCount() {
+        return writes;
+    }
+
+    public long getColdMissCount() {
+        return missesByKind[MissClassifier.COLD];
+    }
+
+    public long getCapacityMissCount() {
+        return missesByKind[MissClassifier.CAPACITY];
+    }
+
+    public long getConflictMissCount() {
+        return missesByKind[MissClassifier.CONFLICT];
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public MissProfile getMissProfile() {
+        return profile;
+    }
+
+    public long getWriteThroughCount() {
+        return writeThroughs;
+    }
+
+    public long getWriteMergeCount() {
+        return writeMerges;
+    }
+
+    public long getWriteStallCount() {
+        return writeStalls;
+    }
+
+    public long getPrefetchCount() {
+        return prefetches;
+    }
+
+    public long getUsefulPrefetchCount() {
+        return usefulPrefetches;
+    }
+
+    public long getUselessPrefetchCount() {
+        return uselessPrefetches;
+    }
+
+    public long getVictimHitCount() {
+        return victimHits;
+    }
+
+    public long getVictimInsertCount() {
+        return victimInserts;
+    }
+
+    public long getCombiningMergeCount() {
+        return combiningMerges;
+    }
+
+    public long getCombiningDrainCount() {
+        return combiningDrains;
+    }
+
+    // ---- Keeping the lines in step with Memory (see CacheHierarchy) ----
+
+    // Another writer (DMA, input, the front panel) stored a word: updates the copies held here.
+    void update(int address, int value) {
+        int line = findLine(address);
+        if (line >= 0) {
+            data[line * blockSize + getBlockID(address)] = value;
+        }
+        if (buffer != null) {
+            buffer.merge(address, value);
+        }
+        if (combining != null) {
+            combining.update(address, value);
+        }
+    }
+
+    // Memory was reset: nothing held here is current any more.
+    void invalidateAll() {
+        for (int line = 0; line < tags.length; line++) {
+            if (valid[line]) {
+                drop(line);
+            }
+        }
+        if (buffer != null) {
+            buffer.clear();
+        }
+        if (combining != null) {
+            combining.clear();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public void restore(Snapshot snapshot) {
+        if (snapshot.config.getLines() != config.getLines() || snapshot.config.getWays() != ways
+                || snapshot.config.getBlockSize() != blockSize || !snapshot.config.getPolicy().equals(config.getPolicy())
+                || snapshot.config.isWriteThrough() != writeThrough
+                || !snapshot.config.getPrefetcher().equals(config.getPrefetcher())
+                || snapshot.config.getVictimLines() != config.getVictimLines()
+                || snapshot.config.getWriteCombiningEntries() != config.getWriteCombiningEntries()) {
+            throw new IllegalArgumentException("Cache snapshot " + snapshot.config + " " + snapshot.config.getPolicy()
+                + " " + snapshot.config.getWritePolicy() + " does not match " + config + " " + config.getPolicy()
+                + " " + config.getWritePolicy());
+        }
+        System.arraycopy(snapshot.tags, 0, tags, 0, tags.length);
+        System.arraycopy(snapshot.valid, 0, valid, 0, valid.length);
+        System.arraycopy(snapshot.dirty, 0, dirty, 0, dirty.length);
+        System.arraycopy(snapshot.data, 0, data, 0, data.length);
+        Arrays.fill(lineOfBlock, -1);
+        for (int line = 0; line < tags.length; line++) {
+            if (valid[line]) {
+                setResident(blockAddress(line), line);
+            }
         }
+        policy = snapshot.policy.copy();
+        buffer = snapshot.buffer != null ? snapshot.buffer.copy() : null;
+        prefetcher = snapshot.prefetcher != null ? snapshot.prefetcher.copy() : null;
+        System.arraycopy(snapshot.prefetched, 0, prefetched, 0, prefetched.length);
+        classifier.restore(snapshot.classifier);
+        profile = snapshot.profile.copy();
+        reads = snapshot.reads;
+        writes = snapshot.writes;
+        hits = snapshot.hits;
+        misses = snapshot.misses;
+        System.arraycopy(snapshot.missesByKind, 0, missesByKind, 0, missesByKind.length);
+        evictions = snapshot.evictions;
+        writeBacks = snapshot.writeBacks;
+        writeThroughs = snapshot.writeThroughs;
+        writeMerges = snapshot.writeMerges;
+        writeStalls = snapshot.writeStalls;
+        prefetches = snapshot.prefetches;
+        usefulPrefetches = snapshot.usefulPrefetches;
+        uselessPrefetches = snapshot.uselessPrefetches;
+        System.arraycopy(snapshot.victimStamps, 0, victimStamps, 0, victimStamps.length);
+        victimClock = snapshot.victimClock;
+        combining = snapshot.combining != null ? snapshot.combining.copy() : null;
+        victimHits = snapshot.victimHits;
+        victimInserts = snapshot.victimInserts;
+        combiningMerges = snapshot.combiningMerges;
+        combiningDrains = snapshot.combiningDrains;
     }
 
     public String getCacheStateString() {
         StringBuilder cacheState = new StringBuilder();
 
-        for (int i = 0; i < cacheSize; i++) {
-            cacheState.append(String.format("%03d ", i));  // Line number
-            CacheLine line = cacheLines.get(i);
+        for (int line = 0; line < tags.length; line++) {
+            cacheState.append(String.format("%03d ", line));  // Line number
 
-            if (line.getTag() != -1) {  // Valid tag check
-                cacheState.append(String.format("%06d ", line.getTag()));
+            if (valid[line]) {  // Valid tag check
+                cacheState.append(String.format("%06d ", tags[line]));
             } else {
                 cacheState.append("------ ");  // Placeholder for uninitialized line
             }
 
-            int[] block = line.getBlock();
+            int base = line * blockSize;
             for (int j = 0; j < blockSize; j++) {
-                if (block[j] != -1) {  // Only print initialized data
-                    cacheState.append(String.format("%06d ", block[j]));
+                if (data[base + j] != -1) {  // Only print initialized data
+                    cacheState.append(String.format("%06d ", data[base + j]));
                 } else {
                     cacheState.append("------ ");
                 }
@@ -0,0 +1,260 @@
+package components;
+
+/*
+ * CacheConfig: The configuration of a Cache: the number of sets, the number of ways (lines per set),
+ * the block size in words, the replacement policy (see ReplacementPolicy), the seed of the
+ * random policy, the write policy, the prefetcher (see Prefetcher), and the sizes of the optional
+ * victim cache and write-combining buffer. Sets and block size must be powers of two so an address splits into
+ * tag | set index | word offset with shifts and masks. The default is the simulator's original
+ * cache: one set of 4 ways (fully associative) with 8-word blocks, LRU replacement, write-back, no
+ * prefetching, no victim cache and no write-combining buffer.
+ *
+ * Write policies:
+ *   write-back     A write allocates the block on a miss and marks the line dirty; the block
+ *                  goes to the next level when it is evicted.
+ *   write-through  A write updates the line only on a hit (no allocation on a miss) and always
+ *                  sends the word on through a write buffer of the configured depth (default 4).
+ *
+ * CacheConfig(int sets, int ways, int blockSize): Creates a geometry with LRU replacement.
+ * - @param sets: Number of sets (a power of two).
+ * - @param ways: Lines per set (1 for direct-mapped).
+ * - @param blockSize: Words per line (a power of two).
+ * - @throws IllegalArgumentException: If a value is out of range.
+ *
+ * CacheConfig(int sets, int ways, int blockSize, String policy, long seed): Creates a configuration.
+ * - @param policy: The replacement policy name (lru, plru, fifo, random or lfu).
+ * - @param seed: The seed of the random policy.
+ * - @throws IllegalArgumentException: If a value is out of range or the policy does not fit.
+ *
+ * withPolicy(String policy), withSeed(long seed): Return a copy with another policy or seed.
+ * - @return CacheConfig: The new configuration.
+ *
+ * withWritePolicy(String writePolicy), withWriteBuffer(int depth): Return a copy with another write
+ * policy or write-buffer depth.
+ * - @throws IllegalArgumentException: If the write policy is unknown or the depth is below 1.
+ * - @return CacheConfig: The new configuration.
+ *
+ * withPrefetcher(String prefetcher, int degree, int distance): Returns a copy with another
+ * prefetcher: none, next-line, stride or stream; degree is the number of blocks (or strides) each
+ * prefetch covers and distance how far ahead the first one is.
+ * - @throws IllegalArgumentException: If the prefetcher is unknown or the degree or distance is below 1.
+ * - @return CacheConfig: The new configuration.
+ *
+ * withVictimCache(int lines): Returns a copy with a fully associative victim cache of that many
+ * lines (0 for none) holding the blocks evicted from the sets.
+ * - @throws IllegalArgumentException: If lines is negative.
+ * - @return CacheConfig: The new configuration.
+ *
+ * withWriteCombining(int entries): Returns a copy with a write-combining buffer of that many blocks
+ * (0 for none) between the cache and Memory; used only by a cache that writes back to Memory.
+ * - @throws IllegalArgumentException: If entries is negative.
+ * - @return CacheConfig: The new configuration.
+ *
+ * parse(String geometry): Parses "SETSxWAYSxBLOCK", e.g. "16x2x8".
+ * - @param geometry: The geometry string.
+ * - @return CacheConfig: The geometry.
+ * - @throws IllegalArgumentException: If the string is malformed or a value is out of range.
+ *
+ * getSets(), getWays(), getBlockSize(), getLines(): The geometry; getLines() is sets * ways.
+ * - @return int: The value.
+ *
+ * getPolicy(), getSeed(): The replacement policy name and the random seed.
+ *
+ * getWritePolicy(), isWriteThrough(), getWriteBufferDepth(): The write policy and write-buffer depth.
+ *
+ * getPrefetcher(), getPrefetchDegree(), getPrefetchDistance(): The prefetcher name, degree and distance.
+ *
+ * getVictimLines(), getWriteCombiningEntries(): The victim cache and write-combining buffer sizes.
+ *
+ * toString(): Returns the geometry in the form parse() accepts (without the policy).
+ * - @return String: The geometry string.
+ */
+
+import java.util.Arrays;
+
+public final class CacheConfig {
+    public static final CacheConfig DEFAULT = new CacheConfig(1, 4, 8);
+    public static final String[] WRITE_POLICIES = {"write-back", "write-through"};
+
+    private static final int MAX_WORDS = 1 << 16;  // Far beyond the 2048-word memory
+
+    private final int sets;
+    private final int ways;
+    private final int blockSize;
+    private final String policy;
+    private final long seed;
+    private final boolean writeThrough;
+    private final int writeBufferDepth;
+    private final String prefetcher;
+    private final int prefetchDegree;
+    private final int prefetchDistance;
+    private final int victimLines;
+    private final int writeCombiningEntries;
+
+    public CacheConfig(int sets, int ways, int blockSize) {
+        this(sets, ways, blockSize, "lru", 1);
+    }
+
+    public CacheConfig(int sets, int ways, int blockSize, String policy, long seed) {
+        this(sets, ways, blockSize, policy, seed, false, 4, "none", 1, 1, 0, 0);
+    }
+
+    private CacheConfig(int sets, int ways, int blockSize, String policy, long seed,
+                        boolean writeThrough, int writeBufferDepth, String prefetcher,
+                        int prefetchDegree, int prefetchDistance, int victimLines, int writeCombiningEntries) {
+        if (sets < 1 || Integer.bitCount(sets) != 1) {
+            throw new IllegalArgumentException("Number of cache sets must be a power of two: " + sets);
+        }
+        if (ways < 1) {
+            throw new IllegalArgumentException("Number of cache ways must be at least 1: " + ways);
+        }
+        if (blockSize < 1 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Cache block size must be a power of two: " + blockSize);
+        }
+        if ((long) sets * ways * blockSize > MAX_WORDS) {
+            throw new IllegalArgumentException("Cache larger than " + MAX_WORDS + " words");
+        }
+        if (!Arrays.asList(ReplacementPolicy.NAMES).contains(policy)) {
+            throw new IllegalArgumentException("Unknown cache replacement policy: " + policy);
+        }
+        if (policy.equals("plru") && Integer.bitCount(ways) != 1) {
+            throw new IllegalArgumentException("Tree pseudo-LRU needs a power-of-two number of ways: " + ways);
+        }
+        if (writeBufferDepth < 1) {
+            throw new IllegalArgumentException("Write buffer depth must be at least 1: " + writeBufferDepth);
+        }
+        if (!Arrays.asList(Prefetcher.NAMES).contains(prefetcher)) {
+            throw new IllegalArgumentException("Unknown prefetcher: " + prefetcher);
+        }
+        if (prefetchDegree < 1 || prefetchDistance < 1) {
+            throw new IllegalArgumentException("Prefetch degree and distance must be at least 1: " + prefetchDegree + ", " + prefetchDistance);
+        }
+        if (victimLines < 0 || writeCombiningEntries < 0) {
+            throw new IllegalArgumentException("Victim cache and write-combining sizes must not be negative: " + victimLines + ", " + writeCombiningEntries);
+        }
+        this.sets = sets;
+        this.ways = ways;
+        this.blockSize = blockSize;
+        this.policy = policy;
+        this.seed = seed;
+        this.writeThrough = writeThrough;
+        this.writeBufferDepth = writeBufferDepth;
+        this.prefetcher = prefetcher;
+        this.prefetchDegree = prefetchDegree;
+        this.prefetchDistance = prefetchDistance;
+        this.victimLines = victimLines;
+        this.writeCombiningEntries = writeCombiningEntries;
+    }
+
+    public CacheConfig withPolicy(String policy) {
+        return new CacheConfig(sets, ways, blockSize, policy.toLowerCase(), seed, writeThrough, writeBufferDepth,
+                               prefetcher, prefetchDegree, prefetchDistance, victimLines, writeCombiningEntries);
+    }
+
+    public CacheConfig withSeed(long seed) {
+        return new CacheConfig(sets, ways, blockSize, policy, seed, writeThrough, writeBufferDepth,
+                               prefetcher, prefetchDegree, prefetchDistance, victimLines, writeCombiningEntries);
+    }
+
+    public CacheConfig withWritePolicy(String writePolicy) {
+        String name = writePolicy.toLowerCase();
+        if (!Arrays.asList(WRITE_POLICIES).contains(name)) {
+            throw new IllegalArgumentException("Unknown cache write policy: " + writePolicy);
+        }
+        return new CacheConfig(sets, ways, blockSize, policy, seed, name.equals("write-through"), writeBufferDepth,
+                               prefetcher, prefetchDegree, prefetchDistance, victimLines, writeCombiningEntries);
+    }
+
+    public CacheConfig withWriteBuffer(int depth) {
+        return new CacheConfig(sets, ways, blockSize, policy, seed, writeThrough, depth,
+                               prefetcher, prefetchDegree, prefetchDistance, victimLines, writeCombiningEntries);
+    }
+
+    public CacheConfig withPrefetcher(String prefetcher, int degree, int distance) {
+        return new CacheConfig(sets, ways, blockSize, policy, seed, writeThrough, writeBufferDepth,
+                               prefetcher.toLowerCase(), degree, distance, victimLines, writeCombiningEntries);
+    }
+
+    public CacheConfig withVictimCache(int lines) {
+        return new CacheConfig(sets, ways, blockSize, policy, seed, writeThrough, writeBufferDepth,
+                               prefetcher, prefetchDegree, prefetchDistance, lines, writeCombiningEntries);
+    }
+
+    public CacheConfig withWriteCombining(int entries) {
+        return new CacheConfig(sets, ways, blockSize, policy, seed, writeThrough, writeBufferDepth,
+                               prefetcher, prefetchDegree, prefetchDistance, victimLines, entries);
+    }
+
+    public static CacheConfig parse(String geometry) {
+        String[] parts = geometry.toLowerCase().split("x");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Cache geometry must be SETSxWAYSxBLOCK: " + geometry);
+        }
+        try {
+            return new CacheConfig(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cache geometry must be SETSxWAYSxBLOCK: " + geometry);
+        }
+    }
+
+    public int getSets() {
+        return sets;
+    }
+
+    public int getWays() {
+        return ways;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getLines() {
+        return sets * ways;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getWritePolicy() {
+        return writeThrough ? "write-through" : "write-back";
+    }
+
+    public boolean isWriteThrough() {
+        return writeThrough;
+    }
+
+    public int getWriteBufferDepth() {
+        return writeBufferDepth;
+    }
+
+    public String getPrefetcher() {
+        return prefetcher;
+    }
+
+    public int getPrefetchDegree() {
+        return prefetchDegree;
+    }
+
+    public int getPrefetchDistance() {
+        return prefetchDistance;
+    }
+
+    public int getVictimLines() {
+        return victimLines;
+    }
+
+    public int getWriteCombiningEntries() {
+        return writeCombiningEntries;
+    }
+
+    @Override
+    public String toString() {
+        return sets + "x" + ways + "x" + blockSize;
+    }
+}
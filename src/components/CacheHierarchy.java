@@ -0,0 +1,351 @@
+package components;
+
+/*
+ * CacheHierarchy: The caches of one machine, built from Cache instances: an L1 data cache, an
+ * optional L1 instruction cache (split L1) and an optional unified L2 behind them. Without the
+ * optional levels it is the simulator's original single cache. When there is an L1I, the CPU
+ * fetches every instruction through it; every data load and store of the CPU goes through the
+ * L1D (see MemoryHierarchy). Every level keeps its own hit, miss and write-back counts.
+ *
+ * Memory stays the functional state of the machine: store() writes the word to Memory first and
+ * then to the L1D, and the hierarchy listens to Memory so words stored by anyone else (input
+ * devices, the front panel, checkpoint restores) update the copies held in every level. The caches
+ * never write Memory themselves: which level holds a block, what is dirty and what is written back
+ * or through is the timing model, reported by the counters, and a load always returns the current
+ * word because every level above the one that hits is kept at least as new as it.
+ *
+ * The L2 is either inclusive (it holds every block the L1s hold, and evicting a block there
+ * invalidates it in the L1s) or exclusive (it holds only blocks evicted from the L1s, and a block
+ * moves up out of it on an L1 miss). See Cache for how blocks move between the levels.
+ *
+ * The interpreter fetches through the L1I before each instruction. Translated blocks (TieredEngine,
+ * AotEngine) report their fetches when they return, so the L1I sees the same addresses in the same
+ * order, but after the block's data accesses instead of interleaved with them; counts can differ
+ * slightly between engines when a block writes into the cache blocks it runs from.
+ *
+ * CacheHierarchy(Memory memory, CacheConfig dataConfig): Creates a single cache.
+ * - @param memory: The memory behind the caches.
+ * - @param dataConfig: The configuration of the cache.
+ *
+ * CacheHierarchy(Memory memory, Cache dataCache): Puts an existing, unconnected cache in front of memory.
+ * - @param dataCache: The cache.
+ *
+ * CacheHierarchy(Memory memory, CacheConfig instructionConfig, CacheConfig dataConfig,
+ * CacheConfig l2Config, boolean exclusive): Creates a hierarchy.
+ * - @param instructionConfig: The L1I configuration, or null for no instruction cache.
+ * - @param dataConfig: The L1D configuration.
+ * - @param l2Config: The L2 configuration, or null for no L2.
+ * - @param exclusive: True for an exclusive L2, false for an inclusive one.
+ * - @throws IllegalArgumentException: If the L2 blocks are smaller than the L1 blocks (inclusive)
+ *   or of a different size (exclusive).
+ *
+ * getInstructionCache(), getDataCache(), getL2Cache(): The levels; the optional ones may be null.
+ * - @return Cache: The cache.
+ *
+ * isExclusive(): Returns whether the L2 is exclusive.
+ * - @return boolean: True for an exclusive L2.
+ *
+ * getLevels(), getLevelNames(): The levels present, in the order L1I, L1D, L2, and their names.
+ * - @return Cache[] or String[]: The levels or their names.
+ *
+ * load(int address), store(int address, int value): The CPU's data accesses (see MemoryHierarchy).
+ *
+ * setInstructionAddress(int address): Names the instruction the following accesses belong to, so
+ * every level's MissProfile can blame its misses on it. The interpreter calls it through fetch();
+ * translated code calls it (through BlockRuntime.at) before each instruction that reads or writes
+ * data, since it reports its instruction fetches only when the block returns.
+ * - @param address: The instruction address.
+ *
+ * setMissProfiling(boolean profiling): Turns the levels' MissProfiles on (the default) or off. A
+ * profile grows with every new instruction and address pair, so long trace replays turn it off.
+ * - @param profiling: True to record misses by instruction and address.
+ *
+ * fetch(int address): An instruction fetch: sets the instruction address and reads the word
+ * through the L1I, if there is one.
+ *
+ * setTraceWriter(TraceWriter trace): Records every load (READ), store (WRITE) and fetch (FETCH)
+ * from now on, with the instruction address as PC; null stops recording.
+ * - @param trace: The trace writer, or null.
+ *
+ * access(int kind, int address, int pc): Replays one trace record (see TraceConsumer): a READ is a
+ * load, a WRITE a store of the word Memory already holds, a FETCH reads through the L1I, if there
+ * is one, and a FLUSH invalidates every level. Other kinds are ignored. The PC names the
+ * instruction, as setInstructionAddress() does.
+ *
+ * getStatistics(): Describes every level's configuration and counters, one line per level.
+ * - @return String: The statistics.
+ *
+ * getMissReport(int limit): Lists the instruction and data address pairs with the most misses,
+ * per level.
+ * - @param limit: The most pairs listed per level.
+ * - @return String: The report.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class CacheHierarchy implements MemoryHierarchy, MemoryListener, TraceConsumer {
+    private final Memory memory;
+    private final Cache instructionCache;
+    private final Cache dataCache;
+    private final Cache l2Cache;
+    private final boolean exclusive;
+    private final Cache[] levels;
+    private final String[] levelNames;
+    private TraceWriter trace;
+    private boolean storing;  // Set while store() writes Memory, whose callback is then ours
+    int instructionAddress = -1;  // Read by the levels when they record a miss
+    boolean profiling = true;
+
+    public CacheHierarchy(Memory memory, CacheConfig dataConfig) {
+        this(memory, null, dataConfig, null, false);
+    }
+
+    public CacheHierarchy(Memory memory, Cache dataCache) {
+        this(memory, null, dataCache, null, false);
+    }
+
+    public CacheHierarchy(Memory memory, CacheConfig instructionConfig, CacheConfig dataConfig,
+                          CacheConfig l2Config, boolean exclusive) {
+        this(memory, cache(memory, instructionConfig),
+             new Cache(memory, checkBlockSizes(instructionConfig, dataConfig, l2Config, exclusive)),
+             cache(memory, l2Config), exclusive);
+    }
+
+    private CacheHierarchy(Memory memory, Cache instructionCache, Cache dataCache, Cache l2Cache, boolean exclusive) {
+        this.memory = memory;
+        this.exclusive = exclusive;
+        this.dataCache = dataCache;
+        this.instructionCache = instructionCache;
+        this.l2Cache = l2Cache;
+
+        List<Cache> present = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (instructionCache != null) {
+            instructionCache.setPeer(dataCache);
+            dataCache.setPeer(instructionCache);
+            present.add(instructionCache);
+            names.add("L1I");
+        }
+        present.add(dataCache);
+        names.add(instructionCache != null || l2Cache != null ? "L1D" : "Cache");
+        if (l2Cache != null) {
+            if (instructionCache != null) {
+                instructionCache.connect(l2Cache, exclusive);
+            }
+            dataCache.connect(l2Cache, exclusive);
+            present.add(l2Cache);
+            names.add("L2");
+        }
+        this.levels = present.toArray(new Cache[0]);
+        this.levelNames = names.toArray(new String[0]);
+        for (Cache level : levels) {
+            level.setOwner(this);
+        }
+        memory.addListener(this);
+    }
+
+    private static Cache cache(Memory memory, CacheConfig config) {
+        return config != null ? new Cache(memory, config) : null;
+    }
+
+    // Returns dataConfig once the levels are known to fit together.
+    private static CacheConfig checkBlockSizes(CacheConfig instructionConfig, CacheConfig dataConfig,
+                                               CacheConfig l2Config, boolean exclusive) {
+        if (l2Config != null) {
+            checkBlockSize(l2Config, dataConfig, exclusive);
+            if (instructionConfig != null) {
+                checkBlockSize(l2Config, instructionConfig, exclusive);
+            }
+        }
+        return dataConfig;
+    }
+
+    private static void checkBlockSize(CacheConfig l2Config, CacheConfig l1Config, boolean exclusive) {
+        if (exclusive && l2Config.getBlockSize() != l1Config.getBlockSize()) {
+            throw new IllegalArgumentException("An exclusive L2 needs the L1 block size: " + l2Config + " behind " + l1Config);
+        }
+        if (l2Config.getBlockSize() < l1Config.getBlockSize()) {
+            throw new IllegalArgumentException("L2 blocks must be at least as large as L1 blocks: " + l2Config + " behind " + l1Config);
+        }
+    }
+
+    public Cache getInstructionCache() {
+        return instructionCache;
+    }
+
+    public Cache getDataCache() {
+        return dataCache;
+    }
+
+    public Cache getL2Cache() {
+        return l2Cache;
+    }
+
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    public Cache[] getLevels() {
+        return levels.clone();
+    }
+
+    public String[] getLevelNames() {
+        return levelNames.clone();
+    }
+
+    @Override
+    public int load(int address) {
+        if (trace != null) {
+            trace.record(TraceReader.READ, address, instructionAddress);
+        }
+        return dataCache.read(address);
+    }
+
+    @Override
+    public void store(int address, int value) {
+        if (trace != null) {
+            trace.record(TraceReader.WRITE, address, instructionAddress);
+        }
+        storing = true;
+        memory.storeValue(address, value);
+        storing = false;
+        dataCache.write(address, memory.loadMemoryValue(address));  // The word as Memory keeps it
+    }
+
+    public void setInstructionAddress(int address) {
+        this.instructionAddress = address;
+    }
+
+    public void setMissProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    public void fetch(int address) {
+        this.instructionAddress = address;
+        if (trace != null) {
+            trace.record(TraceReader.FETCH, address, address);
+        }
+        if (instructionCache != null) {
+            instructionCache.read(address);
+        }
+    }
+
+    public void setTraceWriter(TraceWriter trace) {
+        this.trace = trace;
+    }
+
+    @Override
+    public void access(int kind, int address, int pc) {
+        instructionAddress = pc;
+        switch (kind) {
+            case TraceReader.READ:
+                dataCache.read(address);
+                break;
+            case TraceReader.WRITE:
+                dataCache.write(address, memory.loadMemoryValue(address));
+                break;
+            case TraceReader.FETCH:
+                if (instructionCache != null) {
+                    instructionCache.read(address);
+                }
+                break;
+            case TraceReader.FLUSH:
+                memoryReset();
+                break;
+            default:
+                break;  // Dinero escapes
+        }
+    }
+
+    @Override
+    public void wordStored(int address) {
+        if (storing) {
+            return;
+        }
+        int value = memory.loadMemoryValue(address);
+        for (Cache level : levels) {
+            level.update(address, value);
+        }
+    }
+
+    @Override
+    public void memoryReset() {
+        for (Cache level : levels) {
+            level.invalidateAll();
+        }
+    }
+
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder();
+        for (int n = 0; n < levels.length; n++) {
+            CacheConfig config = levels[n].getConfig();
+            statistics.append(levelNames[n]).append(" (").append(config).append(' ').append(config.getPolicy());
+            if (config.isWriteThrough()) {
+                statistics.append(" write-through/").append(config.getWriteBufferDepth());
+            }
+            if (!config.getPrefetcher().equals("none")) {
+                statistics.append(' ').append(config.getPrefetcher()).append('/').append(config.getPrefetchDegree())
+                          .append('/').append(config.getPrefetchDistance());
+            }
+            if (config.getVictimLines() > 0) {
+                statistics.append(" victim/").append(config.getVictimLines());
+            }
+            if (config.getWriteCombiningEntries() > 0) {
+                statistics.append(" combining/").append(config.getWriteCombiningEntries());
+            }
+            if (levels[n] == l2Cache) {
+                statistics.append(exclusive ? " exclusive" : " inclusive");
+            }
+            Cache level = levels[n];
+            statistics.append("): ").append(level.getReadCount()).append(" reads, ")
+                      .append(level.getWriteCount()).append(" writes, ")
+                      .append(level.getHitCount()).append(" hits, ")
+                      .append(level.getMissCount()).append(" misses (")
+                      .append(level.getColdMissCount()).append(" cold, ")
+                      .append(level.getCapacityMissCount()).append(" capacity, ")
+                      .append(level.getConflictMissCount()).append(" conflict), ")
+                      .append(level.getEvictionCount()).append(" evictions, ")
+                      .append(level.getWriteBackCount()).append(" write-backs");
+            if (config.isWriteThrough()) {
+                statistics.append(", ").append(levels[n].getWriteThroughCount()).append(" write-throughs (")
+                          .append(levels[n].getWriteMergeCount()).append(" merged, ")
+                          .append(levels[n].getWriteStallCount()).append(" buffer-full stalls)");
+            }
+            if (!config.getPrefetcher().equals("none")) {
+                statistics.append(", ").append(level.getPrefetchCount()).append(" prefetches (")
+                          .append(level.getUsefulPrefetchCount()).append(" useful, ")
+                          .append(level.getUselessPrefetchCount()).append(" useless)");
+            }
+            if (config.getVictimLines() > 0) {
+                statistics.append(", ").append(level.getVictimHitCount()).append(" victim hits (")
+                          .append(level.getVictimInsertCount()).append(" blocks in)");
+            }
+            if (config.getWriteCombiningEntries() > 0) {
+                statistics.append(", ").append(level.getCombiningDrainCount()).append(" blocks to memory (")
+                          .append(level.getCombiningMergeCount()).append(" write-backs combined)");
+            }
+            statistics.append('\n');
+        }
+        return statistics.toString();
+    }
+
+    public String getMissReport(int limit) {
+        StringBuilder report = new StringBuilder();
+        for (int n = 0; n < levels.length; n++) {
+            MissProfile profile = levels[n].getMissProfile();
+            int[] entries = profile.byMisses();
+            report.append(levelNames[n]).append(" misses by instruction -> address:\n");
+            for (int k = 0; k < Math.min(limit, entries.length); k++) {
+                int entry = entries[k];
+                report.append(String.format("  %4d -> %4d: %d (%d cold, %d capacity, %d conflict)%n",
+                    profile.getInstructionAddress(entry), profile.getDataAddress(entry), profile.getMisses(entry),
+                    profile.getColdMisses(entry), profile.getCapacityMisses(entry), profile.getConflictMisses(entry)));
+            }
+            if (entries.length > limit) {
+                report.append("  ... ").append(entries.length - limit).append(" more\n");
+            }
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package components;
+
+/*
+ * CompiledBlock: A basic block of C6461 instructions translated to JVM bytecode by the
+ * BlockTranslator. Implementations are hidden classes generated at run time.
+ * 
+ * execute(BlockRuntime runtime): Runs the block from its first instruction and leaves the machine
+ * exactly as the interpreter would after the instructions it executed, including the PC.
+ * - @param runtime: The bridge to the registers, memory and program counter of the CPU.
+ * - @return int: The number of C6461 instructions executed (fewer than the block length if a store
+ *   overwrote translated code and the block exited early).
+ */
+
+interface CompiledBlock {
+    int execute(BlockRuntime runtime);
+}
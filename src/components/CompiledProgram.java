@@ -0,0 +1,38 @@
+package components;
+
+/*
+ * CompiledProgram: A whole C6461 program translated ahead of time into a Java class by the
+ * AotCompiler. The class covers the basic blocks reachable from the start address through static
+ * control flow; anything else (dynamic jump targets, instructions left to the interpreter, code
+ * overwritten at run time) is handed back to the AotEngine, which interprets it.
+ * 
+ * blockLeaders(): Returns the leader address of every translated block.
+ * - @return int[]: The leader addresses.
+ * 
+ * blockWords(int leader): Returns the instruction words the block was translated from, so the
+ * engine can check them against memory before trusting the block.
+ * - @param leader: The leader address of the block.
+ * - @return int[]: The words of the block in address order.
+ * 
+ * execute(BlockRuntime runtime, boolean[] live, long budget): Runs translated blocks starting at
+ * the current PC until control reaches an address without a live block or the next block does not
+ * fit in the budget.
+ * - @param runtime: The bridge to the CPU's registers, memory and program counter.
+ * - @param live: Indexed by address; true where a translated block may be entered.
+ * - @param budget: The most instructions to execute (a block is only entered if all of it fits).
+ * - @return long: The number of C6461 instructions executed.
+ *
+ * getExecuted(): Returns how many instructions the last execute call ran, including the one that
+ * faulted if it ended with an exception.
+ * - @return long: The number of C6461 instructions executed.
+ */
+
+public interface CompiledProgram {
+    int[] blockLeaders();
+
+    int[] blockWords(int leader);
+
+    long execute(BlockRuntime runtime, boolean[] live, long budget);
+
+    long getExecuted();
+}
@@ -0,0 +1,204 @@
+package components;
+
+/*
+ * CoreImage: A machine's memory saved as a binary file, with the program metadata needed to run
+ * it: the start address, the HLT addresses and the LOC redirects. Loading maps the file read-only
+ * with FileChannel.map and hands its pages to Memory as they are, so an image is loaded without
+ * parsing or copying a word: the pages are shared copy-on-write like a snapshot's (see
+ * Memory.snapshot), and only the pages a program stores into are ever copied. One loaded image can
+ * be restored into any number of machines, on any threads.
+ *
+ * Format, little-endian throughout:
+ *   the 8 bytes "C6461IMG", an int version (1), the int memory size in words (every bank), the int
+ *   selected bank, the int start address, the int number of HLT addresses and each address, the int
+ *   number of LOC redirects and each (address, target) pair; zero padding up to the next multiple of
+ *   128 bytes (one Memory page); then every word of memory, 16 bits each, bank 0 first.
+ *
+ * isImageFile(String file): Whether a file name is that of a core image (*.img).
+ * - @return boolean: True for *.img.
+ *
+ * load(Path file): Maps a core image.
+ * - @param file: The image file.
+ * - @return CoreImage: The image, valid after the file is closed.
+ * - @throws IOException: If the file cannot be read or is not a core image.
+ *
+ * write(Path file, Memory memory, ProgramCounter pc, int[] haltAddresses): Saves a machine's memory
+ * as a core image (creating or truncating the file), through a writable mapping.
+ * - @param memory: The memory to save, all of its banks.
+ * - @param pc: Its PC (saved as the start address) and LOC redirects.
+ * - @param haltAddresses: The addresses of the program's HLT instructions.
+ * - @throws IOException: If the file cannot be written.
+ *
+ * getMemorySize(): The words of memory the image holds (see Memory.getPhysicalSize).
+ * - @return int: The memory size in words.
+ *
+ * getStartAddress(), getHaltAddresses(): Where execution starts, and where it halts.
+ *
+ * newProgramCounter(): Creates a ProgramCounter holding the image's LOC redirects and set to the
+ * start address.
+ * - @return ProgramCounter: A new program counter.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class CoreImage {
+    static final byte[] MAGIC = {'C', '6', '4', '6', '1', 'I', 'M', 'G'};
+    static final int VERSION = 1;
+    private static final int PAGE_BYTES = Memory.PAGE_SIZE * Short.BYTES;
+
+    private final Memory.Snapshot memory;
+    private final int memorySize;
+    private final int startAddress;
+    private final int[] haltAddresses;
+    private final int[] locAddresses;
+    private final int[] locTargets;
+
+    private CoreImage(Memory.Snapshot memory, int memorySize, int startAddress, int[] haltAddresses,
+                      int[] locAddresses, int[] locTargets) {
+        this.memory = memory;
+        this.memorySize = memorySize;
+        this.startAddress = startAddress;
+        this.haltAddresses = haltAddresses;
+        this.locAddresses = locAddresses;
+        this.locTargets = locTargets;
+    }
+
+    public static boolean isImageFile(String file) {
+        return file.toLowerCase().endsWith(".img");
+    }
+
+    public static CoreImage load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < MAGIC.length + 6 * Integer.BYTES) {
+                throw new IOException("Not a core image: " + file);
+            }
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            image.order(ByteOrder.LITTLE_ENDIAN);
+            for (byte b : MAGIC) {
+                if (image.get() != b) {
+                    throw new IOException("Not a core image: " + file);
+                }
+            }
+            int version = image.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported core image version " + version + ": " + file);
+            }
+            int size = image.getInt();
+            int bank = image.getInt();
+            int start = image.getInt();
+            if (size < Memory.BANK_SIZE || size % Memory.BANK_SIZE != 0 || bank < 0
+                    || bank >= Math.max(size / Memory.BANK_SIZE - 1, 1) || start < 0 || start >= Memory.ADDRESS_SPACE) {
+                throw new IOException("Corrupt core image header: " + file);
+            }
+            int[] halts = readInts(image, 1, file);
+            int[] locs = readInts(image, 2, file);
+            int[] locAddresses = new int[locs.length / 2];
+            int[] locTargets = new int[locs.length / 2];
+            for (int n = 0; n < locAddresses.length; n++) {
+                locAddresses[n] = locs[2 * n];
+                locTargets[n] = locs[2 * n + 1];
+            }
+
+            int words = align(image.position());
+            if (length != words + (long) size * Short.BYTES) {
+                throw new IOException("Truncated core image: " + file);
+            }
+            // Each page is a read-only view of the mapping; Memory copies one before storing into it.
+            ShortBuffer[] pages = new ShortBuffer[size / Memory.PAGE_SIZE];
+            for (int page = 0; page < pages.length; page++) {
+                pages[page] = image.slice(words + page * PAGE_BYTES, PAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            }
+            return new CoreImage(new Memory.Snapshot(pages, bank), size, start, halts, locAddresses, locTargets);
+        }
+    }
+
+    // Reads a count and that many groups of ints.
+    private static int[] readInts(ByteBuffer image, int group, Path file) throws IOException {
+        int count = image.remaining() >= Integer.BYTES ? image.getInt() : -1;
+        if (count < 0 || count > Memory.ADDRESS_SPACE || image.remaining() < count * group * Integer.BYTES) {
+            throw new IOException("Corrupt core image header: " + file);
+        }
+        int[] values = new int[count * group];
+        for (int n = 0; n < values.length; n++) {
+            values[n] = image.getInt();
+            if (values[n] < 0 || values[n] >= Memory.ADDRESS_SPACE) {
+                throw new IOException("Corrupt core image header: " + file);
+            }
+        }
+        return values;
+    }
+
+    private static int align(int offset) {
+        return (offset + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES;
+    }
+
+    public static void write(Path file, Memory memory, ProgramCounter pc, int[] haltAddresses) throws IOException {
+        int locs = 0;
+        for (int address = 0; address < Memory.ADDRESS_SPACE; address++) {
+            if (pc.hasLocDirective(address)) {
+                locs++;
+            }
+        }
+        int words = align(MAGIC.length + (6 + haltAddresses.length + 2 * locs) * Integer.BYTES);
+        Memory.Snapshot snapshot = memory.snapshot();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                words + (long) memory.getPhysicalSize() * Short.BYTES);
+            image.order(ByteOrder.LITTLE_ENDIAN);
+            image.put(MAGIC).putInt(VERSION).putInt(memory.getPhysicalSize()).putInt(snapshot.bank).putInt(pc.getPC());
+            image.putInt(haltAddresses.length);
+            for (int address : haltAddresses) {
+                image.putInt(address);
+            }
+            image.putInt(locs);
+            for (int address = 0; address < Memory.ADDRESS_SPACE; address++) {
+                if (pc.hasLocDirective(address)) {
+                    image.putInt(address).putInt(pc.getLocTarget(address));
+                }
+            }
+            ShortBuffer contents = image.slice(words, image.capacity() - words).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            for (int page = 0; page < snapshot.pages.length; page++) {
+                contents.put(page * Memory.PAGE_SIZE, snapshot.pages[page], 0, Memory.PAGE_SIZE);
+            }
+        }
+    }
+
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    public int[] getHaltAddresses() {
+        return haltAddresses.clone();
+    }
+
+    public ProgramCounter newProgramCounter() {
+        ProgramCounter pc = new ProgramCounter();
+        setLocDirectives(pc);
+        pc.setPC(startAddress);
+        return pc;
+    }
+
+    void setLocDirectives(ProgramCounter pc) {
+        pc.clearLocDirectives();
+        for (int n = 0; n < locAddresses.length; n++) {
+            pc.addLocDirective(locAddresses[n], locTargets[n]);
+        }
+    }
+
+    Memory.Snapshot getMemory() {
+        return memory;
+    }
+}
@@ -0,0 +1,344 @@
+package components;
+
+/*
+ * DecodeCache: Keeps one predecoded record per memory word (opcode handler, R, IX, I and
+ * address/immediate fields) so loop bodies are decoded once instead of on every fetch. The cache
+ * listens to Memory, and every store (CPU.store, STR/STX, the IN card reader, cache write-backs)
+ * invalidates the record for the overwritten word, which keeps self-modifying code correct.
+ * 
+ * When a word is decoded the cache also looks for common idioms starting at it and marks the record
+ * as a superinstruction:
+ * - Compare and branch: LDR r / SMR r / JZ or JNE r.
+ * - Increment in memory: LDR r,x,a / AIR or SIR r / STR r,x,a.
+ * - Countdown loop: SOB on its own, or one simple instruction followed by SOB. While the SOB
+ *   branches back to the first word the loop keeps running inside the same dispatch.
+ * A superinstruction runs the predecoded records of its members back to back, doing the PC advance
+ * of CPU.fetch between them, so register, condition code and memory effects are exactly those of
+ * the separate instructions. It stops early (and the fetch loop carries on) if a member transfers
+ * control, hits a LOC redirect or has been overwritten.
+ * 
+ * DecodeCache(Memory memory, ProgramCounter pc, InstructionHandler[] handlers): Creates an empty
+ * cache covering every word of memory and registers it as a listener on that memory.
+ * - @param memory: The memory the instructions are fetched from.
+ * - @param pc: The program counter advanced between the members of a superinstruction.
+ * - @param handlers: The 64-entry opcode handler table used to resolve each record's handler.
+ * 
+ * execute(int address): Executes the instruction stored at the given address, decoding it first
+ * if its record is missing or was invalidated. If the record is a superinstruction the following
+ * members run in the same call.
+ * - @param address: The address of the instruction.
+ * - @return boolean: True if an instruction halts the machine.
+ * 
+ * executeOne(int address): Like execute, but never runs more than the one instruction (used by the
+ * engines that count instructions or look for block leaders).
+ * - @param address: The address of the instruction.
+ * - @return boolean: True if the instruction halts the machine.
+ * 
+ * decode(int address): Fills the record for the given address from memory and checks whether a
+ * superinstruction starts there.
+ * - @param address: The address of the word to decode.
+ * 
+ * setFusionEnabled(boolean enabled): Turns superinstruction fusion on or off (on by default).
+ * Records decoded earlier are dropped so the change applies at once.
+ * - @param enabled: True to fuse idioms.
+ * 
+ * getExecutedCount(): Returns how many instructions execute and executeOne have run in total.
+ * - @return long: The number of instructions executed.
+ * 
+ * setExecutionLimit(long limit): Stops superinstructions from running members once the executed
+ * count reaches the limit, so a caller enforcing a cycle limit never overshoots it.
+ * - @param limit: The executed count at which to stop; Long.MAX_VALUE for no limit.
+ * 
+ * getFusedCount(): Returns how many instructions ran inside superinstructions.
+ * - @return long: The number of fused instructions.
+ * 
+ * getFusionReport(): Describes, per idiom, how many superinstructions were dispatched and how many
+ * instructions they executed.
+ * - @return String: One line per idiom that was used.
+ * 
+ * resetFusionCounts(): Clears the fusion counters, e.g. before a new run.
+ * 
+ * invalidateAll(): Drops every record (used when the handler table or memory changes wholesale).
+ * 
+ * getDecodeCount(): Returns how many words have been decoded since the cache was created.
+ * - @return long: The number of decodes performed.
+ * 
+ * setCacheHierarchy(CacheHierarchy caches): Reports instruction fetches to the CPU's caches: every
+ * instruction execute and executeOne run, including each member of a superinstruction, is first
+ * fetched through CacheHierarchy.fetch, which reads the word through the L1I (if there is one) and
+ * names the instruction the following data misses are blamed on. The predecoded record is still
+ * what runs, so the caches only change the statistics.
+ * - @param caches: The caches, or null to report nothing (the default).
+ * 
+ * fetched(int addr, int count): Fetches count consecutive instruction words through the caches
+ * (used by the engines after a translated block has run).
+ * 
+ * executing(int addr): Names the instruction translated code is about to run (see BlockRuntime.at).
+ * - @param addr: The address of the first instruction.
+ * - @param count: The number of instructions.
+ */
+
+public class DecodeCache implements MemoryListener {
+    // Opcodes recognised by the fusion pass.
+    private static final int LDR = 0b000001, STR = 0b000010, SMR = 0b000101, AIR = 0b000110, SIR = 0b000111;
+    private static final int JZ = 0b001010, JNE = 0b001011, SOB = 0b010000;
+
+    // Superinstruction kinds.
+    private static final int COMPARE_BRANCH = 1, INCREMENT_MEMORY = 2, COUNTDOWN_LOOP = 3;
+    private static final String[] FUSION_NAMES = { "", "LDR/SMR/JZ|JNE", "LDR/AIR|SIR/STR", "SOB countdown loop" };
+
+    private final Memory memory;
+    private final ProgramCounter pc;
+    private final InstructionHandler[] handlers;
+
+    // One record per memory word, stored as parallel arrays.
+    private final InstructionHandler[] handler;
+    private final byte[] r;
+    private final byte[] ix;
+    private final byte[] i;
+    private final byte[] address;
+    private final boolean[] valid;
+    private final byte[] fusedKind;     // Superinstruction kind starting at each word, or 0
+    private final byte[] fusedLength;   // Number of member words of that superinstruction
+    private boolean fusionEnabled = true;
+    private long decodeCount;
+    private long executedCount;
+    private long executionLimit = Long.MAX_VALUE;
+    private CacheHierarchy caches;
+
+    // Indexed by superinstruction kind.
+    private final long[] fusedDispatches = new long[FUSION_NAMES.length];
+    private final long[] fusedInstructions = new long[FUSION_NAMES.length];
+
+    public DecodeCache(Memory memory, ProgramCounter pc, InstructionHandler[] handlers) {
+        int size = memory.getSize();
+        this.memory = memory;
+        this.pc = pc;
+        this.handlers = handlers;
+        this.handler = new InstructionHandler[size];
+        this.r = new byte[size];
+        this.ix = new byte[size];
+        this.i = new byte[size];
+        this.address = new byte[size];
+        this.valid = new boolean[size];
+        this.fusedKind = new byte[size];
+        this.fusedLength = new byte[size];
+        memory.addListener(this);
+    }
+
+    public boolean execute(int addr) {
+        if (caches != null) {
+            caches.fetch(addr);
+        }
+        if (addr >= valid.length) {
+            executedCount++;
+            // Outside physical memory the word always reads as 0, so decode it directly.
+            int word = memory.loadMemoryValue(addr);
+            return handlers[CPUExe.opcode(word)].execute(CPUExe.r(word), CPUExe.ix(word), CPUExe.i(word), CPUExe.address(word));
+        }
+        if (!valid[addr]) {
+            decode(addr);
+        }
+        if (fusedKind[addr] != 0) {
+            return executeFused(addr);
+        }
+        executedCount++;
+        return handler[addr].execute(r[addr], ix[addr], i[addr], address[addr]);
+    }
+
+    public boolean executeOne(int addr) {
+        if (addr >= valid.length) {
+            return execute(addr);
+        }
+        if (caches != null) {
+            caches.fetch(addr);
+        }
+        if (!valid[addr]) {
+            decode(addr);
+        }
+        executedCount++;
+        return handler[addr].execute(r[addr], ix[addr], i[addr], address[addr]);
+    }
+
+    // Runs the members of the superinstruction at addr; the PC is already past the first one.
+    private boolean executeFused(int addr) {
+        int kind = fusedKind[addr];
+        int length = fusedLength[addr];
+        long executed = 0;
+        fusedDispatches[kind]++;
+        boolean halt;
+        while (true) {
+            executedCount++;  // Counted before it runs, like execute, so a member that faults counts
+            executed++;
+            halt = handler[addr].execute(r[addr], ix[addr], i[addr], address[addr]);
+            for (int k = 1; k < length && !halt; k++) {
+                int next = addr + k;
+                if (pc.getPC() != next || !valid[next] || executedCount >= executionLimit) {
+                    fusedInstructions[kind] += executed;
+                    return false;
+                }
+                pc.incrementPC();  // Fetch of the next member, as in CPU.fetch
+                if (caches != null) {
+                    caches.fetch(next);
+                }
+                executedCount++;
+                executed++;
+                halt = handler[next].execute(r[next], ix[next], i[next], address[next]);
+            }
+            // A countdown loop goes round again while the SOB branches back to its first word.
+            if (halt || kind != COUNTDOWN_LOOP || pc.getPC() != addr || !valid[addr]
+                    || executedCount >= executionLimit || pc.hasLocDirective(addr)) {
+                break;
+            }
+            pc.incrementPC();
+            if (caches != null) {
+                caches.fetch(addr);
+            }
+        }
+        fusedInstructions[kind] += executed;
+        return halt;
+    }
+
+    private void decode(int addr) {
+        int word = memory.loadMemoryValue(addr);
+        handler[addr] = handlers[CPUExe.opcode(word)];
+        r[addr] = (byte) CPUExe.r(word);
+        ix[addr] = (byte) CPUExe.ix(word);
+        i[addr] = (byte) CPUExe.i(word);
+        address[addr] = (byte) CPUExe.address(word);
+        valid[addr] = true;
+        decodeCount++;
+        fuse(addr, word);
+    }
+
+    // Marks the record at addr as a superinstruction if one of the idioms starts there.
+    private void fuse(int addr, int word) {
+        fusedKind[addr] = 0;
+        fusedLength[addr] = 1;
+        if (!fusionEnabled) {
+            return;
+        }
+        int op0 = CPUExe.opcode(word);
+        if (op0 == SOB) {
+            setFused(addr, COUNTDOWN_LOOP, 1);
+            return;
+        }
+        if (addr + 1 >= valid.length) {
+            return;
+        }
+        int word1 = memory.loadMemoryValue(addr + 1);
+        int op1 = CPUExe.opcode(word1);
+        int reg = CPUExe.r(word);
+        if (addr + 2 < valid.length && op0 == LDR && CPUExe.r(word1) == reg) {
+            int word2 = memory.loadMemoryValue(addr + 2);
+            int op2 = CPUExe.opcode(word2);
+            if (CPUExe.r(word2) == reg) {
+                if (op1 == SMR && (op2 == JZ || op2 == JNE)) {
+                    setFused(addr, COMPARE_BRANCH, 3);
+                    return;
+                }
+                // The STR must write back to the same operand the LDR loaded.
+                if ((op1 == AIR || op1 == SIR) && op2 == STR && (word2 & 0xFF) == (word & 0xFF)) {
+                    setFused(addr, INCREMENT_MEMORY, 3);
+                    return;
+                }
+            }
+        }
+        if (op1 == SOB && BlockTranslator.isTranslatable(word) && !BlockTranslator.isTerminator(op0)) {
+            setFused(addr, COUNTDOWN_LOOP, 2);
+        }
+    }
+
+    private void setFused(int addr, int kind, int length) {
+        for (int k = 1; k < length; k++) {
+            if (!valid[addr + k]) {
+                decode(addr + k);
+            }
+        }
+        fusedKind[addr] = (byte) kind;
+        fusedLength[addr] = (byte) length;
+    }
+
+    public void invalidateAll() {
+        for (int a = 0; a < valid.length; a++) {
+            valid[a] = false;
+        }
+    }
+
+    public void setFusionEnabled(boolean enabled) {
+        this.fusionEnabled = enabled;
+        invalidateAll();
+    }
+
+    public void setCacheHierarchy(CacheHierarchy caches) {
+        this.caches = caches;
+    }
+
+    public void fetched(int addr, int count) {
+        if (caches != null) {
+            for (int n = 0; n < count; n++) {
+                caches.fetch(addr + n);
+            }
+        }
+    }
+
+    public void executing(int addr) {
+        if (caches != null) {
+            caches.setInstructionAddress(addr);
+        }
+    }
+
+    public long getDecodeCount() {
+        return decodeCount;
+    }
+
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    public void setExecutionLimit(long limit) {
+        this.executionLimit = limit;
+    }
+
+    public long getFusedCount() {
+        long total = 0;
+        for (long count : fusedInstructions) {
+            total += count;
+        }
+        return total;
+    }
+
+    public String getFusionReport() {
+        StringBuilder report = new StringBuilder();
+        for (int kind = 1; kind < FUSION_NAMES.length; kind++) {
+            if (fusedDispatches[kind] > 0) {
+                report.append(FUSION_NAMES[kind]).append(": ").append(fusedDispatches[kind]).append(" dispatches, ")
+                      .append(fusedInstructions[kind]).append(" instructions\n");
+            }
+        }
+        return report.toString();
+    }
+
+    public void resetFusionCounts() {
+        for (int kind = 0; kind < FUSION_NAMES.length; kind++) {
+            fusedDispatches[kind] = 0;
+            fusedInstructions[kind] = 0;
+        }
+    }
+
+    @Override
+    public void wordStored(int addr) {
+        valid[addr] = false;
+        // Superinstructions that start up to two words earlier include this word.
+        for (int k = 1; k <= 2 && addr - k >= 0; k++) {
+            if (fusedLength[addr - k] > k) {
+                valid[addr - k] = false;
+            }
+        }
+    }
+
+    @Override
+    public void memoryReset() {
+        invalidateAll();
+    }
+}
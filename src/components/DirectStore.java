@@ -0,0 +1,38 @@
+package components;
+
+/*
+ * DirectStore: Memory pages outside the Java heap (see MemoryStore). Pages are carved in order out
+ * of direct ByteBuffer slabs; the first slab holds the whole memory, later ones (for the pages that
+ * copy-on-write copies) hold up to MAX_SLAB_PAGES. Each page views its slab in native byte order.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+final class DirectStore implements MemoryStore {
+    private static final int PAGE_BYTES = Memory.PAGE_SIZE * Short.BYTES;
+    private static final int MAX_SLAB_PAGES = 1024;  // 128 KB
+
+    private int slabPages;
+    private ByteBuffer slab;
+    private int used;  // Pages of the slab handed out
+
+    DirectStore(int pages) {
+        this.slabPages = Math.max(pages, 1);
+    }
+
+    @Override
+    public ShortBuffer newPage() {
+        if (slab == null || used == slabPages) {
+            if (slab != null) {
+                slabPages = Math.min(slabPages, MAX_SLAB_PAGES);
+            }
+            slab = ByteBuffer.allocateDirect(slabPages * PAGE_BYTES);  // Zeroed
+            used = 0;
+        }
+        ShortBuffer page = slab.slice(used * PAGE_BYTES, PAGE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
+        used++;
+        return page;
+    }
+}
@@ -0,0 +1,42 @@
+package components;
+
+/*
+ * FifoPolicy: First-in, first-out replacement. Hits do not matter; each set replaces its ways in
+ * the order they were filled, which is a round-robin pointer because empty ways fill in order.
+ */
+
+final class FifoPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int[] next;  // Next way to replace, per set
+
+    FifoPolicy(int sets, int ways) {
+        this.ways = ways;
+        this.next = new int[sets];
+    }
+
+    private FifoPolicy(FifoPolicy other) {
+        this.ways = other.ways;
+        this.next = other.next.clone();
+    }
+
+    @Override
+    public void accessed(int set, int way) {
+    }
+
+    @Override
+    public void filled(int set, int way) {
+        if (way == next[set]) {
+            next[set] = (way + 1) % ways;
+        }
+    }
+
+    @Override
+    public int victim(int set) {
+        return next[set];
+    }
+
+    @Override
+    public ReplacementPolicy copy() {
+        return new FifoPolicy(this);
+    }
+}
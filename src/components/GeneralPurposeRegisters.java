@@ -21,6 +21,11 @@ package components;
  * 
  * resetAllGPRs(): Resets all GPRs to 0.
  * 
+ * copyValues(), restoreValues(short[] values): Copy every GPR out, or put copied values back
+ * (used by CPU checkpoints).
+ * - @param values: The values returned by copyValues.
+ * - @return short[]: A copy of the register values.
+ * 
  * toString(): Returns a string representation of all GPR values for debugging purposes.
  * - @return String: A formatted string showing each GPR index and its value.
  */
@@ -67,6 +72,16 @@ public class GeneralPurposeRegisters {
         }
     }
 
+    // Copies the register values (for CPU checkpoints)
+    short[] copyValues() {
+        return gprs.clone();
+    }
+
+    // Restores values returned by copyValues
+    void restoreValues(short[] values) {
+        System.arraycopy(values, 0, gprs, 0, gprs.length);
+    }
+
     // For debugging: display the values of all GPRs
     @Override
     public String toString() {
@@ -0,0 +1,14 @@
+package components;
+
+/*
+ * HeapStore: Memory pages as short[] arrays on the Java heap (see MemoryStore).
+ */
+
+import java.nio.ShortBuffer;
+
+final class HeapStore implements MemoryStore {
+    @Override
+    public ShortBuffer newPage() {
+        return ShortBuffer.allocate(Memory.PAGE_SIZE);
+    }
+}
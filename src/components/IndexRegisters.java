@@ -18,6 +18,11 @@ package components;
  * 
  * resetAllIndexRegisters(): Resets all index registers to 0.
  * 
+ * copyValues(), restoreValues(short[] values): Copy every index register out, or put copied values back
+ * (used by CPU checkpoints).
+ * - @param values: The values returned by copyValues.
+ * - @return short[]: A copy of the register values.
+ * 
  * toString(): Returns a string representation of all index register values for debugging purposes.
  * - @return String: A formatted string showing each index register index and its value in hexadecimal.
  */
@@ -54,6 +59,16 @@ public class IndexRegisters {
         }
     }
 
+    // Copies the register values (for CPU checkpoints)
+    short[] copyValues() {
+        return ixr.clone();
+    }
+
+    // Restores values returned by copyValues
+    void restoreValues(short[] values) {
+        System.arraycopy(values, 0, ixr, 0, ixr.length);
+    }
+
     // For debugging: display the values of all Index Registers
     @Override
     public String toString() {
@@ -0,0 +1,19 @@
+package components;
+
+/*
+ * InstructionHandler: Executes one decoded instruction. CPU keeps a 64-entry table of these,
+ * indexed by the 6-bit opcode, so dispatch is a single array load with no per-instruction
+ * allocation. The int-field variants of the CPUExe handlers all match this signature.
+ * 
+ * execute(int r, int ix, int i, int address): Executes the instruction with the given fields.
+ * - @param r: The R field (bits 6-7); Rx for register-to-register instructions.
+ * - @param ix: The IX field (bits 8-9); Ry for register-to-register instructions.
+ * - @param i: The indirect bit (bit 10).
+ * - @param address: The address/immediate field (bits 11-15); the device ID for I/O instructions.
+ * - @return boolean: True if the instruction halts the machine.
+ */
+
+@FunctionalInterface
+public interface InstructionHandler {
+    boolean execute(int r, int ix, int i, int address);
+}
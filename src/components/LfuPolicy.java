@@ -0,0 +1,51 @@
+package components;
+
+/*
+ * LfuPolicy: Least-frequently-used replacement. Each line counts the accesses since its block was
+ * loaded; the victim is the way with the lowest count, the lowest way on ties.
+ */
+
+final class LfuPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int[] uses;  // Indexed by set * ways + way
+
+    LfuPolicy(int sets, int ways) {
+        this.ways = ways;
+        this.uses = new int[sets * ways];
+    }
+
+    private LfuPolicy(LfuPolicy other) {
+        this.ways = other.ways;
+        this.uses = other.uses.clone();
+    }
+
+    @Override
+    public void accessed(int set, int way) {
+        int line = set * ways + way;
+        if (uses[line] < Integer.MAX_VALUE) {
+            uses[line]++;
+        }
+    }
+
+    @Override
+    public void filled(int set, int way) {
+        uses[set * ways + way] = 1;
+    }
+
+    @Override
+    public int victim(int set) {
+        int first = set * ways;
+        int victim = 0;
+        for (int way = 1; way < ways; way++) {
+            if (uses[first + way] < uses[first + victim]) {
+                victim = way;
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public ReplacementPolicy copy() {
+        return new LfuPolicy(this);
+    }
+}
@@ -0,0 +1,50 @@
+package components;
+
+/*
+ * LruPolicy: True least-recently-used replacement. Every line carries the value of a running clock
+ * at its last hit or fill; the victim is the way with the oldest value.
+ */
+
+final class LruPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final long[] lastUsed;  // Indexed by set * ways + way
+    private long clock;
+
+    LruPolicy(int sets, int ways) {
+        this.ways = ways;
+        this.lastUsed = new long[sets * ways];
+    }
+
+    private LruPolicy(LruPolicy other) {
+        this.ways = other.ways;
+        this.lastUsed = other.lastUsed.clone();
+        this.clock = other.clock;
+    }
+
+    @Override
+    public void accessed(int set, int way) {
+        lastUsed[set * ways + way] = ++clock;
+    }
+
+    @Override
+    public void filled(int set, int way) {
+        lastUsed[set * ways + way] = ++clock;
+    }
+
+    @Override
+    public int victim(int set) {
+        int first = set * ways;
+        int victim = 0;
+        for (int way = 1; way < ways; way++) {
+            if (lastUsed[first + way] < lastUsed[first + victim]) {
+                victim = way;
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public ReplacementPolicy copy() {
+        return new LruPolicy(this);
+    }
+}
@@ -0,0 +1,51 @@
+package components;
+
+/*
+ * MachineState: A checkpoint of everything a CPU's program can observe: memory, the GPRs and IXRs,
+ * PC, condition codes, MAR, MBR, MFR and the lines of every cache level with their dirty bits and
+ * replacement state. It is taken with CPU.checkpoint() and put back with CPU.restore(), any number
+ * of times and on any CPU with the same register counts and cache levels. Memory is captured
+ * copy-on-write (see Memory.snapshot), so taking and restoring a checkpoint costs a few hundred
+ * bytes regardless of the program size.
+ *
+ * The LOC directives and HLT addresses belong to the loaded program rather than the machine state
+ * and are not part of a checkpoint.
+ *
+ * getPC(): Returns the PC value at the time of the checkpoint.
+ * - @return int: The PC value.
+ */
+
+public final class MachineState {
+    final Memory.Snapshot memory;
+    final short[] gprs;
+    final short[] ixrs;
+    final int pc;
+    final boolean overflow;
+    final boolean underflow;
+    final boolean divZero;
+    final boolean equal;
+    final int mar;
+    final short mbr;
+    final int mfr;
+    final Cache.Snapshot[] caches;
+
+    MachineState(Memory.Snapshot memory, short[] gprs, short[] ixrs, int pc, ConditionCode cc,
+                 int mar, short mbr, int mfr, Cache.Snapshot[] caches) {
+        this.memory = memory;
+        this.gprs = gprs;
+        this.ixrs = ixrs;
+        this.pc = pc;
+        this.overflow = cc.isOverflow();
+        this.underflow = cc.isUnderflow();
+        this.divZero = cc.isDivZero();
+        this.equal = cc.isEqual();
+        this.mar = mar;
+        this.mbr = mbr;
+        this.mfr = mfr;
+        this.caches = caches;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+}
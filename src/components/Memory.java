@@ -1,54 +1,371 @@
 package components;
 
 /*
- * Memory: Represents a memory module with 2048 words of 16-bit storage, allowing for 
- * storing and loading values, as well as resetting the entire memory.
- * 
- * Memory(): Constructor that initializes memory with a default size of 2048 words, 
+ * Memory: Represents a memory module of 16-bit words, 2048 by default, allowing for storing and
+ * loading values, as well as resetting the entire memory.
+ *
+ * The size is a multiple of the 2048-word bank. Up to 4096 words (the 12-bit address space the
+ * ProgramCounter reaches) every word has its own address. A larger memory is banked: addresses
+ * 0-2047 always reach bank 0, and addresses 2048-4095 are a window onto one of the other banks,
+ * chosen with selectBank (the CPU's OUT to device 31, see CPUExe). The words live in pages from a
+ * MemoryStore, on the Java heap or in direct buffers outside it.
+ *
+ * Memory(): Constructor that initializes memory with a default size of 2048 words,
  * setting each word to 0.
- * 
- * resetMemory(): Resets all memory values to 0.
- * 
- * storeValue(int address, int value): Stores a 16-bit value at a specified memory address, 
+ *
+ * Memory(int size, String store): Creates a memory of any size, every word 0.
+ * - @param size: The words of memory, a positive multiple of 2048 (at most 65536 banks).
+ * - @param store: Where the words are kept: heap or direct (see MemoryStore).
+ * - @throws IllegalArgumentException: If the size or the store is invalid.
+ *
+ * resetMemory(): Resets all memory values to 0 and selects the first bank.
+ *
+ * storeValue(int address, int value): Stores a 16-bit value at a specified memory address,
  * ensuring it fits within the 16-bit range.
  * - @param address: The memory address where the value will be stored.
  * - @param value: The value to store, limited to 16 bits.
- * 
+ *
  * loadMemoryValue(int address): Loads and returns the value at a specified memory address as an unsigned 16-bit value.
  * - @param address: The memory address to load the value from.
  * - @return int: The 16-bit unsigned value at the specified address, or 0 if the address is out of bounds.
+ *
+ * readBlock(int address, int[] dest, int offset, int length), readBlock(int address, short[] dest,
+ * int offset, int length): Copies length consecutive words out, a page at a time, as loadMemoryValue
+ * would read them one by one (unsigned into int[], the raw 16 bits into short[]; words outside
+ * memory read as 0).
+ * - @param address: The first address.
+ * - @param dest: The array to copy into, from dest[offset].
+ * - @throws IndexOutOfBoundsException: If the range does not fit in dest.
+ *
+ * writeBlock(int address, int[] src, int offset, int length), writeBlock(int address, short[] src,
+ * int offset, int length): Stores length consecutive words, a page at a time, as storeValue would
+ * one by one (masked to 16 bits; words outside memory are dropped). Listeners are told once for the
+ * whole range (see MemoryListener.blockStored).
+ * - @param address: The first address.
+ * - @param src: The words to store, from src[offset].
+ * - @throws IndexOutOfBoundsException: If the range does not fit in src.
+ *
+ * fill(int address, int length, int value): Stores value into length consecutive words, like
+ * writeBlock.
+ *
+ * getSize(): Returns the number of addressable words (the whole memory, or 4096 when banked).
+ * - @return int: The address space size in words.
+ *
+ * getPhysicalSize(): Returns the number of words in every bank together.
+ * - @return int: The memory size in words.
+ *
+ * getStore(): Returns the name of the store holding the words.
+ * - @return String: heap or direct.
+ *
+ * getBankCount(), getBank(): The banks that can be selected into addresses 2048-4095 (1 when the
+ * memory is not banked), and the one that is.
+ * - @return int: The count or the bank, from 0.
+ *
+ * selectBank(int bank): Maps a bank into addresses 2048-4095. Listeners are told the whole window
+ * was stored, since what it reads changed.
+ * - @param bank: The bank, from 0 to getBankCount() - 1.
+ * - @throws IllegalArgumentException: If there is no such bank.
+ *
+ * addListener(MemoryListener listener): Registers a listener that is notified after every store and reset.
+ * - @param listener: The listener to notify.
+ *
+ * removeListener(MemoryListener listener): Stops notifying a listener (nothing happens if it is not
+ * registered), so a component that is thrown away does not keep slowing stores down.
+ * - @param listener: The listener to remove.
+ *
+ * snapshot(): Captures the contents of memory and the selected bank in O(pages). The words are held
+ * in pages of 64 that the snapshot shares with this memory; both sides treat shared pages as
+ * read-only, and the first store into one copies it (copy-on-write), so taking a snapshot copies no
+ * words at all.
+ * - @return Memory.Snapshot: The captured contents.
+ *
+ * restore(Snapshot snapshot): Puts back the contents captured by a snapshot, from this or any other
+ * Memory of the same size (whatever its store). Pages are shared again rather than copied; listeners
+ * are told about every run of addressable words whose values changed, as if it had been stored
+ * with writeBlock.
+ * - @param snapshot: The snapshot to restore.
+ * - @throws IllegalArgumentException: If the snapshot is of a memory of another size.
  */
 
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
 public class Memory {
-    private short[] memoryArray; // 16-bit words in memory
-    private final int SIZE = 2048; // Maximum 2048 words
+    static final int PAGE_SHIFT = 6;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;  // 64 words per page
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    public static final int BANK_SIZE = 2048;
+    public static final int ADDRESS_SPACE = 4096;  // 12-bit addresses
+    private static final int BANK_PAGES = BANK_SIZE / PAGE_SIZE;
+    private static final int MAX_BANKS = 1 << 16;
+    private static final short[] ZERO_PAGE = new short[PAGE_SIZE];
+
+    private final String storeName;
+    private final MemoryStore store;
+    private final int size;         // Addressable words
+    private final int banks;        // Banks selectable into the upper half of the address space
+    private int bank;
+    private ShortBuffer[] pages;    // Every bank's pages, bank 0 first
+    private final boolean[] shared; // Pages that a snapshot also references; copied before the next store
+    private final ShortBuffer[] window; // The page each addressable page maps to
+    private MemoryListener[] listeners = new MemoryListener[0]; // Notified on every store
+
+    // An immutable copy of memory; its pages are never written again (CoreImage maps them from a file).
+    public static final class Snapshot {
+        final ShortBuffer[] pages;
+        final int bank;
+
+        Snapshot(ShortBuffer[] pages, int bank) {
+            this.pages = pages;
+            this.bank = bank;
+        }
+    }
 
     public Memory() {
-        memoryArray = new short[SIZE];
+        this(BANK_SIZE, "heap");
+    }
+
+    public Memory(int size, String store) {
+        if (size < BANK_SIZE || size % BANK_SIZE != 0 || size / BANK_SIZE > MAX_BANKS) {
+            throw new IllegalArgumentException("Memory size must be a multiple of " + BANK_SIZE + " words up to "
+                + MAX_BANKS + " banks: " + size);
+        }
+        this.storeName = store;
+        this.store = MemoryStore.create(store, size / PAGE_SIZE);
+        this.size = Math.min(size, ADDRESS_SPACE);
+        this.banks = size > ADDRESS_SPACE ? size / BANK_SIZE - 1 : 1;
+        this.pages = new ShortBuffer[size / PAGE_SIZE];
+        this.shared = new boolean[pages.length];
+        this.window = new ShortBuffer[this.size / PAGE_SIZE];
         resetMemory();
     }
 
     // Resets the entire memory
     public void resetMemory() {
-        for (int i = 0; i < SIZE; i++) {
-            memoryArray[i] = 0; // Set all memory values to 0
+        for (int page = 0; page < pages.length; page++) {
+            if (pages[page] == null || shared[page]) {
+                pages[page] = store.newPage();
+                shared[page] = false;
+            } else {
+                pages[page].put(0, ZERO_PAGE); // Set all memory values to 0
+            }
+        }
+        bank = 0;
+        map();
+        for (MemoryListener listener : listeners) {
+            listener.memoryReset();
+        }
+    }
+
+    // Points the address space at bank 0 and the selected bank.
+    private void map() {
+        for (int slot = 0; slot < window.length; slot++) {
+            window[slot] = pages[physicalPage(slot)];
         }
     }
 
+    private int physicalPage(int slot) {
+        return slot < BANK_PAGES ? slot : slot + bank * BANK_PAGES;
+    }
+
     // Store value in memory as a 16-bit word, applying masking to ensure it fits in the 16-bit range
     public void storeValue(int address, int value) {
-        if (address >= 0 && address < memoryArray.length) {
-            memoryArray[address] = (short) (value & 0xFFFF);  // Mask value to 16 bits
+        if (address >= 0 && address < size) {
+            writablePage(address >>> PAGE_SHIFT).put(address & PAGE_MASK, (short) value);  // Keeps the low 16 bits
+            for (MemoryListener listener : listeners) {
+                listener.wordStored(address);
+            }
         }
     }
 
     // Load a value from memory and interpret it as an unsigned 16-bit value
     public int loadMemoryValue(int address) {
-        if (address >= 0 && address < memoryArray.length) {
-            return memoryArray[address] & 0xFFFF;  // Return unsigned 16-bit value
-        } 
+        if (address >= 0 && address < size) {
+            return window[address >>> PAGE_SHIFT].get(address & PAGE_MASK) & 0xFFFF;  // Return unsigned 16-bit value
+        }
         else {
             return 0; // Return 0 if address is out of bounds
         }
     }
-}
\ No newline at end of file
+
+    public void readBlock(int address, int[] dest, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, dest.length);
+        int start = Math.max(address, 0);
+        int end = Math.min(address + length, size);
+        Arrays.fill(dest, offset, offset + Math.min(start - address, length), 0);
+        Arrays.fill(dest, offset + Math.max(end - address, 0), offset + length, 0);
+        for (int next = start; next < end; ) {
+            ShortBuffer words = window[next >>> PAGE_SHIFT];
+            int from = next & PAGE_MASK;
+            int count = Math.min(PAGE_SIZE - from, end - next);
+            int to = offset + next - address;
+            for (int n = 0; n < count; n++) {
+                dest[to + n] = words.get(from + n) & 0xFFFF;
+            }
+            next += count;
+        }
+    }
+
+    public void readBlock(int address, short[] dest, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, dest.length);
+        int start = Math.max(address, 0);
+        int end = Math.min(address + length, size);
+        Arrays.fill(dest, offset, offset + Math.min(start - address, length), (short) 0);
+        Arrays.fill(dest, offset + Math.max(end - address, 0), offset + length, (short) 0);
+        for (int next = start; next < end; ) {
+            int count = Math.min(PAGE_SIZE - (next & PAGE_MASK), end - next);
+            window[next >>> PAGE_SHIFT].get(next & PAGE_MASK, dest, offset + next - address, count);
+            next += count;
+        }
+    }
+
+    public void writeBlock(int address, int[] src, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, src.length);
+        int start = Math.max(address, 0);
+        int end = Math.min(address + length, size);
+        for (int next = start; next < end; ) {
+            ShortBuffer words = writablePage(next >>> PAGE_SHIFT);
+            int to = next & PAGE_MASK;
+            int count = Math.min(PAGE_SIZE - to, end - next);
+            int from = offset + next - address;
+            for (int n = 0; n < count; n++) {
+                words.put(to + n, (short) src[from + n]);
+            }
+            next += count;
+        }
+        stored(start, end);
+    }
+
+    public void writeBlock(int address, short[] src, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, src.length);
+        int start = Math.max(address, 0);
+        int end = Math.min(address + length, size);
+        for (int next = start; next < end; ) {
+            int count = Math.min(PAGE_SIZE - (next & PAGE_MASK), end - next);
+            writablePage(next >>> PAGE_SHIFT).put(next & PAGE_MASK, src, offset + next - address, count);
+            next += count;
+        }
+        stored(start, end);
+    }
+
+    public void fill(int address, int length, int value) {
+        int start = Math.max(address, 0);
+        int end = Math.min(address + Math.max(length, 0), size);
+        for (int next = start; next < end; ) {
+            ShortBuffer words = writablePage(next >>> PAGE_SHIFT);
+            int to = next & PAGE_MASK;
+            int count = Math.min(PAGE_SIZE - to, end - next);
+            for (int n = 0; n < count; n++) {
+                words.put(to + n, (short) value);
+            }
+            next += count;
+        }
+        stored(start, end);
+    }
+
+    // The page at an addressable page that may be written: copied first if a snapshot shares it.
+    private ShortBuffer writablePage(int slot) {
+        int page = physicalPage(slot);
+        if (shared[page]) {
+            pages[page] = store.copy(pages[page]);
+            shared[page] = false;
+            window[slot] = pages[page];
+        }
+        return window[slot];
+    }
+
+    private void stored(int start, int end) {
+        if (start < end) {
+            for (MemoryListener listener : listeners) {
+                listener.blockStored(start, end - start);
+            }
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPhysicalSize() {
+        return pages.length * PAGE_SIZE;
+    }
+
+    public String getStore() {
+        return storeName;
+    }
+
+    public int getBankCount() {
+        return banks;
+    }
+
+    public int getBank() {
+        return bank;
+    }
+
+    public void selectBank(int bank) {
+        if (bank < 0 || bank >= banks) {
+            throw new IllegalArgumentException("No memory bank " + bank + " (" + banks + " banks)");
+        }
+        if (bank != this.bank) {
+            this.bank = bank;
+            map();
+            stored(BANK_SIZE, size);
+        }
+    }
+
+    public void addListener(MemoryListener listener) {
+        MemoryListener[] grown = new MemoryListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, grown, 0, listeners.length);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    public void removeListener(MemoryListener listener) {
+        for (int n = 0; n < listeners.length; n++) {
+            if (listeners[n] == listener) {
+                MemoryListener[] shrunk = new MemoryListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, shrunk, 0, n);
+                System.arraycopy(listeners, n + 1, shrunk, n, listeners.length - n - 1);
+                listeners = shrunk;
+                return;
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        Arrays.fill(shared, true);
+        return new Snapshot(pages.clone(), bank);
+    }
+
+    public void restore(Snapshot snapshot) {
+        if (snapshot.pages.length != pages.length) {
+            throw new IllegalArgumentException("Memory snapshot of " + snapshot.pages.length * PAGE_SIZE
+                + " words does not fit a memory of " + getPhysicalSize());
+        }
+        ShortBuffer[] previous = window.clone();
+        pages = snapshot.pages.clone();
+        Arrays.fill(shared, true);
+        bank = snapshot.bank;
+        map();
+        // Only pages that were written since (or differ from) the snapshot can hold changed words.
+        for (int slot = 0; slot < window.length; slot++) {
+            ShortBuffer before = previous[slot];
+            ShortBuffer after = window[slot];
+            if (before == after || before.equals(after)) {
+                continue;
+            }
+            for (int offset = 0; offset < PAGE_SIZE; offset++) {
+                if (before.get(offset) == after.get(offset)) {
+                    continue;
+                }
+                int run = offset + 1;  // Changed words are reported a run at a time
+                while (run < PAGE_SIZE && before.get(run) != after.get(run)) {
+                    run++;
+                }
+                stored((slot << PAGE_SHIFT) + offset, (slot << PAGE_SHIFT) + run);
+                offset = run;
+            }
+        }
+    }
+}
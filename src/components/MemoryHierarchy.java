@@ -0,0 +1,21 @@
+package components;
+
+/*
+ * MemoryHierarchy: The path every data access of the CPU takes. Loads (LDR, LDX, AMR, SMR and
+ * indirect address words) and stores (STR, STX and the front panel) go through it, so the caches
+ * see the same accesses whichever engine runs the program. CacheHierarchy implements it.
+ *
+ * load(int address): Reads a data word.
+ * - @param address: The effective address.
+ * - @return int: The word.
+ *
+ * store(int address, int value): Writes a data word.
+ * - @param address: The effective address.
+ * - @param value: The word to write.
+ */
+
+public interface MemoryHierarchy {
+    int load(int address);
+
+    void store(int address, int value);
+}
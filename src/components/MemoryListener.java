@@ -0,0 +1,28 @@
+package components;
+
+/*
+ * MemoryListener: Receives a callback whenever the contents of Memory change, so components that
+ * keep derived copies of memory (such as the DecodeCache) can drop their stale entries.
+ * 
+ * wordStored(int address): Called after a word has been written.
+ * - @param address: The memory address that was written.
+ * 
+ * blockStored(int address, int length): Called after a range of words has been written in one
+ * operation (see Memory.writeBlock). By default it reports every word to wordStored.
+ * - @param address: The first address written.
+ * - @param length: The number of words written.
+ * 
+ * memoryReset(): Called after the whole memory has been cleared.
+ */
+
+public interface MemoryListener {
+    void wordStored(int address);
+
+    default void blockStored(int address, int length) {
+        for (int n = 0; n < length; n++) {
+            wordStored(address + n);
+        }
+    }
+
+    void memoryReset();
+}
@@ -0,0 +1,48 @@
+package components;
+
+/*
+ * MemoryStore: Allocates the pages that hold Memory's words. Memory works on every page through
+ * the same ShortBuffer operations (absolute gets and puts only, so shared pages can be read from
+ * several threads), and a store decides where the words live.
+ *
+ * Stores, by name:
+ *   heap    Each page is a short[] on the Java heap.
+ *   direct  Pages are slices of direct ByteBuffers allocated in slabs outside the heap, so machine
+ *           images (see Memory.snapshot) cost the garbage collector one small object per page
+ *           instead of their words. A slab is freed once none of its pages is referenced.
+ *
+ * create(String name, int pages): Creates the store named.
+ * - @param name: heap or direct.
+ * - @param pages: The pages the memory holds, which sizes the direct store's first slab.
+ * - @return MemoryStore: The store.
+ * - @throws IllegalArgumentException: If the name is unknown.
+ *
+ * newPage(): Allocates a page of Memory.PAGE_SIZE zero words.
+ * - @return ShortBuffer: The page.
+ *
+ * copy(ShortBuffer page): Allocates a page holding the words of another, from any store.
+ * - @return ShortBuffer: The copy.
+ */
+
+import java.nio.ShortBuffer;
+
+interface MemoryStore {
+    String[] NAMES = {"heap", "direct"};
+
+    static MemoryStore create(String name, int pages) {
+        switch (name) {
+            case "heap":
+                return new HeapStore();
+            case "direct":
+                return new DirectStore(pages);
+            default:
+                throw new IllegalArgumentException("Unknown memory store: " + name);
+        }
+    }
+
+    ShortBuffer newPage();
+
+    default ShortBuffer copy(ShortBuffer page) {
+        return newPage().put(0, page, 0, Memory.PAGE_SIZE);
+    }
+}
@@ -0,0 +1,145 @@
+package components;
+
+/*
+ * MissClassifier: Sorts a Cache's misses into the three classes: cold (the block was never
+ * referenced before), capacity (a fully associative LRU cache with the same number of lines would
+ * have missed too) and conflict (everything else, i.e. misses caused by the set mapping or the
+ * replacement policy, and misses after a block was invalidated). The fully associative shadow cache
+ * is a doubly linked LRU list threaded through arrays indexed by block number, so every access is a
+ * few array updates and nothing is allocated. Addresses outside the 16-bit range count as cold.
+ *
+ * MissClassifier(int lines, int offsetBits): Creates a classifier for a cache.
+ * - @param lines: The number of lines of the cache (the size of the shadow cache).
+ * - @param offsetBits: log2 of the block size.
+ *
+ * touch(int address): Records a hit.
+ *
+ * referenced(int address): Marks a block as referenced without a miss (the first use of a
+ * prefetched block), so its next miss is not cold.
+ *
+ * classify(int address): Records a miss.
+ * - @return int: COLD, CAPACITY or CONFLICT.
+ *
+ * copy(): Returns an independent copy (used by cache snapshots).
+ *
+ * restore(MissClassifier snapshot): Puts back the state of a copy in place, without allocating.
+ */
+
+final class MissClassifier {
+    static final int COLD = 0;
+    static final int CAPACITY = 1;
+    static final int CONFLICT = 2;
+
+    private static final int ADDRESS_RANGE = 1 << 16;
+
+    private final int lines;
+    private final int offsetBits;
+    private final boolean[] seen;     // Indexed by block number
+    private final boolean[] resident; // In the shadow cache
+    private final int[] newer;        // LRU list links by block number, -1 at the ends
+    private final int[] older;
+    private int newest = -1;
+    private int oldest = -1;
+    private int size;
+
+    MissClassifier(int lines, int offsetBits) {
+        int blocks = ADDRESS_RANGE >> offsetBits;
+        this.lines = lines;
+        this.offsetBits = offsetBits;
+        this.seen = new boolean[blocks];
+        this.resident = new boolean[blocks];
+        this.newer = new int[blocks];
+        this.older = new int[blocks];
+    }
+
+    private MissClassifier(MissClassifier other) {
+        this.lines = other.lines;
+        this.offsetBits = other.offsetBits;
+        this.seen = other.seen.clone();
+        this.resident = other.resident.clone();
+        this.newer = other.newer.clone();
+        this.older = other.older.clone();
+        this.newest = other.newest;
+        this.oldest = other.oldest;
+        this.size = other.size;
+    }
+
+    void touch(int address) {
+        if (address >= 0 && address < ADDRESS_RANGE) {
+            use(address >> offsetBits);
+        }
+    }
+
+    void referenced(int address) {
+        if (address >= 0 && address < ADDRESS_RANGE) {
+            seen[address >> offsetBits] = true;
+        }
+    }
+
+    int classify(int address) {
+        if (address < 0 || address >= ADDRESS_RANGE) {
+            return COLD;
+        }
+        int block = address >> offsetBits;
+        int kind = !seen[block] ? COLD : resident[block] ? CONFLICT : CAPACITY;
+        seen[block] = true;
+        use(block);
+        return kind;
+    }
+
+    // Moves a block to the most recently used end of the shadow cache, loading it if needed.
+    private void use(int block) {
+        if (resident[block]) {
+            if (block == newest) {
+                return;
+            }
+            unlink(block);
+        } else {
+            if (size == lines) {
+                int victim = oldest;
+                unlink(victim);
+                resident[victim] = false;
+                size--;
+            }
+            resident[block] = true;
+            size++;
+        }
+        older[block] = newest;
+        newer[block] = -1;
+        if (newest >= 0) {
+            newer[newest] = block;
+        } else {
+            oldest = block;
+        }
+        newest = block;
+    }
+
+    private void unlink(int block) {
+        int before = older[block];
+        int after = newer[block];
+        if (before >= 0) {
+            newer[before] = after;
+        } else {
+            oldest = after;
+        }
+        if (after >= 0) {
+            older[after] = before;
+        } else {
+            newest = before;
+        }
+    }
+
+    MissClassifier copy() {
+        return new MissClassifier(this);
+    }
+
+    void restore(MissClassifier snapshot) {
+        System.arraycopy(snapshot.seen, 0, seen, 0, seen.length);
+        System.arraycopy(snapshot.resident, 0, resident, 0, resident.length);
+        System.arraycopy(snapshot.newer, 0, newer, 0, newer.length);
+        System.arraycopy(snapshot.older, 0, older, 0, older.length);
+        newest = snapshot.newest;
+        oldest = snapshot.oldest;
+        size = snapshot.size;
+    }
+}
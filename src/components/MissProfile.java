@@ -0,0 +1,140 @@
+package components;
+
+/*
+ * MissProfile: The misses of one Cache level attributed to the instruction that caused them and
+ * the address they touched. Each distinct (instruction address, data address) pair is one entry
+ * with its miss count split by class (see MissClassifier). Entries live in primitive arrays found
+ * through an open-addressing hash table, so recording a miss allocates nothing until a new pair
+ * outgrows the table (which then doubles). Misses with no instruction to blame, e.g. in a Cache used
+ * on its own, have the instruction address -1.
+ *
+ * record(int instructionAddress, int dataAddress, int kind): Counts one miss.
+ *
+ * size(): The number of entries.
+ * - @return int: The entry count.
+ *
+ * getInstructionAddress(int entry), getDataAddress(int entry): The pair of an entry.
+ * - @return int: The address.
+ *
+ * getMisses(int entry), getColdMisses(int entry), getCapacityMisses(int entry),
+ * getConflictMisses(int entry): The counts of an entry.
+ * - @return long: The count.
+ *
+ * byMisses(): The entries, most misses first (ties in the order they were first seen).
+ * - @return int[]: Entry indexes.
+ *
+ * copy(): Returns an independent copy (used by cache snapshots).
+ */
+
+import java.util.Arrays;
+
+public final class MissProfile {
+    private int[] instructionAddresses;
+    private int[] dataAddresses;
+    private long[] counts;  // COLD, CAPACITY, CONFLICT per entry
+    private int[] table;    // Entry index + 1 for each slot, 0 if empty
+    private int size;
+
+    MissProfile() {
+        instructionAddresses = new int[16];
+        dataAddresses = new int[16];
+        counts = new long[16 * 3];
+        table = new int[32];
+    }
+
+    private MissProfile(MissProfile other) {
+        instructionAddresses = other.instructionAddresses.clone();
+        dataAddresses = other.dataAddresses.clone();
+        counts = other.counts.clone();
+        table = other.table.clone();
+        size = other.size;
+    }
+
+    void record(int instructionAddress, int dataAddress, int kind) {
+        int mask = table.length - 1;
+        int slot = hash(instructionAddress, dataAddress) & mask;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (instructionAddresses[entry] == instructionAddress && dataAddresses[entry] == dataAddress) {
+                counts[entry * 3 + kind]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == instructionAddresses.length) {
+            grow();
+            record(instructionAddress, dataAddress, kind);
+            return;
+        }
+        instructionAddresses[size] = instructionAddress;
+        dataAddresses[size] = dataAddress;
+        counts[size * 3 + kind] = 1;
+        table[slot] = ++size;
+    }
+
+    private static int hash(int instructionAddress, int dataAddress) {
+        int h = instructionAddress * 0x9E3779B1 + dataAddress;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int capacity = instructionAddresses.length * 2;
+        instructionAddresses = Arrays.copyOf(instructionAddresses, capacity);
+        dataAddresses = Arrays.copyOf(dataAddresses, capacity);
+        counts = Arrays.copyOf(counts, capacity * 3);
+        table = new int[capacity * 2];
+        int mask = table.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hash(instructionAddresses[entry], dataAddresses[entry]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getInstructionAddress(int entry) {
+        return instructionAddresses[entry];
+    }
+
+    public int getDataAddress(int entry) {
+        return dataAddresses[entry];
+    }
+
+    public long getMisses(int entry) {
+        return counts[entry * 3] + counts[entry * 3 + 1] + counts[entry * 3 + 2];
+    }
+
+    public long getColdMisses(int entry) {
+        return counts[entry * 3 + MissClassifier.COLD];
+    }
+
+    public long getCapacityMisses(int entry) {
+        return counts[entry * 3 + MissClassifier.CAPACITY];
+    }
+
+    public long getConflictMisses(int entry) {
+        return counts[entry * 3 + MissClassifier.CONFLICT];
+    }
+
+    public int[] byMisses() {
+        Integer[] order = new Integer[size];
+        for (int entry = 0; entry < size; entry++) {
+            order[entry] = entry;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(getMisses(b), getMisses(a)));  // Stable
+        int[] entries = new int[size];
+        for (int n = 0; n < size; n++) {
+            entries[n] = order[n];
+        }
+        return entries;
+    }
+
+    MissProfile copy() {
+        return new MissProfile(this);
+    }
+}
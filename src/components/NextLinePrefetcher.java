@@ -0,0 +1,35 @@
+package components;
+
+/*
+ * NextLinePrefetcher: Tagged next-line prefetching. A miss or the first use of a prefetched block
+ * loads the DEGREE blocks that start DISTANCE blocks after it, so a sequential walk keeps running
+ * ahead of itself. It keeps no state.
+ */
+
+final class NextLinePrefetcher implements Prefetcher {
+    private final int blockSize;
+    private final int degree;
+    private final int distance;
+
+    NextLinePrefetcher(int blockSize, int degree, int distance) {
+        this.blockSize = blockSize;
+        this.degree = degree;
+        this.distance = distance;
+    }
+
+    @Override
+    public void accessed(Cache cache, int address, int pc, boolean trigger) {
+        if (!trigger) {
+            return;
+        }
+        int base = address & ~(blockSize - 1);
+        for (int n = 0; n < degree; n++) {
+            cache.prefetch(base + (distance + n) * blockSize);
+        }
+    }
+
+    @Override
+    public Prefetcher copy() {
+        return this;  // Stateless
+    }
+}
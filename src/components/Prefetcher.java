@@ -0,0 +1,61 @@
+package components;
+
+/*
+ * Prefetcher: Loads blocks into a Cache before they are asked for. The cache reports every demand
+ * access it serves (reads and writes from the CPU or, for a next level, block requests from the
+ * levels above) together with the instruction that made it, and the prefetcher answers with
+ * Cache.prefetch() calls. Prefetched blocks go into the cache itself, tagged until their first use,
+ * so the cache can count them as useful (used before they left) or useless (evicted or invalidated
+ * unused). Implementations keep their state in flat arrays sized when they are created.
+ *
+ * Prefetchers, by name (none is the default):
+ *   next-line  Tagged next-line prefetching: a miss, or the first use of a prefetched block, loads
+ *              the blocks DISTANCE .. DISTANCE + DEGREE - 1 blocks after it.
+ *   stride     A reference prediction table of 64 entries indexed by instruction address. Each
+ *              entry keeps its instruction's last address and stride with a 2-bit confidence; once
+ *              the same stride has been seen twice, an access prefetches DISTANCE .. DISTANCE +
+ *              DEGREE - 1 strides (or, for strides within a block, blocks) ahead.
+ *   stream     Four stream trackers. A miss (or first use of a prefetched block) near the last
+ *              one of a tracker confirms a stream in that direction; confirmed streams prefetch
+ *              DEGREE blocks starting DISTANCE blocks ahead, and move on with every use. A miss
+ *              that fits no stream restarts the least recently used tracker.
+ *
+ * create(CacheConfig config): Creates the prefetcher named by a cache configuration.
+ * - @param config: The cache configuration, with its prefetcher, degree and distance.
+ * - @return Prefetcher: The prefetcher, or null for none.
+ * - @throws IllegalArgumentException: If the prefetcher is unknown.
+ *
+ * accessed(Cache cache, int address, int pc, boolean trigger): Records a demand access.
+ * - @param cache: The cache to prefetch into.
+ * - @param address: The address accessed.
+ * - @param pc: The instruction that made the access, or -1 if unknown.
+ * - @param trigger: True for a miss or the first use of a prefetched block.
+ *
+ * copy(): Returns an independent copy of the prefetcher's state (used by cache snapshots).
+ * - @return Prefetcher: The copy.
+ */
+
+public interface Prefetcher {
+    String[] NAMES = {"none", "next-line", "stride", "stream"};
+
+    static Prefetcher create(CacheConfig config) {
+        int degree = config.getPrefetchDegree();
+        int distance = config.getPrefetchDistance();
+        switch (config.getPrefetcher()) {
+            case "none":
+                return null;
+            case "next-line":
+                return new NextLinePrefetcher(config.getBlockSize(), degree, distance);
+            case "stride":
+                return new StridePrefetcher(config.getBlockSize(), degree, distance);
+            case "stream":
+                return new StreamPrefetcher(config.getBlockSize(), degree, distance);
+            default:
+                throw new IllegalArgumentException("Unknown prefetcher: " + config.getPrefetcher());
+        }
+    }
+
+    void accessed(Cache cache, int address, int pc, boolean trigger);
+
+    Prefetcher copy();
+}
@@ -4,10 +4,15 @@ package components;
  * ProgramCounter: Manages the program counter (PC) in a 12-bit range, with support 
  * for LOC directives that allow jumps to specific target addresses.
  * 
- * ProgramCounter(): Constructor that initializes the PC to 0 and sets up the map for LOC directives.
+ * LOC directives are kept in a redirect table covering the whole 12-bit address space: a bitset
+ * marks the addresses that have one and a short[] holds their targets, so the checks on the fetch
+ * path are two array reads with no boxing or hashing.
+ * 
+ * ProgramCounter(): Constructor that initializes the PC to 0 with no LOC directives.
  * 
  * addLocDirective(int currentAddress, int targetLocation): Adds a LOC directive mapping a current 
- * address to a specified target location.
+ * address to a specified target location. Addresses outside the 12-bit range can never be reached
+ * by the PC and are ignored.
  * - @param currentAddress: The address with the LOC directive.
  * - @param targetLocation: The target address to jump to when the LOC directive is encountered.
  * 
@@ -36,25 +41,28 @@ package components;
  * - @return String: A formatted string displaying the PC in decimal and 3-digit hexadecimal.
  */
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class ProgramCounter {
     private int pc; 
     private final int MAX_VALUE = 0xFFF; // Maximum value for 12 bits
+    private static final int ADDRESS_SPACE = 0x1000;
     
-    // Map to store LOC directive locations and their target addresses
-    private Map<Integer, Integer> locDirectives;
+    // LOC directive locations (one bit per address) and their target addresses
+    private final long[] locDirectives = new long[ADDRESS_SPACE / 64];
+    private final short[] locTargets = new short[ADDRESS_SPACE];
     
     public ProgramCounter() {
         this.pc = 0;
-        this.locDirectives = new HashMap<>();
     }
 
     // Add a new LOC directive mapping
     public void addLocDirective(int currentAddress, int targetLocation) {
         if (targetLocation >= 0 && targetLocation <= MAX_VALUE) {
-            locDirectives.put(currentAddress, targetLocation);
+            if (currentAddress >= 0 && currentAddress <= MAX_VALUE) {
+                locDirectives[currentAddress >>> 6] |= 1L << currentAddress;
+                locTargets[currentAddress] = (short) targetLocation;
+            }
         } else {
             throw new IllegalArgumentException("LOC target location out of range for 12-bit address");
         }
@@ -62,12 +70,12 @@ public class ProgramCounter {
 
     // Check if current address has a LOC directive
     public boolean hasLocDirective(int address) {
-        return locDirectives.containsKey(address);
+        return (address & ~MAX_VALUE) == 0 && (locDirectives[address >>> 6] & (1L << address)) != 0;
     }
 
     // Get the target location for a LOC directive
     public int getLocTarget(int address) {
-        return locDirectives.getOrDefault(address, address);
+        return hasLocDirective(address) ? locTargets[address] : address;
     }
 
     public void setPC(int value) {
@@ -89,7 +97,6 @@ public class ProgramCounter {
         // If next address has a LOC directive, jump to that location instead
         if (hasLocDirective(nextPC)) {
             this.pc = getLocTarget(nextPC);
-            System.out.println("LOC directive jump to: " + this.pc);
         } else {
             this.pc = nextPC;
         }
@@ -97,12 +104,12 @@ public class ProgramCounter {
 
     public void reset() {
         this.pc = 0;
-        this.locDirectives.clear();
+        clearLocDirectives();
     }
 
     // Clear all LOC directives
     public void clearLocDirectives() {
-        this.locDirectives.clear();
+        Arrays.fill(locDirectives, 0L);
     }
 
     @Override
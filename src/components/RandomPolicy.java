@@ -0,0 +1,42 @@
+package components;
+
+/*
+ * RandomPolicy: Random replacement from a seeded xorshift generator, so a run with the same seed
+ * replaces the same lines every time.
+ */
+
+final class RandomPolicy implements ReplacementPolicy {
+    private final int ways;
+    private long state;
+
+    RandomPolicy(int ways, long seed) {
+        this.ways = ways;
+        this.state = seed != 0 ? seed : 0x9E3779B97F4A7C15L;  // xorshift state must not be 0
+    }
+
+    private RandomPolicy(RandomPolicy other) {
+        this.ways = other.ways;
+        this.state = other.state;
+    }
+
+    @Override
+    public void accessed(int set, int way) {
+    }
+
+    @Override
+    public void filled(int set, int way) {
+    }
+
+    @Override
+    public int victim(int set) {
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        return (int) Long.remainderUnsigned(state, ways);
+    }
+
+    @Override
+    public ReplacementPolicy copy() {
+        return new RandomPolicy(this);
+    }
+}
@@ -0,0 +1,62 @@
+package components;
+
+/*
+ * ReplacementPolicy: Chooses which way of a set the Cache replaces on a miss. The cache reports
+ * every hit and every fill, and asks for a victim only once every way of the set holds a block
+ * (empty ways are always filled first, lowest way first). Implementations keep their state in
+ * flat arrays sized when they are created, so no call allocates.
+ *
+ * Policies, by name:
+ *   lru     True least recently used (a per-line last-use clock).
+ *   plru    Tree pseudo-LRU: ways - 1 bits per set pointing away from recent accesses.
+ *           Needs a power-of-two number of ways.
+ *   fifo    First in, first out: replaces ways in the order they were filled.
+ *   random  Seeded pseudo-random choice, reproducible for a given seed.
+ *   lfu     Least frequently used: fewest accesses since the block was loaded, lowest way on ties.
+ *
+ * create(CacheConfig config): Creates the policy named by a cache configuration.
+ * - @param config: The cache geometry, policy name and random seed.
+ * - @return ReplacementPolicy: A policy for config.getSets() sets of config.getWays() ways.
+ * - @throws IllegalArgumentException: If the policy is unknown or does not support the geometry.
+ *
+ * accessed(int set, int way): Records a hit on a line.
+ *
+ * filled(int set, int way): Records that a block was just loaded into a line.
+ *
+ * victim(int set): Chooses the way to replace in a full set.
+ * - @return int: The way.
+ *
+ * copy(): Returns an independent copy of the policy's state (used by cache snapshots).
+ * - @return ReplacementPolicy: The copy.
+ */
+
+public interface ReplacementPolicy {
+    String[] NAMES = {"lru", "plru", "fifo", "random", "lfu"};
+
+    static ReplacementPolicy create(CacheConfig config) {
+        int sets = config.getSets();
+        int ways = config.getWays();
+        switch (config.getPolicy()) {
+            case "lru":
+                return new LruPolicy(sets, ways);
+            case "plru":
+                return new TreePlruPolicy(sets, ways);
+            case "fifo":
+                return new FifoPolicy(sets, ways);
+            case "random":
+                return new RandomPolicy(ways, config.getSeed());
+            case "lfu":
+                return new LfuPolicy(sets, ways);
+            default:
+                throw new IllegalArgumentException("Unknown cache replacement policy: " + config.getPolicy());
+        }
+    }
+
+    void accessed(int set, int way);
+
+    void filled(int set, int way);
+
+    int victim(int set);
+
+    ReplacementPolicy copy();
+}
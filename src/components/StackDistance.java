@@ -0,0 +1,197 @@
+package components;
+
+/*
+ * StackDistance: Mattson's stack algorithm for LRU caches. In one pass over an address stream it
+ * measures, for every access, the number of distinct blocks touched since the previous access to
+ * the same block (its LRU stack distance). A fully associative LRU cache of L lines hits exactly
+ * the accesses with a distance below L, so the histogram of distances gives the miss count of
+ * every cache size at once. It models write-allocate caches: reads and writes are both just
+ * accesses.
+ *
+ * Each block's last access time is kept in a hash table of primitive arrays, and a Fenwick tree
+ * over the times holds a 1 at the last access time of every block, so a distance is the sum of one
+ * range of the tree: O(log n) per access, where n is the number of distinct blocks. When the clock
+ * reaches the end of the tree, the live times are renumbered 1..n in order (and the tree doubles if
+ * more than half of it is live), so memory stays proportional to the distinct blocks however long
+ * the stream is.
+ *
+ * StackDistance(int blockSize): Creates an empty stack.
+ * - @param blockSize: Words per block (a power of two).
+ * - @throws IllegalArgumentException: If the block size is not a power of two.
+ *
+ * access(int address): Records one access.
+ * - @param address: The address accessed (non-negative).
+ *
+ * flush(): Empties the stack, as invalidating the whole cache does; the next access to every block
+ * misses at every size and is counted as cold.
+ *
+ * getAccessCount(), getColdMissCount(): The accesses, and those that miss at every size (first
+ * accesses to a block, or first after a flush).
+ * - @return long: The count.
+ *
+ * getDistinctBlocks(): The most blocks the stack has held at once, which no cache needs more lines than.
+ * - @return int: The block count.
+ *
+ * getMissCurve(int maxLines): The misses of every fully associative LRU cache of 1..maxLines lines.
+ * - @param maxLines: The largest size.
+ * - @return long[]: The miss count of each size, indexed by lines (index 0 counts every access).
+ */
+
+import java.util.Arrays;
+
+public final class StackDistance {
+    private final int offsetBits;
+    private int[] keys;       // Hash table: block number, or -1 if the slot is empty
+    private int[] lastTimes;  // The block's last access time
+    private int blocks;
+    private int maxBlocks;
+    private int[] tree;       // Fenwick tree over times 1..tree.length - 1
+    private int[] blockAt;    // The block last accessed at each time, if it is still its last access
+    private int clock;
+    private long[] histogram = new long[64];  // Accesses per stack distance
+    private long accesses;
+    private long coldMisses;
+
+    public StackDistance(int blockSize) {
+        if (blockSize < 1 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+        this.offsetBits = Integer.numberOfTrailingZeros(blockSize);
+        this.keys = new int[1 << 10];
+        this.lastTimes = new int[keys.length];
+        Arrays.fill(keys, -1);
+        this.tree = new int[1 << 16];
+        this.blockAt = new int[tree.length];
+    }
+
+    public void access(int address) {
+        int block = address >>> offsetBits;
+        accesses++;
+        int slot = find(block);
+        if (keys[slot] == block) {
+            int last = lastTimes[slot];
+            int distance = sum(clock) - sum(last);  // Distinct blocks touched since
+            if (distance >= histogram.length) {
+                histogram = Arrays.copyOf(histogram, Math.max(histogram.length * 2, distance + 1));
+            }
+            histogram[distance]++;
+            add(last, -1);
+        } else {
+            coldMisses++;
+            if (++blocks * 2 > keys.length) {
+                rehash(keys.length * 2);
+                slot = find(block);
+            }
+            keys[slot] = block;
+            maxBlocks = Math.max(maxBlocks, blocks);
+        }
+        lastTimes[slot] = 0;  // Not live until it is given the new time
+        if (clock == tree.length - 1) {
+            compact();
+            slot = find(block);
+        }
+        clock++;
+        lastTimes[slot] = clock;
+        blockAt[clock] = block;
+        add(clock, 1);
+    }
+
+    public void flush() {
+        Arrays.fill(keys, -1);
+        Arrays.fill(tree, 0);
+        blocks = 0;
+        clock = 0;
+    }
+
+    public long getAccessCount() {
+        return accesses;
+    }
+
+    public long getColdMissCount() {
+        return coldMisses;
+    }
+
+    public int getDistinctBlocks() {
+        return maxBlocks;
+    }
+
+    public long[] getMissCurve(int maxLines) {
+        long[] misses = new long[maxLines + 1];
+        long missed = accesses;  // Misses of a cache of 'lines' lines
+        for (int lines = 0; lines <= maxLines; lines++) {
+            misses[lines] = missed;
+            if (lines < histogram.length) {
+                missed -= histogram[lines];  // Distance 'lines' hits from lines + 1 on
+            }
+        }
+        return misses;
+    }
+
+    // The slot holding block, or the empty slot where it belongs.
+    private int find(int block) {
+        int mask = keys.length - 1;
+        int slot = (block * 0x9E3779B1 >>> 8) & mask;
+        while (keys[slot] != -1 && keys[slot] != block) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldTimes = lastTimes;
+        keys = new int[capacity];
+        lastTimes = new int[capacity];
+        Arrays.fill(keys, -1);
+        for (int n = 0; n < oldKeys.length; n++) {
+            if (oldKeys[n] != -1) {
+                int slot = find(oldKeys[n]);
+                keys[slot] = oldKeys[n];
+                lastTimes[slot] = oldTimes[n];
+            }
+        }
+    }
+
+    // Renumbers the live times 1..blocks in order and rebuilds the tree.
+    private void compact() {
+        int size = tree.length;
+        if (blocks * 2 > size) {
+            size *= 2;
+        }
+        int[] live = new int[size];
+        int time = 0;
+        for (int old = 1; old <= clock; old++) {
+            int slot = find(blockAt[old]);
+            if (keys[slot] == blockAt[old] && lastTimes[slot] == old) {
+                lastTimes[slot] = ++time;
+                live[time] = blockAt[old];
+            }
+        }
+        blockAt = live;
+        tree = new int[size];
+        for (int n = 1; n < size; n++) {  // Linear build: every live time holds a 1
+            if (n <= time) {
+                tree[n]++;
+            }
+            int parent = n + (n & -n);
+            if (parent < size) {
+                tree[parent] += tree[n];
+            }
+        }
+        clock = time;
+    }
+
+    private int sum(int time) {
+        int total = 0;
+        for (int n = time; n > 0; n -= n & -n) {
+            total += tree[n];
+        }
+        return total;
+    }
+
+    private void add(int time, int delta) {
+        for (int n = time; n < tree.length; n += n & -n) {
+            tree[n] += delta;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package components;
+
+/*
+ * StreamPrefetcher: Follows up to four sequential streams of blocks, ascending or descending. Each
+ * tracker remembers the last block that triggered it (a miss or the first use of a prefetched
+ * block) and, once confirmed, its direction. A trigger within DISTANCE + DEGREE blocks ahead of a
+ * confirmed stream advances it; a trigger one or two blocks from an unconfirmed tracker confirms it
+ * in that direction. Either way the stream then prefetches the DEGREE blocks that start DISTANCE
+ * blocks ahead of the trigger. A trigger that fits no tracker restarts the least recently used one.
+ */
+
+final class StreamPrefetcher implements Prefetcher {
+    private static final int STREAMS = 4;
+
+    private final int blockSize;
+    private final int offsetBits;
+    private final int degree;
+    private final int distance;
+    private final boolean[] active = new boolean[STREAMS];
+    private final int[] lastBlocks = new int[STREAMS];
+    private final int[] directions = new int[STREAMS];  // +1, -1, or 0 while unconfirmed
+    private final long[] lastUsed = new long[STREAMS];
+    private long clock;
+
+    StreamPrefetcher(int blockSize, int degree, int distance) {
+        this.blockSize = blockSize;
+        this.offsetBits = Integer.numberOfTrailingZeros(blockSize);
+        this.degree = degree;
+        this.distance = distance;
+    }
+
+    private StreamPrefetcher(StreamPrefetcher other) {
+        this(other.blockSize, other.degree, other.distance);
+        System.arraycopy(other.active, 0, active, 0, STREAMS);
+        System.arraycopy(other.lastBlocks, 0, lastBlocks, 0, STREAMS);
+        System.arraycopy(other.directions, 0, directions, 0, STREAMS);
+        System.arraycopy(other.lastUsed, 0, lastUsed, 0, STREAMS);
+        this.clock = other.clock;
+    }
+
+    @Override
+    public void accessed(Cache cache, int address, int pc, boolean trigger) {
+        if (!trigger) {
+            return;
+        }
+        int block = address >> offsetBits;
+        int stream = find(block);
+        if (stream < 0) {
+            stream = leastRecentlyUsed();
+            active[stream] = true;
+            lastBlocks[stream] = block;
+            directions[stream] = 0;
+            lastUsed[stream] = ++clock;
+            return;
+        }
+        if (directions[stream] == 0) {
+            directions[stream] = block > lastBlocks[stream] ? 1 : -1;
+        }
+        lastBlocks[stream] = block;
+        lastUsed[stream] = ++clock;
+        int direction = directions[stream];
+        for (int n = 0; n < degree; n++) {
+            cache.prefetch((block + direction * (distance + n)) << offsetBits);
+        }
+    }
+
+    // The tracker a trigger block belongs to, or -1.
+    private int find(int block) {
+        for (int stream = 0; stream < STREAMS; stream++) {
+            if (!active[stream]) {
+                continue;
+            }
+            int ahead = block - lastBlocks[stream];
+            if (directions[stream] != 0) {
+                ahead *= directions[stream];
+                if (ahead >= 1 && ahead <= distance + degree) {
+                    return stream;
+                }
+            } else if (ahead != 0 && Math.abs(ahead) <= 2) {
+                return stream;
+            }
+        }
+        return -1;
+    }
+
+    private int leastRecentlyUsed() {
+        int victim = 0;
+        for (int stream = 0; stream < STREAMS; stream++) {
+            if (!active[stream]) {
+                return stream;
+            }
+            if (lastUsed[stream] < lastUsed[victim]) {
+                victim = stream;
+            }
+        }
+        return victim;
+    }
+
+    @Override
+    public Prefetcher copy() {
+        return new StreamPrefetcher(this);
+    }
+}
@@ -0,0 +1,83 @@
+package components;
+
+/*
+ * StridePrefetcher: A reference prediction table (Chen and Baer) of 64 entries indexed by the low
+ * bits of the instruction address. An entry holds its instruction's address, the last address it
+ * touched, the last stride and a saturating 2-bit confidence that rises when the stride repeats
+ * and falls when it changes (the stride is replaced once the confidence is back at 0). Every access
+ * trains the table; an entry with a confidence of 2 or more prefetches DISTANCE .. DISTANCE +
+ * DEGREE - 1 strides ahead, or blocks ahead in the stride's direction when the stride is shorter
+ * than a block. An instruction that makes two accesses in a row (an indirect address word, then
+ * its operand) gets one entry for each. Accesses without an instruction address share entries.
+ */
+
+final class StridePrefetcher implements Prefetcher {
+    private static final int ENTRIES = 64;
+
+    private final int blockSize;
+    private final int degree;
+    private final int distance;
+    private final int[] tags = new int[ENTRIES];  // Instruction address * 2 + access within it
+    private final boolean[] valid = new boolean[ENTRIES];
+    private final int[] lastAddresses = new int[ENTRIES];
+    private final int[] strides = new int[ENTRIES];
+    private final int[] confidence = new int[ENTRIES];
+    private int lastPc = -1;
+    private int second;  // 1 while the same instruction makes another access
+
+    StridePrefetcher(int blockSize, int degree, int distance) {
+        this.blockSize = blockSize;
+        this.degree = degree;
+        this.distance = distance;
+    }
+
+    private StridePrefetcher(StridePrefetcher other) {
+        this(other.blockSize, other.degree, other.distance);
+        System.arraycopy(other.tags, 0, tags, 0, ENTRIES);
+        System.arraycopy(other.valid, 0, valid, 0, ENTRIES);
+        System.arraycopy(other.lastAddresses, 0, lastAddresses, 0, ENTRIES);
+        System.arraycopy(other.strides, 0, strides, 0, ENTRIES);
+        System.arraycopy(other.confidence, 0, confidence, 0, ENTRIES);
+        this.lastPc = other.lastPc;
+        this.second = other.second;
+    }
+
+    @Override
+    public void accessed(Cache cache, int address, int pc, boolean trigger) {
+        second = pc == lastPc ? 1 : 0;
+        lastPc = pc;
+        int tag = pc * 2 + second;
+        int entry = tag & (ENTRIES - 1);
+        if (!valid[entry] || tags[entry] != tag) {
+            valid[entry] = true;
+            tags[entry] = tag;
+            lastAddresses[entry] = address;
+            strides[entry] = 0;
+            confidence[entry] = 0;
+            return;
+        }
+        int stride = address - lastAddresses[entry];
+        lastAddresses[entry] = address;
+        if (stride == 0) {
+            return;  // The same word again: nothing to learn
+        }
+        if (stride == strides[entry]) {
+            confidence[entry] = Math.min(confidence[entry] + 1, 3);
+        } else if (confidence[entry] > 0) {
+            confidence[entry]--;
+        } else {
+            strides[entry] = stride;
+        }
+        if (confidence[entry] >= 2) {
+            int step = Math.abs(stride) < blockSize ? Integer.signum(stride) * blockSize : stride;
+            for (int n = 0; n < degree; n++) {
+                cache.prefetch(address + (distance + n) * step);
+            }
+        }
+    }
+
+    @Override
+    public Prefetcher copy() {
+        return new StridePrefetcher(this);
+    }
+}
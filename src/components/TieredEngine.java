@@ -0,0 +1,212 @@
+package components;
+
+/*
+ * TieredEngine: Runs a program with two tiers. Tier one is the predecoded interpreter; tier two is
+ * basic blocks translated to JVM bytecode by the BlockTranslator. The engine counts how often each
+ * block leader (the target of a taken transfer, or the word after a translated block) is reached,
+ * and once a leader has been reached hotThreshold times its block is translated and used from then
+ * on. The engine listens to Memory: a store into translated code discards every block covering the
+ * word and makes a running block exit right after the store, so self-modifying code stays exact.
+ *
+ * Instruction fetches go through the CPU's instruction cache, if it has one: the interpreted ones
+ * one by one, and the instructions of a translated block all at once when the block returns.
+ *
+ * TieredEngine(Memory memory, ProgramCounter pc, CPUExe cpuExe, DecodeCache decodeCache,
+ * GeneralPurposeRegisters gpr, IndexRegisters ixr): Creates the engine for one CPU.
+ *
+ * run(): Executes the Fetch-Decode-Execute cycle until a HLT instruction is encountered.
+ *
+ * run(long maxInstructions): Like run(), but stops once the given number of instructions has been
+ * executed. A translated block only runs if all of it fits under the limit (otherwise its
+ * instructions are interpreted), so the run stops exactly at the limit.
+ * - @param maxInstructions: The instruction limit.
+ * - @return boolean: True if the program halted, false if the limit was reached first.
+ *
+ * setHotThreshold(int threshold): Sets how many times a leader must be reached before its block is translated.
+ * - @param threshold: The number of executions; 0 disables translation.
+ *
+ * getInterpretedCount(), getTranslatedCount(): Number of instructions executed by each tier. As in
+ * the interpreter, an instruction that faults (throws) counts as executed.
+ * - @return long: The instruction count.
+ *
+ * getBlocksTranslated(), getBlocksInvalidated(): Number of blocks translated and discarded.
+ * - @return int: The block count.
+ */
+
+public class TieredEngine implements MemoryListener {
+    private static final int MAX_RETRANSLATIONS = 8;  // Give up on blocks that keep being overwritten
+
+    private final Memory memory;
+    private final ProgramCounter pc;
+    private final DecodeCache decodeCache;
+    private final BlockTranslator translator;
+    private final BlockRuntime runtime;
+
+    // Indexed by leader address.
+    private final CompiledBlock[] blocks;
+    private final int[] blockLength;
+    private final int[] hits;
+    private final int[] invalidations;
+    private final boolean[] untranslatable;
+
+    private final int[] coverage;  // Number of translated blocks covering each word
+    private int hotThreshold = 50;
+
+    private long interpretedCount;
+    private long translatedCount;
+    private int blocksTranslated;
+    private int blocksInvalidated;
+
+    public TieredEngine(Memory memory, ProgramCounter pc, CPUExe cpuExe, DecodeCache decodeCache,
+                        GeneralPurposeRegisters gpr, IndexRegisters ixr) {
+        int size = memory.getSize();
+        this.memory = memory;
+        this.pc = pc;
+        this.decodeCache = decodeCache;
+        this.translator = new BlockTranslator(memory, pc);
+        this.runtime = new BlockRuntime(cpuExe, gpr, ixr, pc, decodeCache);
+        this.blocks = new CompiledBlock[size];
+        this.blockLength = new int[size];
+        this.hits = new int[size];
+        this.invalidations = new int[size];
+        this.untranslatable = new boolean[size];
+        this.coverage = new int[size];
+        memory.addListener(this);
+    }
+
+    public void run() {
+        run(Long.MAX_VALUE);
+    }
+
+    public boolean run(long maxInstructions) {
+        long limit = interpretedCount + translatedCount + maxInstructions;
+        if (limit < 0) {
+            limit = Long.MAX_VALUE;  // Overflowed
+        }
+        boolean halt = false;
+        boolean atLeader = true;
+        while (!halt) {
+            if (interpretedCount + translatedCount >= limit) {
+                return false;
+            }
+            int address = pc.getPC();
+
+            // Resolve LOC directives exactly as CPU.fetch does.
+            if (pc.hasLocDirective(address)) {
+                pc.setPC(pc.getLocTarget(address));
+                continue;
+            }
+
+            if (address < blocks.length) {
+                CompiledBlock block = blocks[address];
+                if (block == null && atLeader && hotThreshold > 0 && ++hits[address] >= hotThreshold) {
+                    block = translate(address);
+                }
+                // A block runs to its end (or an early exit), so it only runs if it fits the limit.
+                if (block != null && blockLength[address] <= limit - interpretedCount - translatedCount) {
+                    int executed;
+                    try {
+                        executed = block.execute(runtime);
+                    } catch (RuntimeException e) {
+                        // Only the block's last instruction, a transfer, can fault (its target is
+                        // rejected), and a faulting instruction counts as executed.
+                        int length = blockLength[address];
+                        decodeCache.fetched(address, length);
+                        translatedCount += length;
+                        throw e;
+                    }
+                    decodeCache.fetched(address, executed);
+                    translatedCount += executed;
+                    atLeader = true;
+                    continue;
+                }
+            }
+
+            // Interpret one instruction (counted before it runs, so one that faults counts).
+            int opcode = CPUExe.opcode(memory.loadMemoryValue(address));
+            pc.incrementPC();
+            interpretedCount++;
+            halt = decodeCache.executeOne(address);
+            atLeader = BlockTranslator.isTerminator(opcode) || pc.getPC() != address + 1;
+        }
+        return true;
+    }
+
+    private CompiledBlock translate(int leader) {
+        hits[leader] = 0;
+        if (untranslatable[leader] || invalidations[leader] > MAX_RETRANSLATIONS) {
+            return null;
+        }
+        int length = translator.blockLength(leader);
+        if (length == 0) {
+            untranslatable[leader] = true;
+            return null;
+        }
+        CompiledBlock block = translator.translate(leader, length);
+        blocks[leader] = block;
+        blockLength[leader] = length;
+        for (int a = leader; a < leader + length; a++) {
+            coverage[a]++;
+        }
+        blocksTranslated++;
+        return block;
+    }
+
+    private void discard(int leader) {
+        for (int a = leader; a < leader + blockLength[leader]; a++) {
+            coverage[a]--;
+        }
+        blocks[leader] = null;
+        blockLength[leader] = 0;
+        invalidations[leader]++;
+        blocksInvalidated++;
+    }
+
+    public void setHotThreshold(int threshold) {
+        this.hotThreshold = threshold;
+    }
+
+    public long getInterpretedCount() {
+        return interpretedCount;
+    }
+
+    public long getTranslatedCount() {
+        return translatedCount;
+    }
+
+    public int getBlocksTranslated() {
+        return blocksTranslated;
+    }
+
+    public int getBlocksInvalidated() {
+        return blocksInvalidated;
+    }
+
+    @Override
+    public void wordStored(int address) {
+        untranslatable[address] = false;
+        if (coverage[address] == 0) {
+            return;
+        }
+        // A block can start at most MAX_BLOCK_LENGTH - 1 words before the stored address.
+        int first = Math.max(0, address - BlockTranslator.MAX_BLOCK_LENGTH + 1);
+        for (int leader = first; leader <= address; leader++) {
+            if (blocks[leader] != null && address < leader + blockLength[leader]) {
+                discard(leader);
+            }
+        }
+        runtime.codeModified();
+    }
+
+    @Override
+    public void memoryReset() {
+        for (int leader = 0; leader < blocks.length; leader++) {
+            if (blocks[leader] != null) {
+                discard(leader);
+            }
+            hits[leader] = 0;
+            invalidations[leader] = 0;
+            untranslatable[leader] = false;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package components;
+
+/*
+ * TraceConsumer: Receives the records of an address trace, one call per record (see TraceReader).
+ *
+ * access(int kind, int address, int pc): Called for every record.
+ * - @param kind: TraceReader.READ, WRITE, FETCH or FLUSH (the Dinero labels).
+ * - @param address: The address accessed (unused for FLUSH).
+ * - @param pc: The address of the instruction that made the access, or -1 if the trace has none.
+ */
+
+public interface TraceConsumer {
+    void access(int kind, int address, int pc);
+}
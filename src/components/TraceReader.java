@@ -0,0 +1,191 @@
+package components;
+
+/*
+ * TraceReader: Streams an address trace from a file into a TraceConsumer, so cache designs can be
+ * evaluated on recorded accesses without running the CPU again. The file is read through
+ * memory-mapped windows of a FileChannel, one window at a time, so a trace of any size replays in
+ * constant heap memory and no record allocates.
+ *
+ * Formats:
+ *   bin   Our own binary format, written by TraceWriter: the 8 bytes "C6461TRC", an int version (1),
+ *         then one 8-byte record per access: the int PC of the instruction (-1 if unknown) and an
+ *         int holding the kind in its top 4 bits and the address in the low 28 bits. Big-endian.
+ *   din   The classic Dinero text format: one access per line, "LABEL ADDRESS [SIZE]", with LABEL
+ *         0 (read), 1 (write), 2 (instruction fetch), 3 (escape, ignored) or 4 (flush) and ADDRESS in
+ *         hexadecimal with an optional 0x. Blank lines are skipped. There is no PC (-1).
+ *
+ * Both formats use the Dinero labels as kinds: READ, WRITE, FETCH and FLUSH.
+ *
+ * formatOf(Path file): The format a file name suggests: "din" for *.din, otherwise "bin".
+ * - @return String: The format name.
+ *
+ * replay(Path file, String format, long limit, TraceConsumer consumer): Streams a trace.
+ * - @param file: The trace file.
+ * - @param format: "bin" or "din".
+ * - @param limit: The most records to replay (Long.MAX_VALUE for all).
+ * - @param consumer: Receives every record.
+ * - @return long: The number of records replayed (escapes included).
+ * - @throws IOException: If the file cannot be read or is not a trace of that format.
+ * - @throws IllegalArgumentException: If the format is unknown.
+ */
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class TraceReader {
+    public static final int READ = 0;
+    public static final int WRITE = 1;
+    public static final int FETCH = 2;
+    public static final int FLUSH = 4;
+    public static final String[] FORMATS = {"bin", "din"};
+
+    static final byte[] MAGIC = {'C', '6', '4', '6', '1', 'T', 'R', 'C'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 4;
+    static final int RECORD_SIZE = 8;
+
+    private static final int WINDOW = 64 << 20;  // Bytes mapped at a time (a multiple of RECORD_SIZE)
+
+    private TraceReader() {
+    }
+
+    public static String formatOf(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".din") ? "din" : "bin";
+    }
+
+    public static long replay(Path file, String format, long limit, TraceConsumer consumer) throws IOException {
+        if (!format.equals("bin") && !format.equals("din")) {
+            throw new IllegalArgumentException("Unknown trace format: " + format);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return format.equals("bin") ? replayBinary(channel, file, limit, consumer)
+                                        : replayDinero(channel, file, limit, consumer);
+        }
+    }
+
+    private static long replayBinary(FileChannel channel, Path file, long limit, TraceConsumer consumer) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Not a binary trace: " + file);
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        for (byte b : MAGIC) {
+            if (header.get() != b) {
+                throw new IOException("Not a binary trace: " + file);
+            }
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version " + version + ": " + file);
+        }
+        if ((size - HEADER_SIZE) % RECORD_SIZE != 0) {
+            throw new IOException("Truncated trace: " + file);
+        }
+
+        long records = Math.min((size - HEADER_SIZE) / RECORD_SIZE, limit);
+        long position = HEADER_SIZE;
+        long done = 0;
+        while (done < records) {
+            int count = (int) Math.min(records - done, WINDOW / RECORD_SIZE);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * RECORD_SIZE);
+            for (int n = 0; n < count; n++) {
+                int pc = window.getInt();
+                int word = window.getInt();
+                consumer.access(word >>> 28, word & 0x0FFFFFFF, pc);
+            }
+            position += (long) count * RECORD_SIZE;
+            done += count;
+        }
+        return done;
+    }
+
+    private static long replayDinero(FileChannel channel, Path file, long limit, TraceConsumer consumer) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        long records = 0;
+        long lineNumber = 0;
+        while (position < size && records < limit) {
+            int length = (int) Math.min(WINDOW, size - position);
+            boolean last = position + length == size;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int start = 0;  // First byte of the current line
+            while (start < length && records < limit) {
+                int end = start;
+                while (end < length && window.get(end) != '\n') {
+                    end++;
+                }
+                if (end == length && !last) {
+                    break;  // The line goes on in the next window
+                }
+                lineNumber++;
+                if (parseDineroLine(window, start, end, consumer)) {
+                    records++;
+                } else if (!isBlank(window, start, end)) {
+                    throw new IOException("Malformed Dinero record at line " + lineNumber + " of " + file);
+                }
+                start = end + 1;
+            }
+            if (start == 0) {
+                throw new IOException("Line longer than " + WINDOW + " bytes in " + file);
+            }
+            position += Math.min(start, length);
+        }
+        return records;
+    }
+
+    // Parses "LABEL ADDRESS [SIZE]" between start and end and hands it on; false if malformed or blank.
+    private static boolean parseDineroLine(MappedByteBuffer line, int start, int end, TraceConsumer consumer) {
+        int n = skipSpace(line, start, end);
+        if (n == end || !isDigit(line.get(n))) {
+            return false;
+        }
+        int label = 0;
+        while (n < end && isDigit(line.get(n))) {
+            label = label * 10 + (line.get(n++) - '0');
+        }
+        int addressStart = skipSpace(line, n, end);
+        if (addressStart == n) {
+            return false;  // No separator
+        }
+        n = addressStart;
+        if (n + 1 < end && line.get(n) == '0' && (line.get(n + 1) == 'x' || line.get(n + 1) == 'X')) {
+            n += 2;
+        }
+        long address = 0;
+        int digits = 0;
+        for (; n < end; n++, digits++) {
+            int digit = Character.digit(line.get(n), 16);
+            if (digit < 0) {
+                break;
+            }
+            address = (address << 4) | digit;
+        }
+        if (digits == 0 || (n < end && !isSpace(line.get(n)))) {
+            return false;
+        }
+        consumer.access(label, (int) address, -1);
+        return true;
+    }
+
+    private static int skipSpace(MappedByteBuffer line, int n, int end) {
+        while (n < end && isSpace(line.get(n))) {
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean isBlank(MappedByteBuffer line, int start, int end) {
+        return skipSpace(line, start, end) == end;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
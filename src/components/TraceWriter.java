@@ -0,0 +1,80 @@
+package components;
+
+/*
+ * TraceWriter: Records an address trace in the binary format TraceReader replays (see TraceReader
+ * for the layout). Records are packed into a direct buffer that is written to the FileChannel when
+ * full, so recording costs a few stores per access. A CacheHierarchy given a writer records every
+ * load, store and instruction fetch it sees.
+ *
+ * TraceWriter(Path file): Creates (or truncates) a trace file and writes its header.
+ * - @param file: The trace file.
+ * - @throws IOException: If the file cannot be written.
+ *
+ * record(int kind, int address, int pc): Appends one record.
+ * - @param kind: TraceReader.READ, WRITE, FETCH or FLUSH.
+ * - @param address: The address accessed (the low 28 bits are kept).
+ * - @param pc: The address of the instruction that made the access, or -1.
+ * - @throws UncheckedIOException: If the file cannot be written.
+ *
+ * getRecordCount(): The number of records written so far.
+ * - @return long: The record count.
+ *
+ * close(): Writes what is buffered and closes the file.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class TraceWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long records;
+
+    public TraceWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.put(TraceReader.MAGIC).putInt(TraceReader.VERSION);
+    }
+
+    public void record(int kind, int address, int pc) {
+        if (buffer.remaining() < TraceReader.RECORD_SIZE) {
+            flush();
+        }
+        buffer.putInt(pc).putInt(kind << 28 | (address & 0x0FFFFFFF));
+        records++;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package components;
+
+/*
+ * TreePlruPolicy: Tree pseudo-LRU replacement. Each set has a binary tree of ways - 1 bits with the
+ * ways as its leaves; every access flips the bits on the path to its way to point away from it, and
+ * the victim is found by following the bits from the root. Needs a power-of-two number of ways.
+ */
+
+final class TreePlruPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int levels;      // log2(ways)
+    private final boolean[] bits;  // Set s uses bits[s * (ways - 1) ..]; true points to the upper half
+
+    TreePlruPolicy(int sets, int ways) {
+        if (Integer.bitCount(ways) != 1) {
+            throw new IllegalArgumentException("Tree pseudo-LRU needs a power-of-two number of ways: " + ways);
+        }
+        this.ways = ways;
+        this.levels = Integer.numberOfTrailingZeros(ways);
+        this.bits = new boolean[sets * (ways - 1)];
+    }
+
+    private TreePlruPolicy(TreePlruPolicy other) {
+        this.ways = other.ways;
+        this.levels = other.levels;
+        this.bits = other.bits.clone();
+    }
+
+    @Override
+    public void accessed(int set, int way) {
+        int base = set * (ways - 1);
+        int node = 0;
+        for (int level = levels - 1; level >= 0; level--) {
+            int upper = (way >> level) & 1;
+            bits[base + node] = upper == 0;  // Point at the other half
+            node = 2 * node + 1 + upper;
+        }
+    }
+
+    @Override
+    public void filled(int set, int way) {
+        accessed(set, way);
+    }
+
+    @Override
+    public int victim(int set) {
+        int base = set * (ways - 1);
+        int node = 0;
+        int way = 0;
+        for (int level = 0; level < levels; level++) {
+            int upper = bits[base + node] ? 1 : 0;
+            way = (way << 1) | upper;
+            node = 2 * node + 1 + upper;
+        }
+        return way;
+    }
+
+    @Override
+    public ReplacementPolicy copy() {
+        return new TreePlruPolicy(this);
+    }
+}
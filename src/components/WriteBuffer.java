@@ -0,0 +1,106 @@
+package components;
+
+/*
+ * WriteBuffer: The FIFO of words a write-through Cache has sent towards the next level but that
+ * have not reached it yet. A store to a word that is already waiting merges into its entry. The
+ * Cache retires the oldest entry when the buffer is full, and drains the entries of a block before
+ * that block is read from the next level, so nothing ever reads around a pending write.
+ *
+ * WriteBuffer(int depth): Creates an empty buffer.
+ * - @param depth: The number of entries (at least 1).
+ *
+ * merge(int address, int value): Updates the entry waiting for an address, if there is one.
+ * - @return boolean: True if the store merged.
+ *
+ * add(int address, int value): Appends an entry; the buffer must not be full.
+ *
+ * isFull(), isEmpty(): The fill state.
+ *
+ * oldestAddress(), oldestValue(), removeOldest(): Access and retire the entry at the head.
+ *
+ * pendingInRange(int baseAddress, int length): Counts the entries, from the oldest, that must
+ * retire before no entry for the range is left.
+ * - @return int: The number of entries to retire (0 if none is in the range).
+ *
+ * clear(): Drops every entry.
+ *
+ * copy(): Returns an independent copy (used by cache snapshots).
+ */
+
+final class WriteBuffer {
+    private final int[] addresses;
+    private final int[] values;
+    private int head;   // Index of the oldest entry
+    private int size;
+
+    WriteBuffer(int depth) {
+        this.addresses = new int[depth];
+        this.values = new int[depth];
+    }
+
+    private WriteBuffer(WriteBuffer other) {
+        this.addresses = other.addresses.clone();
+        this.values = other.values.clone();
+        this.head = other.head;
+        this.size = other.size;
+    }
+
+    boolean merge(int address, int value) {
+        for (int n = 0; n < size; n++) {
+            int slot = (head + n) % addresses.length;
+            if (addresses[slot] == address) {
+                values[slot] = value;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(int address, int value) {
+        int slot = (head + size) % addresses.length;
+        addresses[slot] = address;
+        values[slot] = value;
+        size++;
+    }
+
+    boolean isFull() {
+        return size == addresses.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int oldestAddress() {
+        return addresses[head];
+    }
+
+    int oldestValue() {
+        return values[head];
+    }
+
+    void removeOldest() {
+        head = (head + 1) % addresses.length;
+        size--;
+    }
+
+    int pendingInRange(int baseAddress, int length) {
+        int count = 0;
+        for (int n = 0; n < size; n++) {
+            int address = addresses[(head + n) % addresses.length];
+            if (address >= baseAddress && address < baseAddress + length) {
+                count = n + 1;
+            }
+        }
+        return count;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    WriteBuffer copy() {
+        return new WriteBuffer(this);
+    }
+}
@@ -0,0 +1,140 @@
+package components;
+
+/*
+ * WriteCombiningBuffer: The FIFO of dirty blocks the last Cache level has written back but that
+ * have not reached Memory yet. Each entry holds one block and marks which of its words were
+ * written; a write-back to a block that is already waiting merges into its entry, so a block that
+ * is dirtied and written back again before it drains reaches Memory once. The Cache drains the
+ * oldest entry when the buffer is full, and reads a waiting block's words from its entry when it
+ * fills the block again.
+ *
+ * WriteCombiningBuffer(int entries, int blockSize): Creates an empty buffer.
+ * - @param entries: The number of entries (at least 1).
+ * - @param blockSize: Words per entry (the cache's block size).
+ *
+ * find(int baseAddress): The entry waiting for a block.
+ * - @return int: The entry, or -1 if none is waiting.
+ *
+ * add(int baseAddress): Appends an empty entry for a block; the buffer must not be full.
+ * - @return int: The entry.
+ *
+ * write(int entry, int offset, int[] src, int srcOffset, int length): Merges words into an entry.
+ * - @param offset: The first word's offset in the block.
+ *
+ * isFull(): The fill state.
+ *
+ * oldest(), removeOldest(): The entry at the head, and retiring it.
+ *
+ * baseAddress(int entry), isWritten(int entry, int word), word(int entry, int word): An entry's
+ * block and words.
+ *
+ * pendingFor(int baseAddress): Counts the entries, from the oldest, that must drain before no entry
+ * for the block is left (for a peer cache about to read the block from Memory).
+ * - @return int: The number of entries to drain (0 if the block is not waiting).
+ *
+ * update(int address, int value): Another writer stored a word: updates a waiting copy of it.
+ *
+ * clear(): Drops every entry.
+ *
+ * copy(): Returns an independent copy (used by cache snapshots).
+ */
+
+import java.util.Arrays;
+
+final class WriteCombiningBuffer {
+    private final int blockSize;
+    private final int[] bases;
+    private final int[] words;        // Entry n's words are words[n * blockSize ..]
+    private final boolean[] written;
+    private int head;   // Index of the oldest entry
+    private int size;
+
+    WriteCombiningBuffer(int entries, int blockSize) {
+        this.blockSize = blockSize;
+        this.bases = new int[entries];
+        this.words = new int[entries * blockSize];
+        this.written = new boolean[entries * blockSize];
+    }
+
+    private WriteCombiningBuffer(WriteCombiningBuffer other) {
+        this.blockSize = other.blockSize;
+        this.bases = other.bases.clone();
+        this.words = other.words.clone();
+        this.written = other.written.clone();
+        this.head = other.head;
+        this.size = other.size;
+    }
+
+    int find(int baseAddress) {
+        for (int n = 0; n < size; n++) {
+            int entry = (head + n) % bases.length;
+            if (bases[entry] == baseAddress) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    int add(int baseAddress) {
+        int entry = (head + size) % bases.length;
+        bases[entry] = baseAddress;
+        Arrays.fill(written, entry * blockSize, (entry + 1) * blockSize, false);
+        size++;
+        return entry;
+    }
+
+    void write(int entry, int offset, int[] src, int srcOffset, int length) {
+        System.arraycopy(src, srcOffset, words, entry * blockSize + offset, length);
+        Arrays.fill(written, entry * blockSize + offset, entry * blockSize + offset + length, true);
+    }
+
+    boolean isFull() {
+        return size == bases.length;
+    }
+
+    int oldest() {
+        return head;
+    }
+
+    void removeOldest() {
+        head = (head + 1) % bases.length;
+        size--;
+    }
+
+    int baseAddress(int entry) {
+        return bases[entry];
+    }
+
+    boolean isWritten(int entry, int word) {
+        return written[entry * blockSize + word];
+    }
+
+    int word(int entry, int word) {
+        return words[entry * blockSize + word];
+    }
+
+    int pendingFor(int baseAddress) {
+        for (int n = 0; n < size; n++) {
+            if (bases[(head + n) % bases.length] == baseAddress) {
+                return n + 1;
+            }
+        }
+        return 0;
+    }
+
+    void update(int address, int value) {
+        int entry = find(address & ~(blockSize - 1));
+        if (entry >= 0 && written[entry * blockSize + (address & (blockSize - 1))]) {
+            words[entry * blockSize + (address & (blockSize - 1))] = value;
+        }
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    WriteCombiningBuffer copy() {
+        return new WriteCombiningBuffer(this);
+    }
+}
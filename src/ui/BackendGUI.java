@@ -10,9 +10,20 @@ package ui;
  * - @param printerArea: The text area for displaying output messages in the GUI.
  * 
  * loadExecuteRom(File file): Loads a ROM file and executes it, updating the CPU's Program Counter 
- * and running the assembled code.
+ * and running the assembled code. The source is assembled straight into memory, with no listing or
+ * load file in between (Assembler.run still writes them). The source is read once. By default the program is
+ * interpreted; in AOT mode it is translated to a cached Java class first (reused as long as the source is
+ * unchanged), and interpreted if that is not possible.
  * - @param file: The ROM file to load and execute.
  * 
+ * setAotMode(boolean enabled): Turns ahead-of-time translation on or off for loadExecuteRom (the
+ * front panel's Ahead-of-time check box).
+ * - @param enabled: True to run programs through the AotCompiler, false (the default) to interpret them.
+ * 
+ * setCachePolicy(String policy): Replaces the cache with an empty one using another replacement
+ * policy (see ReplacementPolicy.NAMES). Hit and miss counts are printed after every run.
+ * - @param policy: The policy name.
+ * 
  * loadValue(int marValue): Loads a value from memory into the Memory Buffer Register (MBR) based 
  * on the specified MAR value and updates the GUI.
  * - @param marValue: The address to load from.
@@ -49,7 +60,7 @@ package ui;
  * getMfrValues(): Retrieves the Machine Fault Register values (not yet implemented).
  * - @return int[]: Array representing MFR values.
  * 
- * updateCacheDisplay(): Updates the cache content display in the frontend GUI.
+ * updateCacheDisplay(): Updates the cache content and statistics displays in the frontend GUI.
  * 
  * resetRegisters(): Resets all CPU registers and provides feedback in the printer area.
  * 
@@ -62,6 +73,9 @@ import javax.swing.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import Assembler.AssembledProgram;
 import Assembler.Assembler;
 
 public class BackendGUI {
@@ -76,6 +90,10 @@ public class BackendGUI {
     private Cache cache;
     private JTextArea printerArea; 
     private FrontendGUI frontendGUI;
+    private boolean aotMode = false;
+    private CacheConfig cacheConfig = CacheConfig.DEFAULT;
+    private final AotCompiler aotCompiler = new AotCompiler();
+    private final Assembler assembler = new Assembler();
 
     public BackendGUI(JTextArea printerArea) {
         // Initialize components
@@ -86,7 +104,7 @@ public class BackendGUI {
         ixr = new IndexRegisters(3); 
         pc = new ProgramCounter();
         cc = new ConditionCode();
-        cache = new Cache(memory);
+        cache = new Cache(memory, cacheConfig);
         cpu = new CPU(memory, mar, mbr, gprs, ixr, pc, cc, cache);
         this.printerArea = printerArea; 
     }
@@ -95,28 +113,60 @@ public class BackendGUI {
     // In BackendGUI.loadExecuteRom():
     public void loadExecuteRom(File file) {
         try {
-            // Run assembler
-            Assembler.run("assembly/" + file.getName());
+            // Assemble straight into memory (no listing or load file is written or read back)
+            String sourcePath = "assembly/" + file.getName();
+            byte[] source = Files.readAllBytes(Paths.get(sourcePath));  // Read once: assembled, and hashed in AOT mode
+            AssembledProgram assembled = assembler.assemble(sourcePath, new String(source), memory::storeValue);
             
-            // Get the configured PC from assembler
-            ProgramCounter assemblerPC = Assembler.getProgramCounter();
+            // Get a PC configured with the program's LOC directives
+            ProgramCounter assemblerPC = assembled.newProgramCounter();
             
             // Update our CPU's PC with the assembler's PC
             this.pc = assemblerPC;
+            cpu.close();  // Otherwise the old CPU's caches and engines keep listening to memory
             this.cpu = new CPU(memory, mar, mbr, gprs, ixr, assemblerPC, cc, cache);
+            cpu.setHaltAddresses(assembled.getHaltAddresses());
             
-            // Load ROM and execute
-            cpu.loadROMFile(new File("output/output.ld"));
-            pc.setPC(Assembler.getStartAddress());
-            cpu.run();
+            // Execute
+            pc.setPC(assembled.getStartAddress());
+            CompiledProgram program = null;
+            if (aotMode) {
+                program = aotCompiler.compile(file.getName(), source, assembled.getLoadAddresses(), assembled.getLoadValues(),
+                    pc, assembled.getStartAddress());
+            }
+            if (program != null) {
+                cpu.runCompiled(program);
+            } else {
+                cpu.run();
+            }
+            String fusionReport = cpu.getDecodeCache().getFusionReport();
+            if (!fusionReport.isEmpty()) {
+                printerArea.append("Superinstructions:\n" + fusionReport);
+            }
+            printerArea.append("Cache (" + cacheConfig.getPolicy() + "): " + cache.getHitCount() + " hits, "
+                + cache.getMissCount() + " misses\n");
             
             updateGUIFields();
             updateCacheDisplay();
         } catch (IOException ex) {
             printerArea.append("Error loading ROM file: " + ex.getMessage() + "\n");
+        } catch (IllegalArgumentException ex) {
+            printerArea.append("Error assembling ROM file: " + ex.getMessage() + "\n");
         }
     }
 
+    public void setAotMode(boolean enabled) {
+        this.aotMode = enabled;
+    }
+
+    public void setCachePolicy(String policy) {
+        cacheConfig = cacheConfig.withPolicy(policy);
+        cache = new Cache(memory, cacheConfig);
+        cpu.close();
+        cpu = new CPU(memory, mar, mbr, gprs, ixr, pc, cc, cache);
+        updateCacheDisplay();
+    }
+
     // LOAD.
     public void loadValue(int marValue) {
         mar.setValue((short) marValue);
@@ -226,6 +276,8 @@ public class BackendGUI {
     public void updateCacheDisplay() {
         if (frontendGUI != null && cpu.getCache() != null) {
             frontendGUI.updateCacheContent(cache.getCacheStateString());
+            CacheHierarchy caches = cpu.getCacheHierarchy();
+            frontendGUI.updateCacheStatistics(caches.getStatistics() + caches.getMissReport(10));
         }
     }     
     
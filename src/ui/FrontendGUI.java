@@ -29,7 +29,8 @@ package ui;
  * - @param panels: Array of BitPanels representing the register.
  * - @param label: Label for the register.
  * 
- * createControlPanel(): Sets up control buttons (Load, Store, Initialize, Clear All).
+ * createControlPanel(): Sets up control buttons (Load, Store, Initialize, Clear All), the cache policy
+ * box and the Ahead-of-time check box.
  * - @return JPanel: The panel containing control buttons.
  * 
  * initActionListeners(): Initializes actions for control buttons, handling load, store, and clear actions.
@@ -58,6 +59,9 @@ package ui;
  * updateCacheContent(String cacheContent): Updates the cache content display in the GUI.
  * - @param cacheContent: Formatted string representing cache content.
  * 
+ * updateCacheStatistics(String statistics): Updates the cache statistics display next to it.
+ * - @param statistics: The counters and the instructions with the most misses.
+ * 
  * getBackend(): Retrieves the linked BackendGUI instance.
  * - @return BackendGUI: The backend instance.
  * 
@@ -73,11 +77,15 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
 
+import components.ReplacementPolicy;
+
 public class FrontendGUI extends JFrame {
     private BitPanel[][] gprPanels, ixrPanels;
     private BitPanel[] pcPanels, marPanels, mbrPanels, irPanels, ccPanels, mfPanels;
-    private JTextArea cacheContentArea, printerArea;
+    private JTextArea cacheContentArea, cacheStatisticsArea, printerArea;
     private JButton loadButton, loadPlusButton, storeButton, storePlusButton, clearButton, initButton;
+    private JComboBox<String> cachePolicyBox;
+    private JCheckBox aotBox;
     private BackendGUI backend;
 
     public FrontendGUI() {
@@ -147,11 +155,15 @@ public class FrontendGUI extends JFrame {
         mainPanel.add(controlPanel, gbc);
 
         // Cache Content and Printer text areas
-        JPanel lowerPanel = new JPanel(new GridLayout(1, 2, 10, 10));
+        JPanel lowerPanel = new JPanel(new GridLayout(1, 3, 10, 10));
         cacheContentArea = new JTextArea(10, 30);
         cacheContentArea.setEditable(false);
         cacheContentArea.setBorder(BorderFactory.createTitledBorder("Cache Content"));
         lowerPanel.add(new JScrollPane(cacheContentArea));
+        cacheStatisticsArea = new JTextArea(10, 30);
+        cacheStatisticsArea.setEditable(false);
+        cacheStatisticsArea.setBorder(BorderFactory.createTitledBorder("Cache Statistics"));
+        lowerPanel.add(new JScrollPane(cacheStatisticsArea));
         lowerPanel.add(new JScrollPane(printerArea));
         gbc.gridy = 2;
         gbc.weighty = 0.5;
@@ -267,6 +279,8 @@ public class FrontendGUI extends JFrame {
         storePlusButton = new JButton("Store+");
         initButton = new JButton("Initialize");
         clearButton = new JButton("Clear All"); // Add Clear button
+        cachePolicyBox = new JComboBox<>(ReplacementPolicy.NAMES); // Cache replacement policy
+        aotBox = new JCheckBox("Ahead-of-time"); // Translate programs to Java classes (off: interpret)
 
         controlPanel.add(loadButton);
         controlPanel.add(loadPlusButton);
@@ -274,6 +288,9 @@ public class FrontendGUI extends JFrame {
         controlPanel.add(storePlusButton);
         controlPanel.add(initButton);
         controlPanel.add(clearButton);
+        controlPanel.add(new JLabel("Cache policy:"));
+        controlPanel.add(cachePolicyBox);
+        controlPanel.add(aotBox);
         return controlPanel;
     }
 
@@ -309,6 +326,12 @@ public class FrontendGUI extends JFrame {
     }
 
     private void initActionListeners() {
+        // Cache policy selection: starts over with an empty cache
+        cachePolicyBox.addActionListener(e -> backend.setCachePolicy((String) cachePolicyBox.getSelectedItem()));
+
+        // Engine for the next run: the AotCompiler when ticked, otherwise the interpreter
+        aotBox.addActionListener(e -> backend.setAotMode(aotBox.isSelected()));
+
         // Load button action
         loadButton.addActionListener(new ActionListener() {
             @Override
@@ -428,6 +451,10 @@ public class FrontendGUI extends JFrame {
         cacheContentArea.setText(cacheContent);
     }    
 
+    public void updateCacheStatistics(String statistics) {
+        cacheStatisticsArea.setText(statistics);
+    }
+
     // Add a getter for backend
     public BackendGUI getBackend() {
         return backend;